@@ -0,0 +1,86 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of a burst of B neighbour searches over about 1M ratings:
+ *  B separate findMostSimilarUser calls against one blocked call that
+ *  scores all B users in one pass (UsersList.scoreBlock). Both report the
+ *  time of the whole burst; divide by B for the time per user. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseG1GC", "-Xmx3g"})
+public class BurstBenchmark {
+    @Param({"1", "8", "32", "128"})
+    public int burst;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private File dir;
+    private UsersList usersData;
+    private int[][] bursts;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, 17000, 20000, 42);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(new File(dir, "movies.csv").getPath(), new File(dir, "ratings.csv").getPath());
+        recommender.setCompressedRatings(compressed);
+        usersData = recommender.getUsersData();
+        Random random = new Random(7);
+        bursts = new int[8][burst];
+        for (int[] users : bursts) {
+            for (int i = 0; i < burst; i++) {
+                users[i] = random.nextInt(usersData.numUsers());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        SyntheticData.delete(dir);
+    }
+
+    private int[] nextBurst() {
+        next = (next + 1) % bursts.length;
+        return bursts[next];
+    }
+
+    @Benchmark
+    public UserNode[] separate() {
+        int[] users = nextBurst();
+        UserNode[] found = new UserNode[users.length];
+        for (int i = 0; i < users.length; i++) {
+            found[i] = usersData.findMostSimilarUser(users[i]);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public UserNode[] blocked() {
+        int[] users = nextBurst();
+        return usersData.findMostSimilarUser(users, null, users.length);
+    }
+}
@@ -0,0 +1,119 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of RatingsLogIngester: every invocation appends the given
+ *  number of random ratings to the log and waits until the ingester has
+ *  applied them, so the sampled times are the time until appended ratings
+ *  are visible to queries. A background thread keeps asking for
+ *  recommendations meanwhile, as queries and ingestion share the lock. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    @Param({"100", "1000"})
+    public int rows;
+
+    private File dir;
+    private MovieRecommender recommender;
+    private RatingsLogIngester ingester;
+    private OutputStream log;
+    private Thread queries;
+    private volatile boolean done;
+    private int numUsers;
+    private int numMovies;
+    private long time;
+    private long written;
+    private final Random random = new Random(42);
+    private final StringBuilder lines = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, 5000, 5000, 42);
+        recommender = new MovieRecommender();
+        recommender.loadData(new File(dir, "movies.csv").getPath(), new File(dir, "ratings.csv").getPath());
+        final IdDictionary userIds = recommender.getUserIds();
+        numUsers = userIds.size();
+        numMovies = recommender.getMovieIds().size();
+        time = recommender.getLastRatingTime();
+
+        File logFile = new File(dir, "log.csv");
+        log = new FileOutputStream(logFile, true);
+        ingester = new RatingsLogIngester(recommender, logFile.getPath(), new File(dir, "log.offset").getPath(),
+                batchSize, 1);
+        ingester.start();
+
+        final String out = new File(dir, "recommendations.txt").getPath();
+        queries = new Thread(() -> {
+            Random random = new Random(7);
+            while (!done) {
+                recommender.findRecommendations(userIds.externalId(random.nextInt(numUsers)), 10, out);
+            }
+        }, "queries");
+        queries.setDaemon(true);
+        queries.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException, InterruptedException {
+        done = true;
+        queries.join();
+        try {
+            log.close();
+            ingester.stop();
+        } finally {
+            SyntheticData.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public long appendAndWait() throws IOException, InterruptedException {
+        IdDictionary userIds = recommender.getUserIds();
+        IdDictionary movieIds = recommender.getMovieIds();
+        lines.setLength(0);
+        for (int r = 0; r < rows; r++) {
+            lines.append(userIds.externalId(random.nextInt(numUsers))).append(',')
+                    .append(movieIds.externalId(random.nextInt(numMovies))).append(',')
+                    .append((1 + random.nextInt(10)) / 2.0).append(',')
+                    .append(++time).append('\n');
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        log.write(bytes);
+        log.flush();
+        written += bytes.length;
+        while (ingester.getOffset() < written) {
+            if (ingester.getFailure() != null) {
+                throw ingester.getFailure();
+            }
+            Thread.sleep(0, 100000);
+        }
+        return ingester.getRatingsApplied();
+    }
+}
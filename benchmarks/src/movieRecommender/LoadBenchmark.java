@@ -0,0 +1,54 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of MovieRecommender.loadData on synthetic files of several sizes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"200", "1000", "5000"})
+    public int users;
+
+    private File dir;
+    private String movies;
+    private String ratings;
+
+    @Setup
+    public void writeFiles() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, users, 5000, 42);
+        movies = new File(dir, "movies.csv").getPath();
+        ratings = new File(dir, "ratings.csv").getPath();
+    }
+
+    @TearDown
+    public void deleteFiles() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public MovieRecommender loadData() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(movies, ratings);
+        return recommender;
+    }
+}
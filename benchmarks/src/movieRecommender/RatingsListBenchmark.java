@@ -0,0 +1,123 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks of MovieRatingsList: building a list with insertByRating,
+ *  re-rating every movie of a list with setRating, the median rating, and
+ *  computeSimilarity between two lists with a small and a large overlap,
+ *  from the lists and from their CompressedRatings. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RatingsListBenchmark {
+    /** Number of ratings in each list */
+    @Param({"20", "200", "2000"})
+    public int size;
+
+    private int[] movies;
+    private double[] ratings;
+    private int shift; // changes the new ratings of every setRating call
+
+    @Setup
+    public void createRatings() {
+        Random random = new Random(42);
+        movies = new int[size];
+        ratings = new double[size];
+        for (int i = 0; i < size; i++) {
+            movies[i] = i * 3;
+            ratings[i] = (1 + random.nextInt(10)) / 2.0;
+        }
+    }
+
+    /** Two lists of the benchmark's size, sharing a part of their movies */
+    @State(Scope.Benchmark)
+    public static class Lists {
+        /** Share of the movies of one list that the other list also rated */
+        @Param({"0.05", "0.9"})
+        public double overlap;
+
+        private MovieRatingsList list;
+        private MovieRatingsList other;
+        private double[] otherDense;
+        private CompressedRatings compressed;
+        private CompressedRatings otherCompressed;
+
+        @Setup
+        public void createLists(RatingsListBenchmark benchmark) {
+            Random random = new Random(43);
+            int size = benchmark.size;
+            int shared = (int) (size * overlap);
+            list = new MovieRatingsList();
+            other = new MovieRatingsList();
+            for (int i = 0; i < size; i++) {
+                list.insertByRating(benchmark.movies[i], benchmark.ratings[i]);
+                // the other list rates the first shared movies of this list and then different ones
+                int otherMovie = i < shared ? benchmark.movies[i] : 3 * size + i;
+                other.insertByRating(otherMovie, (1 + random.nextInt(10)) / 2.0);
+            }
+            otherDense = new double[4 * size];
+            other.spreadInto(otherDense);
+            compressed = CompressedRatings.of(list);
+            otherCompressed = CompressedRatings.of(other);
+        }
+    }
+
+    @Benchmark
+    public MovieRatingsList insertByRating() {
+        MovieRatingsList result = new MovieRatingsList();
+        for (int i = 0; i < movies.length; i++) {
+            result.insertByRating(movies[i], ratings[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public MovieRatingsList setRating(Lists lists) {
+        shift++;
+        for (int i = 0; i < movies.length; i++) {
+            lists.list.setRating(movies[i], ratings[(i + shift) % ratings.length]);
+        }
+        return lists.list;
+    }
+
+    @Benchmark
+    public double getMedianRating(Lists lists) {
+        return lists.list.getMedianRating();
+    }
+
+    @Benchmark
+    public double computeSimilarity(Lists lists) {
+        return lists.list.computeSimilarity(lists.other);
+    }
+
+    @Benchmark
+    public double computeSimilarityDense(Lists lists) {
+        return lists.list.computeSimilarity(lists.otherDense);
+    }
+
+    @Benchmark
+    public double computeSimilarityCompressedDense(Lists lists) {
+        return lists.compressed.computeSimilarity(lists.otherDense);
+    }
+
+    @Benchmark
+    public double computeSimilarityCompressedMerge(Lists lists) {
+        return lists.compressed.computeSimilarity(lists.otherCompressed);
+    }
+}
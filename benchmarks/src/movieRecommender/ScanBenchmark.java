@@ -0,0 +1,70 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of the full neighbour scan (findMostSimilarUser) over about
+ *  1M ratings, with the users in each UserOrder and with and without the
+ *  compressed ratings. Runs with G1: the serial collector moves the
+ *  rating nodes back into the order of the users array when it compacts,
+ *  which undoes the layout of reorderUsers. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseG1GC", "-Xmx3g"})
+public class ScanBenchmark {
+    @Param({"INSERTION", "ACTIVITY", "CO_RATED"})
+    public UsersList.UserOrder order;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private File dir;
+    private MovieRecommender recommender;
+    private int[] users;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, 17000, 20000, 42);
+        recommender = new MovieRecommender();
+        recommender.loadData(new File(dir, "movies.csv").getPath(), new File(dir, "ratings.csv").getPath());
+        recommender.setCompressedRatings(compressed);
+        recommender.reorderUsers(order);
+        Random random = new Random(7);
+        users = new int[64];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = random.nextInt(recommender.getUserIds().size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public UserNode findMostSimilarUser() {
+        next = (next + 1) % users.length;
+        return recommender.getUsersData().findMostSimilarUser(users[next]);
+    }
+}
@@ -0,0 +1,75 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks of the neighbour search and of whole recommendation queries
+ *  on synthetic data sets of several sizes. Each invocation asks for a
+ *  different random user. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"200", "1000", "5000"})
+    public int users;
+
+    private File dir;
+    private MovieRecommender recommender;
+    private int[] userIds;
+    private int next;
+    private String output;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, users, 5000, 42);
+        recommender = new MovieRecommender();
+        recommender.loadData(new File(dir, "movies.csv").getPath(), new File(dir, "ratings.csv").getPath());
+        IdDictionary ids = recommender.getUserIds();
+        Random random = new Random(7);
+        userIds = new int[256];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = ids.externalId(random.nextInt(ids.size()));
+        }
+        output = new File(dir, "recommendations").getPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        SyntheticData.delete(dir);
+    }
+
+    private int nextUser() {
+        next = (next + 1) % userIds.length;
+        return userIds[next];
+    }
+
+    @Benchmark
+    public UserNode findMostSimilarUser() {
+        return recommender.getUsersData().findMostSimilarUser(recommender.getUserIds().indexOf(nextUser()));
+    }
+
+    @Benchmark
+    public void findRecommendations() {
+        recommender.findRecommendations(nextUser(), 15, output);
+    }
+}
@@ -0,0 +1,115 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of the sharded neighbour search: starts the given number of
+ *  ShardServer processes on this machine, each loading its share of the
+ *  users, and measures the latency of ShardCoordinator.findMostSimilarUsers
+ *  for a different random user on every invocation. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardBenchmark {
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({"10"})
+    public int k;
+
+    private File dir;
+    private Process[] processes;
+    private ShardCoordinator coordinator;
+    private int[] targets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, 5000, 5000, 42);
+        String movies = new File(dir, "movies.csv").getPath();
+        String ratings = new File(dir, "ratings.csv").getPath();
+
+        // the same random users are asked for every shard count
+        MovieRecommender all = new MovieRecommender();
+        all.loadData(movies, ratings);
+        IdDictionary userIds = all.getUserIds();
+        Random random = new Random(42);
+        targets = new int[256];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = userIds.externalId(random.nextInt(userIds.size()));
+        }
+
+        int[] ports = new int[shards];
+        processes = startShards(shards, movies, ratings, ports);
+        coordinator = new ShardCoordinator(ports);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        try {
+            coordinator.close();
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            SyntheticData.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public TopK findMostSimilarUsers() throws IOException {
+        next = (next + 1) % targets.length;
+        return coordinator.findMostSimilarUsers(targets[next], k);
+    }
+
+    /**
+     * Start the given number of shard processes, each loading its users,
+     * and return once all of them accept connections.
+     * @return the started processes; their ports are written into ports
+     */
+    private static Process[] startShards(int numShards, String movies, String ratings, int[] ports)
+            throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process[] processes = new Process[numShards];
+        for (int i = 0; i < numShards; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ShardServer.class.getName(), String.valueOf(i), String.valueOf(numShards), "0", movies, ratings);
+            builder.redirectErrorStream(true);
+            processes[i] = builder.start();
+        }
+        for (int i = 0; i < numShards; i++) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(processes[i].getInputStream()));
+            String line;
+            while ((line = reader.readLine()) != null && !line.startsWith("READY ")) {
+                System.out.println("shard " + i + ": " + line);
+            }
+            if (line == null) {
+                throw new IOException("Shard " + i + " exited before it was ready");
+            }
+            ports[i] = Integer.parseInt(line.substring("READY ".length()));
+        }
+        return processes;
+    }
+}
@@ -0,0 +1,87 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmark of the lazy mode: recommendations for a hot set of 5% of the
+ *  users, with every user loaded from the csv files or with the users
+ *  opened from a UserStore file and at most maxResident of them in memory.
+ *  Run with -prof gc to compare the heap of the two modes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+    @Param({"full", "lazy"})
+    public String mode;
+
+    @Param({"1000"})
+    public int maxResident;
+
+    private File dir;
+    private MovieRecommender recommender;
+    private int[] hot;
+    private String out;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = SyntheticData.tempDir();
+        SyntheticData.write(dir, 5000, 5000, 42);
+        String movies = new File(dir, "movies.csv").getPath();
+        recommender = new MovieRecommender();
+        recommender.loadData(movies, new File(dir, "ratings.csv").getPath());
+
+        // the same hot users in both modes
+        int numUsers = recommender.getUserIds().size();
+        Random random = new Random(1);
+        hot = new int[Math.max(1, numUsers / 20)];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = recommender.getUserIds().externalId(random.nextInt(numUsers));
+        }
+
+        if (mode.equals("lazy")) {
+            String store = new File(dir, "store.bin").getPath();
+            recommender.saveUsers(store);
+            recommender = new MovieRecommender();
+            recommender.openUsers(movies, store, maxResident);
+        }
+        out = new File(dir, "recommendations.txt").getPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        try {
+            UserStore store = recommender.getUsersData().getStore();
+            if (store != null) {
+                store.close();
+            }
+        } finally {
+            SyntheticData.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void findRecommendations() {
+        next = (next + 1) % hot.length;
+        recommender.findRecommendations(hot[next], 15, out);
+    }
+}
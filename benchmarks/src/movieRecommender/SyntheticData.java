@@ -0,0 +1,48 @@
+package movieRecommender;
+
+import java.io.File;
+import java.io.IOException;
+
+/** SyntheticData. Writes movies.csv and ratings.csv files for the
+ *  benchmarks with DataGenerator, into temporary directories. The same
+ *  arguments always produce the same files.
+ */
+public class SyntheticData {
+    /** Exponent of the power law of ratings per user */
+    private static final double ALPHA = 1.5;
+    /** Smallest number of ratings of a user, as in MovieLens */
+    private static final int MIN_RATINGS = 20;
+
+    /**
+     * Write movies.csv and ratings.csv into the given directory.
+     * @param dir       directory for the files
+     * @param numUsers  number of users
+     * @param numMovies number of movies
+     * @param seed      seed of the random generator
+     * @throws IOException if a file can not be written
+     */
+    public static void write(File dir, int numUsers, int numMovies, long seed) throws IOException {
+        new DataGenerator(seed, numUsers, numMovies, ALPHA, MIN_RATINGS).generate(dir);
+    }
+
+    /** Return a new empty temporary directory for benchmark files */
+    public static File tempDir() throws IOException {
+        File dir = File.createTempFile("movieRecommender", "bench");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can not create " + dir);
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /** Delete the files written into the given directory and the directory */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
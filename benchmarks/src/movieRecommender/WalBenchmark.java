@@ -0,0 +1,152 @@
+package movieRecommender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Benchmark of RatingsWal: the throughput of synced updates from several
+ *  threads, each waiting for its own update so that syncs are shared, and
+ *  the time to recover a recommender from a checkpoint and a log. */
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalBenchmark {
+    private static final AtomicInteger SEEDS = new AtomicInteger();
+
+    /** A recommender whose updates go through a log with a checkpoint */
+    @State(Scope.Benchmark)
+    public static class Log {
+        File dir;
+        File walDir;
+        MovieRecommender recommender;
+        RatingsWal wal;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            dir = SyntheticData.tempDir();
+            walDir = SyntheticData.tempDir();
+            SyntheticData.write(dir, 5000, 5000, 42);
+            recommender = new MovieRecommender();
+            recommender.loadData(new File(dir, "movies.csv").getPath(), new File(dir, "ratings.csv").getPath());
+            wal = new RatingsWal(recommender, walDir.getPath());
+            wal.recover();
+            wal.checkpoint();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            try {
+                wal.close();
+            } finally {
+                SyntheticData.delete(walDir);
+                SyntheticData.delete(dir);
+            }
+        }
+    }
+
+    /** Random updates of one writer thread */
+    @State(Scope.Thread)
+    public static class Writer {
+        Random random;
+        long time;
+
+        @Setup(Level.Trial)
+        public void seed(Log log) {
+            random = new Random(SEEDS.incrementAndGet());
+            time = log.recommender.getLastRatingTime();
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void update(Log log, Writer writer) throws IOException {
+        IdDictionary userIds = log.recommender.getUserIds();
+        IdDictionary movieIds = log.recommender.getMovieIds();
+        Random random = writer.random;
+        log.wal.update(userIds.externalId(random.nextInt(userIds.size())),
+                movieIds.externalId(random.nextInt(movieIds.size())),
+                (1 + random.nextInt(10)) / 2.0, ++writer.time);
+    }
+
+    /** A directory with a checkpoint and a log of the given number of updates after it */
+    @State(Scope.Benchmark)
+    public static class Logged {
+        @Param({"100000"})
+        public int updates;
+
+        File dir;
+        File walDir;
+        String movies;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            dir = SyntheticData.tempDir();
+            walDir = SyntheticData.tempDir();
+            SyntheticData.write(dir, 5000, 5000, 42);
+            movies = new File(dir, "movies.csv").getPath();
+            MovieRecommender recommender = new MovieRecommender();
+            recommender.loadData(movies, new File(dir, "ratings.csv").getPath());
+            IdDictionary userIds = recommender.getUserIds();
+            IdDictionary movieIds = recommender.getMovieIds();
+            long time = recommender.getLastRatingTime();
+            Random random = new Random(42);
+            int[] users = new int[1000];
+            int[] movieArr = new int[1000];
+            double[] ratings = new double[1000];
+            long[] times = new long[1000];
+            try (RatingsWal wal = new RatingsWal(recommender, walDir.getPath())) {
+                wal.recover();
+                wal.checkpoint();
+                for (int done = 0; done < updates; done += users.length) {
+                    int n = Math.min(users.length, updates - done);
+                    for (int i = 0; i < n; i++) {
+                        users[i] = userIds.externalId(random.nextInt(userIds.size()));
+                        movieArr[i] = movieIds.externalId(random.nextInt(movieIds.size()));
+                        ratings[i] = (1 + random.nextInt(10)) / 2.0;
+                        times[i] = ++time;
+                    }
+                    wal.update(users, movieArr, ratings, times, n);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            SyntheticData.delete(walDir);
+            SyntheticData.delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public MovieRecommender recover(Logged logged) throws IOException {
+        MovieRecommender recovered = new MovieRecommender();
+        recovered.loadMovies(logged.movies);
+        try (RatingsWal wal = new RatingsWal(recovered, logged.walDir.getPath())) {
+            wal.recover();
+        }
+        return recovered;
+    }
+}
@@ -0,0 +1,126 @@
+package movieRecommender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** BlockWriter. Writes numbered blocks of bytes to a file through a
+ *  FileChannel in block order, while the blocks are formatted by several
+ *  threads at once: a thread that finished block i waits until blocks
+ *  0..i-1 are written, writes its own and goes on with its next block. So
+ *  at most one block per thread is in memory, and every thread reuses its
+ *  ExportBuffer.
+ *
+ *  With compression on, every block is written as its own gzip member,
+ *  deflated by the thread that formatted it at the fastest level, which is
+ *  about four times faster than the default level for a 35% instead of
+ *  27% ratio on exports of ratings. A file of several members is
+ *  still one valid gzip file (gunzip, zcat and GZIPInputStream read all the
+ *  members), so blocks are compressed in parallel and no thread waits for a
+ *  shared Deflater.
+ */
+public class BlockWriter implements Closeable {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final FileChannel channel;
+    private final boolean compress;
+    private int nextBlock = 0; // number of the block that is written next, guarded by this
+    private boolean failed = false; // a write failed, guarded by this
+
+    /** A constructor for the BlockWriter; creates or truncates the file.
+     * @param filename file to write
+     * @param compress true to write every block as a gzip member
+     * @throws IOException if the file can not be opened
+     */
+    public BlockWriter(String filename, boolean compress) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.compress = compress;
+    }
+
+    /** Return a Compressor for one thread, or null if compression is off */
+    public Compressor newCompressor() {
+        return compress ? new Compressor() : null;
+    }
+
+    /**
+     * Write a block once all blocks before it are written. Every number
+     * from 0 up must be written exactly once, or the threads waiting for
+     * the missing block wait forever.
+     * @param block number of the block
+     * @param text the formatted block
+     * @param compressor the Compressor of this thread, null if compression is off
+     * @throws IOException if this write, or the write of an earlier block, failed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void write(int block, ExportBuffer text, Compressor compressor)
+            throws IOException, InterruptedException {
+        ExportBuffer out = compressor == null ? text : compressor.compress(text);
+        synchronized (this) {
+            while (nextBlock != block && !failed) {
+                wait();
+            }
+            if (failed) {
+                throw new IOException("an earlier block could not be written");
+            }
+            try {
+                out.writeTo(channel);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            } finally {
+                nextBlock++;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Stop the threads waiting to write, after a thread gave up on its block */
+    public synchronized void abort() {
+        failed = true;
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Deflater, checksum and output buffer of one thread, reused for every block */
+    public static class Compressor {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true); // raw deflate, gzip wraps it
+        private final CRC32 crc = new CRC32();
+        private final ExportBuffer out = new ExportBuffer(1 << 16);
+
+        /** Free the memory of the Deflater; the Compressor can not be used after this */
+        public void end() {
+            deflater.end();
+        }
+
+        private ExportBuffer compress(ExportBuffer text) {
+            out.reset();
+            out.append(GZIP_HEADER, 0, GZIP_HEADER.length);
+            deflater.reset();
+            deflater.setInput(text.array(), 0, text.length());
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.ensure(1 << 12);
+                out.advance(deflater.deflate(out.array(), out.length(), out.array().length - out.length()));
+            }
+            crc.reset();
+            crc.update(text.array(), 0, text.length());
+            appendIntLE(out, (int) crc.getValue());
+            appendIntLE(out, text.length());
+            return out;
+        }
+
+        private static void appendIntLE(ExportBuffer out, int value) {
+            out.append((byte) value).append((byte) (value >>> 8))
+                    .append((byte) (value >>> 16)).append((byte) (value >>> 24));
+        }
+    }
+}
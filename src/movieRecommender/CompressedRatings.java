@@ -0,0 +1,405 @@
+package movieRecommender;
+
+import java.util.Arrays;
+
+/** CompressedRatings. The ratings of one user, sorted by movie index and
+ *  packed into a byte array for the similarity scan. Each rating is one
+ *  varint of (gap << 4) | halfStars, where gap is the difference to the
+ *  previous movie index and halfStars is the rating times two (1..10).
+ *  A gap below 8 takes one byte, below 1024 two bytes, so a rating costs
+ *  about two bytes instead of a MovieRatingNode. Only half-star ratings
+ *  from 0.5 to 5.0, as in ratings.csv, can be packed; a user with any other
+ *  rating is not packed and stays on the list path.
+ *  The similarity methods decode the bytes as they go, without building
+ *  arrays. A CompressedRatings does not change; build a new one when the
+ *  ratings change. The bytes may be a range of a larger array shared by
+ *  many users (see copyTo), so that a scan reads one block of memory.
+ */
+public class CompressedRatings {
+    private final byte[] data;
+    private final int start; // first byte of these ratings in data
+    private final int end; // index after the last byte
+    private final int size; // number of ratings
+
+    private CompressedRatings(byte[] data, int start, int end, int size) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        this.size = size;
+    }
+
+    /**
+     * Pack the ratings of a list.
+     * @param list ratings of a user
+     * @return the packed ratings, or null if a rating is not a half star
+     *         from 0.5 to 5.0 and so can not be packed exactly
+     */
+    public static CompressedRatings of(MovieRatingsList list) {
+        // movie index and half stars in one long, so a single sort orders them by movie
+        long[] keys = new long[16];
+        int n = 0;
+        for (MovieRatingNode node : list) {
+            double rating = node.getMovieRating();
+            if (!isHalfStar(rating)) {
+                return null;
+            }
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+            }
+            keys[n++] = (long) node.getMovieId() << 4 | (int) (rating * 2);
+        }
+        Arrays.sort(keys, 0, n);
+
+        byte[] data = new byte[n * 2 + 8];
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int movie = (int) (keys[i] >>> 4);
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int value = (movie - previous) << 4 | (int) (keys[i] & 15);
+            previous = movie;
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+        return new CompressedRatings(Arrays.copyOf(data, length), 0, length, n);
+    }
+
+    /**
+     * Read packed ratings from a range of an array, as written by copyTo.
+     * @param data array with the packed ratings
+     * @param start first byte of the ratings
+     * @param end index after the last byte
+     * @param size number of ratings
+     * @return the ratings, read from the array without a copy
+     */
+    static CompressedRatings wrap(byte[] data, int start, int end, int size) {
+        return new CompressedRatings(data, start, end, size);
+    }
+
+    /** Return the number of ratings */
+    public int size() {
+        return size;
+    }
+
+    /** Return the number of bytes used by the packed ratings */
+    public int byteSize() {
+        return end - start;
+    }
+
+    /**
+     * Copy the packed ratings into a shared array.
+     * @param arena array with room for byteSize() bytes at offset
+     * @param offset where to copy the bytes
+     * @return the same ratings, read from the arena
+     */
+    public CompressedRatings copyTo(byte[] arena, int offset) {
+        System.arraycopy(data, start, arena, offset, end - start);
+        return new CompressedRatings(arena, offset, offset + end - start, size);
+    }
+
+    /**
+     * Decode the ratings, in increasing order of movie index.
+     * @param movies array of at least size() for the movie indices
+     * @param ratings array of at least size() for the ratings
+     */
+    public void decode(int[] movies, double[] ratings) {
+        int movie = 0;
+        int pos = start;
+        for (int i = 0; pos < end; i++) {
+            int value = data[pos++];
+            if (value < 0) {
+                value = decode(data, pos - 1);
+                pos += length(value) - 1;
+            }
+            movie += value >>> 4;
+            movies[i] = movie;
+            ratings[i] = (value & 15) * 0.5;
+        }
+    }
+
+    /**
+     * Write the rating of every movie into the given array, at the
+     * position of the movie index.
+     * @param ratings array indexed by movie index, large enough for every movie
+     */
+    public void spreadInto(double[] ratings) {
+        int movie = 0;
+        int pos = start;
+        while (pos < end) {
+            int value = data[pos++];
+            if (value < 0) {
+                value = decode(data, pos - 1);
+                pos += length(value) - 1;
+            }
+            movie += value >>> 4;
+            ratings[movie] = (value & 15) * 0.5;
+        }
+    }
+
+    /**
+     * Computes similarity with ratings spread into a dense array, using
+     * Pearson correlation, as MovieRatingsList.computeSimilarity(double[]).
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @return similarity computed using Pearson correlation
+     */
+    public double computeSimilarity(double[] otherRatings) {
+        return computeSimilarity(otherRatings, false);
+    }
+
+    /**
+     * Computes significance weighted similarity with ratings spread into a
+     * dense array, as MovieRatingsList.computeWeightedSimilarity.
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @return significance weighted similarity
+     */
+    public double computeWeightedSimilarity(double[] otherRatings) {
+        return computeSimilarity(otherRatings, true);
+    }
+
+    private double computeSimilarity(double[] otherRatings, boolean weighted) {
+        Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+        int n = 0;
+        double sx = 0;
+        double sy = 0;
+        double sxy = 0;
+        double sx2 = 0;
+        double sy2 = 0;
+
+        byte[] data = this.data;
+        int movie = 0;
+        int pos = start;
+        while (pos < end) {
+            int value = data[pos++];
+            if (value < 0) {
+                value = decode(data, pos - 1);
+                pos += length(value) - 1;
+            }
+            movie += value >>> 4;
+            if (movie >= otherRatings.length) {
+                break; // movies are in increasing order, none of the rest is rated by the other user
+            }
+            double x = otherRatings[movie];
+            // ratings are at least 0.5, so 0 means the other user did not rate this movie
+            if (x != 0) {
+                double y = (value & 15) * 0.5;
+                n++;
+                sx += x;
+                sy += y;
+                sxy += x * y;
+                sx2 += x * x;
+                sy2 += y * y;
+            }
+        }
+
+        double similarity = MovieRatingsList.pearson(n, sx, sy, sxy, sx2, sy2);
+        if (weighted && n < MovieRatingsList.SIGNIFICANCE_OVERLAP) {
+            similarity = similarity * n / MovieRatingsList.SIGNIFICANCE_OVERLAP;
+        }
+        return similarity;
+    }
+
+    /** Count the movies rated in the dense array, up to limit, decoding
+     *  only the movie gaps (see MovieRatingsList.countShared) */
+    int countShared(double[] otherRatings, int limit) {
+        byte[] data = this.data;
+        int n = 0;
+        int movie = 0;
+        int pos = start;
+        while (pos < end && n < limit) {
+            int value = data[pos++];
+            if (value < 0) {
+                value = decode(data, pos - 1);
+                pos += length(value) - 1;
+            }
+            movie += value >>> 4;
+            if (movie >= otherRatings.length) {
+                break;
+            }
+            if (otherRatings[movie] != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Computes the given kind of similarity with ratings spread into a dense
+     * array, as MovieRatingsList.computeSimilarity(double[], RatingStats, Similarity).
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @param otherStats   statistics of the other user's ratings
+     * @param similarity   measure, minimum overlap and weighting
+     * @param stats        statistics of these ratings, or null to sum them
+     *                     in the pass (for users paged out to a UserStore)
+     * @return the similarity, 0 if the users share too few movies
+     */
+    public double computeSimilarity(double[] otherRatings, RatingStats otherStats, Similarity similarity,
+                                    RatingStats stats) {
+        int minOverlap = similarity.getMinOverlap();
+        if (!similarity.canOverlap(size, otherStats.getCount())
+                || (minOverlap > 1 && countShared(otherRatings, minOverlap) < minOverlap)) {
+            Metrics.increment(Metrics.Counter.OVERLAP_REJECTED);
+            return 0;
+        }
+        Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+        boolean centered = similarity.getMeasure() == Similarity.Measure.CENTERED_COSINE;
+        boolean total = centered && stats == null; // sum all the ratings for the mean and the norm
+        int n = 0;
+        double sx = 0;
+        double sy = 0;
+        double sxy = 0;
+        double sx2 = 0;
+        double sy2 = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+
+        byte[] data = this.data;
+        int movie = 0;
+        int pos = start;
+        while (pos < end) {
+            int value = data[pos++];
+            if (value < 0) {
+                value = decode(data, pos - 1);
+                pos += length(value) - 1;
+            }
+            movie += value >>> 4;
+            double y = (value & 15) * 0.5;
+            if (total) {
+                sum += y;
+                sumOfSquares += y * y;
+            }
+            if (movie >= otherRatings.length) {
+                if (total) {
+                    continue;
+                }
+                break; // movies are in increasing order, none of the rest is rated by the other user
+            }
+            double x = otherRatings[movie];
+            if (x != 0) {
+                n++;
+                sx += x;
+                sy += y;
+                sxy += x * y;
+                sx2 += x * x;
+                sy2 += y * y;
+            }
+        }
+        if (!similarity.accepts(n)) {
+            Metrics.increment(Metrics.Counter.OVERLAP_REJECTED);
+            return 0;
+        }
+        if (n == 0) {
+            return 0; // nothing shared, and nothing to take the mean of if there are no ratings
+        }
+
+        double mean = 0;
+        double norm = 0;
+        if (stats != null) {
+            mean = stats.getMean();
+            norm = stats.getCenteredNorm();
+        } else if (centered) {
+            mean = sum / size;
+            norm = Math.sqrt(Math.max(0, sumOfSquares - sum * sum / size));
+        }
+        return similarity.score(n, sx, sy, sxy, sx2, sy2, otherStats, mean, norm);
+    }
+
+    /**
+     * Computes similarity with another user's packed ratings by merging the
+     * two sorted streams, using Pearson correlation. Needs no dense array,
+     * so it also suits comparing two users that are not the query target.
+     * @param other packed ratings of the other user
+     * @return similarity computed using Pearson correlation
+     */
+    public double computeSimilarity(CompressedRatings other) {
+        Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+        int n = 0;
+        double sx = 0;
+        double sy = 0;
+        double sxy = 0;
+        double sx2 = 0;
+        double sy2 = 0;
+
+        byte[] a = data;
+        byte[] b = other.data;
+        int posA = start;
+        int posB = other.start;
+        int movieA = -1; // -1: read the next rating of a
+        int movieB = -1;
+        int valueA = 0;
+        int valueB = 0;
+        int lastA = 0;
+        int lastB = 0;
+        while (true) {
+            if (movieA < 0) {
+                if (posA == end) {
+                    break;
+                }
+                valueA = a[posA++];
+                if (valueA < 0) {
+                    valueA = decode(a, posA - 1);
+                    posA += length(valueA) - 1;
+                }
+                lastA += valueA >>> 4;
+                movieA = lastA;
+            }
+            if (movieB < 0) {
+                if (posB == other.end) {
+                    break;
+                }
+                valueB = b[posB++];
+                if (valueB < 0) {
+                    valueB = decode(b, posB - 1);
+                    posB += length(valueB) - 1;
+                }
+                lastB += valueB >>> 4;
+                movieB = lastB;
+            }
+            if (movieA < movieB) {
+                movieA = -1;
+            } else if (movieB < movieA) {
+                movieB = -1;
+            } else {
+                double x = (valueB & 15) * 0.5;
+                double y = (valueA & 15) * 0.5;
+                n++;
+                sx += x;
+                sy += y;
+                sxy += x * y;
+                sx2 += x * x;
+                sy2 += y * y;
+                movieA = -1;
+                movieB = -1;
+            }
+        }
+        return MovieRatingsList.pearson(n, sx, sy, sxy, sx2, sy2);
+    }
+
+    /** Decode the varint that starts at pos */
+    private static int decode(byte[] data, int pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Return the number of bytes of the varint of a value */
+    private static int length(int value) {
+        return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    /** Return true if the rating is one of 0.5, 1.0, ..., 5.0 */
+    public static boolean isHalfStar(double rating) {
+        double halfStars = rating * 2;
+        return halfStars >= 1 && halfStars <= 10 && halfStars == Math.rint(halfStars);
+    }
+}
@@ -0,0 +1,211 @@
+package movieRecommender;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/** DataGenerator. Writes synthetic movies.csv and ratings.csv files in the
+ *  format MovieRecommender.loadData reads, at MovieLens scale or larger.
+ *  The number of ratings per user follows a power law (Pareto with the given
+ *  exponent and minimum), popular movies are rated more often, and rating
+ *  values follow the distribution of the bundled ratings.csv. Files are
+ *  streamed to disk user by user, so memory use only depends on the number
+ *  of movies. The same arguments always produce identical files.
+ *
+ *  Usage: DataGenerator seed users movies alpha [minRatingsPerUser] [outputDir]
+ *  For example, alpha 1.5 and minimum 20 give about 60 ratings per user, so
+ *  17k users make about 1M rows and 850k users about 50M rows.
+ */
+public class DataGenerator {
+    private static final String[] GENRES = {
+            "Action", "Adventure", "Animation", "Children", "Comedy", "Crime",
+            "Documentary", "Drama", "Fantasy", "Film-Noir", "Horror", "IMAX",
+            "Musical", "Mystery", "Romance", "Sci-Fi", "Thriller", "War", "Western"
+    };
+    /** Share of each half-star rating 0.5..5.0 in the bundled ratings.csv, in percent */
+    private static final double[] RATING_SHARES = {1.1, 3.3, 1.7, 7.3, 4.4, 20.1, 10.5, 28.7, 7.7, 15.1};
+    private static final long FIRST_TIME = 946684800L; // 2000-01-01
+    private static final long LAST_TIME = 1475280000L; // 2016-10-01
+    private static final long USER_SPAN = 3L * 365 * 24 * 60 * 60; // ratings of a user span up to 3 years
+
+    private final long seed;
+    private final int numUsers;
+    private final int numMovies;
+    private final double alpha;
+    private final int minRatings;
+    private final double[] ratingCdf;
+
+    /** A constructor for the DataGenerator.
+     * @param seed       seed of the random generator
+     * @param numUsers   number of users
+     * @param numMovies  number of movies
+     * @param alpha      exponent of the power law of ratings per user, larger than 1
+     * @param minRatings smallest number of ratings of a user
+     */
+    public DataGenerator(long seed, int numUsers, int numMovies, double alpha, int minRatings) {
+        if (alpha <= 1) {
+            throw new IllegalArgumentException("alpha must be larger than 1: " + alpha);
+        }
+        if (numUsers < 1 || numMovies < 1 || minRatings < 1) {
+            throw new IllegalArgumentException("users, movies and minRatings must be positive");
+        }
+        this.seed = seed;
+        this.numUsers = numUsers;
+        this.numMovies = numMovies;
+        this.alpha = alpha;
+        this.minRatings = Math.min(minRatings, numMovies);
+        ratingCdf = new double[RATING_SHARES.length];
+        double total = 0;
+        for (int i = 0; i < RATING_SHARES.length; i++) {
+            total += RATING_SHARES[i];
+            ratingCdf[i] = total;
+        }
+        for (int i = 0; i < ratingCdf.length; i++) {
+            ratingCdf[i] /= total;
+        }
+    }
+
+    /**
+     * Write movies.csv and ratings.csv into the given directory.
+     * @param dir directory for the files, created if needed
+     * @return number of rating rows written
+     * @throws IOException if a file can not be written
+     */
+    public long generate(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create " + dir);
+        }
+        writeMovies(new File(dir, "movies.csv"));
+        return writeRatings(new File(dir, "ratings.csv"));
+    }
+
+    /** Return the movie id written for the given movie number (0-based). Ids
+     *  are sparse like in MovieLens, with gaps between consecutive movies. */
+    public static int movieId(int movie) {
+        return 1 + movie + (movie / 3) * 2;
+    }
+
+    private void writeMovies(File file) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder line = new StringBuilder(128);
+        try (Writer out = open(file)) {
+            out.write("movieId,title,genres\n");
+            for (int m = 0; m < numMovies; m++) {
+                line.setLength(0);
+                line.append(movieId(m)).append(',');
+                int year = 1920 + random.nextInt(97);
+                if (random.nextInt(10) == 0) {
+                    // some titles have a comma and are quoted, like "American President, The (1995)"
+                    line.append("\"Movie ").append(m).append(", The (").append(year).append(")\"");
+                } else {
+                    line.append("Movie ").append(m).append(" (").append(year).append(')');
+                }
+                line.append(',');
+                int genres = 1 + random.nextInt(3);
+                int first = random.nextInt(GENRES.length);
+                for (int g = 0; g < genres; g++) {
+                    if (g > 0) {
+                        line.append('|');
+                    }
+                    line.append(GENRES[(first + g * 5) % GENRES.length]);
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    private long writeRatings(File file) throws IOException {
+        // a separate stream, so the ratings do not change with the movie count of titles
+        SplittableRandom random = new SplittableRandom(seed * 31 + 17);
+        int[] chosen = new int[numMovies];
+        int[] stamp = new int[numMovies]; // user number + 1 of the last user who picked each movie
+        double logMovies = Math.log(numMovies + 1.0);
+        StringBuilder line = new StringBuilder(64);
+        long rows = 0;
+
+        try (Writer out = open(file)) {
+            out.write("userId,movieId,rating,timestamp\n");
+            for (int u = 0; u < numUsers; u++) {
+                // Pareto distributed count of ratings, at most one rating per movie
+                double count = minRatings * Math.pow(1 - random.nextDouble(), -1 / alpha);
+                int n = (int) Math.min(numMovies, Math.floor(count));
+
+                if (n * 2 > numMovies) {
+                    // heavy user: choose n of all movies in one ordered pass (selection sampling)
+                    int needed = n;
+                    int k = 0;
+                    for (int m = 0; m < numMovies && needed > 0; m++) {
+                        if (random.nextInt(numMovies - m) < needed) {
+                            chosen[k++] = m;
+                            needed--;
+                        }
+                    }
+                } else {
+                    // log-uniform movie numbers, so small numbers (popular movies) are picked more often
+                    for (int k = 0; k < n; ) {
+                        int m = (int) Math.exp(random.nextDouble() * logMovies) - 1;
+                        if (m < numMovies && stamp[m] != u + 1) {
+                            stamp[m] = u + 1;
+                            chosen[k++] = m;
+                        }
+                    }
+                    Arrays.sort(chosen, 0, n);
+                }
+
+                int bias = random.nextInt(5) - 2; // some users rate higher or lower than others, in half stars
+                long start = FIRST_TIME + (long) (random.nextDouble() * (LAST_TIME - FIRST_TIME));
+                long span = Math.max(1, Math.min(USER_SPAN, LAST_TIME - start));
+                for (int k = 0; k < n; k++) {
+                    int halfStars = Math.max(1, Math.min(10, ratingHalfStars(random) + bias));
+                    line.setLength(0);
+                    line.append(u + 1).append(',').append(movieId(chosen[k])).append(',')
+                            .append(halfStars / 2).append('.').append(halfStars % 2 == 0 ? '0' : '5').append(',')
+                            .append(start + (long) (random.nextDouble() * span)).append('\n');
+                    out.append(line);
+                }
+                rows += n;
+            }
+        }
+        return rows;
+    }
+
+    /** Draw a rating in half stars, 1..10 */
+    private int ratingHalfStars(SplittableRandom random) {
+        double r = random.nextDouble();
+        int i = 0;
+        while (i < ratingCdf.length - 1 && r >= ratingCdf[i]) {
+            i++;
+        }
+        return i + 1;
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: DataGenerator seed users movies alpha [minRatingsPerUser] [outputDir]");
+            return;
+        }
+        long seed = Long.parseLong(args[0]);
+        int users = Integer.parseInt(args[1]);
+        int movies = Integer.parseInt(args[2]);
+        double alpha = Double.parseDouble(args[3]);
+        int minRatings = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        File dir = new File(args.length > 5 ? args[5] : ".");
+
+        long start = System.nanoTime();
+        long rows = new DataGenerator(seed, users, movies, alpha, minRatings).generate(dir);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %d movies and %d ratings to %s in %.1fs (%.0f rows/s)%n",
+                movies, rows, dir.getPath(), seconds, rows / seconds);
+    }
+}
@@ -1,26 +1,156 @@
 package movieRecommender;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /** A driver class for the MovieRecommender. In the main method, we
  * create a movie recommender, load movie data from files and compute
- * recommendations and anti-recommendations for a particular user.
+ * recommendations and anti-recommendations for a batch of users on a
+ * pool of worker threads. At the end it prints how many users per second
+ * were served, the p50 and p99 latency of one user and the peak heap,
+ * so a run on a given box tells how much traffic that box can take.
+ *
+ * Usage: Driver movies.csv ratings.csv users [mode] [num] [workers] [outputDir]
+ *  - users: a file with one user id per line, a range such as 1-5000, or "all"
+ *  - mode: rec, anti or both (default both)
+ *  - num: number of movies per user (default 15)
+ *  - workers: number of worker threads (default: number of processors)
+ *  - outputDir: directory for the result files, rec_userId and anti_userId (default "output")
  */
 public class Driver {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: Driver movies.csv ratings.csv users|from-to|all [rec|anti|both] [num] [workers] [outputDir]");
+            return;
+        }
+        String mode = args.length > 3 ? args[3] : "both";
+        final int num = args.length > 4 ? Integer.parseInt(args[4]) : 15;
+        int workers = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        final File outputDir = new File(args.length > 6 ? args[6] : "output");
+        if (!mode.equals("rec") && !mode.equals("anti") && !mode.equals("both")) {
+            System.out.println("Unknown mode " + mode + ", expected rec, anti or both");
+            return;
+        }
+        final boolean rec = !mode.equals("anti");
+        final boolean anti = !mode.equals("rec");
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.out.println("Could not create " + outputDir);
+            return;
+        }
 
-        MovieRatingsList list =	new	MovieRatingsList();
+        final MovieRecommender recommender = new MovieRecommender();
+        long start = System.nanoTime();
+        recommender.loadData(args[0], args[1]);
+        System.out.printf("Loaded %d users and %d movies in %.1f s, heap peak %d MB%n",
+                recommender.getUserIds().size(), recommender.getMovieIds().size(),
+                (System.nanoTime() - start) / 1e9, peakHeap() >> 20);
 
-        list.getMiddleNode();
-        list.print();
+        final int[] users = readUsers(args[2], recommender.getUserIds());
+        if (users == null) {
+            return;
+        }
 
-        //MovieRecommender recommender = new MovieRecommender();
+        // every worker takes the next user until all are done
+        final AtomicInteger next = new AtomicInteger();
+        final LatencyHistogram latencies = new LatencyHistogram();
+        resetPeakHeap();
+        Thread[] threads = new Thread[workers];
+        start = System.nanoTime();
+        for (int w = 0; w < workers; w++) {
+            threads[w] = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < users.length) {
+                    long userStart = System.nanoTime();
+                    if (rec) {
+                        recommender.findRecommendations(users[i], num,
+                                new File(outputDir, "rec_" + users[i]).getPath());
+                    }
+                    if (anti) {
+                        recommender.findAntiRecommendations(users[i], num,
+                                new File(outputDir, "anti_" + users[i]).getPath());
+                    }
+                    latencies.record(System.nanoTime() - userStart);
+                }
+            }, "driver-" + w);
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
 
-        // movies.csv and ratings.csv should be in the project folder
-        //recommender.loadData("movies.csv","ratings.csv");
-        //System.out.println("Loaded movie data...");
+        System.out.printf("%d users, mode %s, num %d, %d workers: %.1f s, %.1f users/s%n",
+                users.length, mode, num, workers, seconds, users.length / seconds);
+        System.out.printf("latency per user: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6, latencies.getMax() / 1e6);
+        System.out.printf("heap peak during the run %d MB%n", peakHeap() >> 20);
+    }
 
-        //recommender.findRecommendations(3, 15, "recommendations");
-        //System.out.println();
-        //recommender.findAntiRecommendations(3, 15, "antiRecommendations");
+    /**
+     * Return the user ids to run: every loaded user for "all", the ids from
+     * "from" to "to" for a range, otherwise the ids in the given file, one
+     * per line. Returns null if the file can not be read.
+     */
+    private static int[] readUsers(String users, IdDictionary userIds) {
+        if (users.equals("all")) {
+            int[] ids = new int[userIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = userIds.externalId(i);
+            }
+            return ids;
+        }
+        int dash = users.indexOf('-', 1);
+        if (dash > 0 && !new File(users).exists()) {
+            int from = Integer.parseInt(users.substring(0, dash));
+            int to = Integer.parseInt(users.substring(dash + 1));
+            int[] ids = new int[Math.max(0, to - from + 1)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = from + i;
+            }
+            return ids;
+        }
+        int[] ids = new int[16];
+        int n = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(users))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                }
+                ids[n++] = Integer.parseInt(line);
+            }
+        } catch (IOException e) {
+            System.out.println("File " + users + " not found");
+            return null;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /** Return the sum of the peak usage of all heap pools, in bytes */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
 
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
     }
 }
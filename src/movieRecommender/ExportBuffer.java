@@ -0,0 +1,131 @@
+package movieRecommender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/** ExportBuffer. A growable byte array that text output is formatted into
+ *  without building a String for every value: numbers are written digit by
+ *  digit, titles are copied as UTF-8 bytes. A buffer is reused for the next
+ *  block after reset, so a long export allocates nothing once the buffer
+ *  has grown to the size of a block. Not thread safe; every thread formats
+ *  into its own buffer.
+ */
+public class ExportBuffer {
+    private byte[] bytes;
+    private int length;
+    private final byte[] digits = new byte[20]; // scratch for the digits of a long, last digit first
+
+    /** A constructor for the ExportBuffer. */
+    public ExportBuffer() {
+        this(1 << 12);
+    }
+
+    /** A constructor for the ExportBuffer.
+     * @param capacity initial size in bytes
+     */
+    public ExportBuffer(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /** Empty the buffer, keeping its memory */
+    public void reset() {
+        length = 0;
+    }
+
+    /** Return the number of bytes in the buffer */
+    public int length() {
+        return length;
+    }
+
+    /** Return the array that holds the bytes; valid up to length() */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /** Make room for n more bytes */
+    public void ensure(int n) {
+        if (length + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+        }
+    }
+
+    /** Mark n bytes written straight into array() after length() as used */
+    public void advance(int n) {
+        length += n;
+    }
+
+    /** Append one byte */
+    public ExportBuffer append(byte b) {
+        ensure(1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    /** Append a character, which must be ASCII */
+    public ExportBuffer append(char c) {
+        return append((byte) c);
+    }
+
+    /** Append a string of ASCII characters */
+    public ExportBuffer appendAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            bytes[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    /** Append bytes from an array */
+    public ExportBuffer append(byte[] src, int offset, int n) {
+        ensure(n);
+        System.arraycopy(src, offset, bytes, length, n);
+        length += n;
+        return this;
+    }
+
+    /** Append a number in decimal, as Long.toString would */
+    public ExportBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return appendAscii(Long.toString(value));
+        }
+        ensure(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            bytes[length++] = digits[--n];
+        }
+        return this;
+    }
+
+    /** Append a rating as Double.toString would. Whole and half stars,
+     *  the only ratings in the MovieLens files, take the fast path. */
+    public ExportBuffer appendRating(double rating) {
+        double twice = rating * 2;
+        if (rating >= 0 && rating < 1e6 && twice == (long) twice) {
+            append((long) rating);
+            ensure(2);
+            bytes[length++] = '.';
+            bytes[length++] = ((long) twice & 1) == 0 ? (byte) '0' : (byte) '5';
+            return this;
+        }
+        return appendAscii(Double.toString(rating));
+    }
+
+    /** Write the whole buffer to a channel */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
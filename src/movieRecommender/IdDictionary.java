@@ -0,0 +1,108 @@
+package movieRecommender;
+
+import java.util.Arrays;
+
+/** IdDictionary. Maps external ids (userIds and movieIds as they appear
+ *  in movies.csv and ratings.csv) to dense indices 0..N-1 and back.
+ *  External ids are sparse (movieIds go up to the 160k range for about
+ *  9k movies), dense indices can be used directly as array positions.
+ *  Indices are assigned in the order ids are first seen and never change.
+ */
+public class IdDictionary {
+    private static final int EMPTY = -1;
+
+    private int[] keys;       // open addressing table of external ids
+    private int[] values;     // dense index stored for each key, EMPTY if the slot is free
+    private int[] externalIds; // maps a dense index back to the external id
+    private int size;
+
+    /** A constructor for the IdDictionary. */
+    public IdDictionary() {
+        keys = new int[64];
+        values = new int[64];
+        Arrays.fill(values, EMPTY);
+        externalIds = new int[32];
+        size = 0;
+    }
+
+    /**
+     * Return the dense index for the given external id, assigning the next
+     * free index if the id has not been seen before.
+     * @param externalId id as defined in the csv files
+     * @return dense index of this id
+     */
+    public int getOrAdd(int externalId) {
+        int slot = findSlot(externalId);
+        if (values[slot] != EMPTY) {
+            return values[slot];
+        }
+
+        int index = size;
+        if (index == externalIds.length) {
+            externalIds = Arrays.copyOf(externalIds, index * 2);
+        }
+        externalIds[index] = externalId;
+        keys[slot] = externalId;
+        values[slot] = index;
+        size++;
+
+        // keep the table at most half full so that probe chains stay short
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return index;
+    }
+
+    /**
+     * Return the dense index for the given external id.
+     * @param externalId id as defined in the csv files
+     * @return dense index of this id, or -1 if the id is unknown
+     */
+    public int indexOf(int externalId) {
+        return values[findSlot(externalId)];
+    }
+
+    /**
+     * Return the external id stored at the given dense index.
+     * @param index dense index, 0..size()-1
+     * @return external id as defined in the csv files
+     */
+    public int externalId(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+        return externalIds[index];
+    }
+
+    /** Return the number of ids in this dictionary */
+    public int size() {
+        return size;
+    }
+
+    /** Find the slot that holds the given key, or the free slot where it should go */
+    private int findSlot(int externalId) {
+        int mask = keys.length - 1;
+        int slot = mix(externalId) & mask;
+        while (values[slot] != EMPTY && keys[slot] != externalId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        for (int i = 0; i < size; i++) {
+            int slot = findSlot(externalIds[i]);
+            keys[slot] = externalIds[i];
+            values[slot] = i;
+        }
+    }
+
+    /** Spread the bits of the id, since csv ids are mostly small and sequential */
+    private static int mix(int x) {
+        int h = x * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
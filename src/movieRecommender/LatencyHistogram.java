@@ -0,0 +1,115 @@
+package movieRecommender;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** LatencyHistogram. Records durations in nanoseconds into log-linear
+ *  buckets, in the style of an HDR histogram: every power of two is split
+ *  into 16 buckets, so any recorded value is known to within about 6%, and
+ *  the whole range of a long fits in under a thousand buckets. Recording is
+ *  lock free and safe from several threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // buckets per power of two
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    /** A constructor for an empty LatencyHistogram. */
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Record one duration.
+     * @param nanos duration in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Return the number of recorded durations */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Return the mean of the recorded durations in nanoseconds, 0 if there are none */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** Return the largest recorded duration in nanoseconds */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return the duration below which the given share of recorded durations fall.
+     * @param percentile share in percent, 0..100
+     * @return the largest value of the bucket that holds the percentile, in
+     * nanoseconds (never more than the largest recorded value)
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /** Forget all recorded durations */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /** Bucket of a value: values below 32 have their own bucket, larger
+     *  values are split by their highest bit and the 4 bits below it */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** Largest value that falls into the given bucket */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS * 2) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,160 @@
+package movieRecommender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Metrics. Counters and latency histograms for the hot paths of the
+ *  recommender: loading, neighbour search, similarity calls and writing
+ *  results. Metrics are off by default; while off, every call is a single
+ *  read of a volatile flag. Read them with snapshot(), or let
+ *  startDump write a text or JSON snapshot to a file periodically.
+ */
+public final class Metrics {
+
+    /** Things that are counted */
+    public enum Counter {
+        MOVIE_ROWS_PARSED, RATING_ROWS_PARSED, SIMILARITY_CALLS, CANDIDATES_PRUNED, QUERIES, ERRORS,
+        RATINGS_INGESTED, WAL_RECORDS, WAL_SYNCS, POPULARITY_FALLBACKS, CACHE_HITS, CACHE_MISSES,
+        PLAN_BRUTE_FORCE, PLAN_INVERTED_INDEX, PLAN_APPROXIMATE, USER_PAGE_INS, USER_EVICTIONS,
+        OVERLAP_REJECTED, STORE_COMPACTIONS
+    }
+
+    /** Phases whose durations are recorded */
+    public enum Phase {
+        LOAD_MOVIES, LOAD_RATINGS, NEIGHBOUR_SEARCH, SIMILARITY, WRITE_OUTPUT, QUERY,
+        INGEST_BATCH, WAL_COMMIT, CHECKPOINT, SEARCH_BRUTE_FORCE, SEARCH_INVERTED_INDEX, SEARCH_APPROXIMATE
+    }
+
+    /** One in this many similarity calls is timed, so timing does not slow the scan down */
+    static final int SIMILARITY_SAMPLE = 64;
+
+    private static volatile boolean enabled = false;
+    private static final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private static ScheduledExecutorService dumper;
+
+    static {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /** Turn recording on or off */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Return true if metrics are recorded */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Add one to the given counter */
+    public static void increment(Counter counter) {
+        if (enabled) {
+            counters[counter.ordinal()].increment();
+        }
+    }
+
+    /** Add n to the given counter */
+    public static void add(Counter counter, long n) {
+        if (enabled) {
+            counters[counter.ordinal()].add(n);
+        }
+    }
+
+    /**
+     * Start timing a phase.
+     * @return start time to pass to stop, or 0 if metrics are off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the duration of a phase that was started with start().
+     * @param phase phase that ended
+     * @param start value returned by start()
+     */
+    public static void stop(Phase phase, long start) {
+        if (start != 0 && enabled) {
+            histograms[phase.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /** Reset all counters and histograms */
+    public static void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** Return the current value of every counter and a summary of every histogram */
+    public static MetricsSnapshot snapshot() {
+        long[] values = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            values[i] = counters[i].sum();
+        }
+        return new MetricsSnapshot(values, histograms);
+    }
+
+    /**
+     * Write a snapshot to the given file every period. The file is replaced
+     * as a whole, so a reader never sees half of a snapshot. Turns metrics on.
+     * @param filename file to write
+     * @param periodSeconds seconds between two snapshots
+     * @param json true to write JSON, false to write text
+     */
+    public static synchronized void startDump(final String filename, long periodSeconds, final boolean json) {
+        stopDump();
+        setEnabled(true);
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(filename, json), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Stop writing snapshots */
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Write one snapshot to the given file.
+     * @param filename file to write
+     * @param json true to write JSON, false to write text
+     */
+    public static void dump(String filename, boolean json) {
+        MetricsSnapshot snapshot = snapshot();
+        File file = new File(filename);
+        File temp = new File(filename + ".tmp");
+        try (PrintWriter pw = new PrintWriter(temp)) {
+            pw.print(json ? snapshot.toJson() : snapshot.toString());
+        } catch (IOException e) {
+            System.out.println("Could not write metrics to " + filename + ": " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            System.out.println("Could not write metrics to " + filename);
+        }
+    }
+}
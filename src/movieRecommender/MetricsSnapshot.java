@@ -0,0 +1,116 @@
+package movieRecommender;
+
+import java.util.Locale;
+
+/** MetricsSnapshot. The values of all counters and a summary (count, mean,
+ *  percentiles and max, in microseconds) of every latency histogram at the
+ *  moment Metrics.snapshot() was called.
+ */
+public class MetricsSnapshot {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final long timestamp;
+    private final long[] counters;
+    private final long[] counts;
+    private final double[] means;
+    private final long[][] percentiles;
+    private final long[] maxima;
+
+    MetricsSnapshot(long[] counters, LatencyHistogram[] histograms) {
+        this.timestamp = System.currentTimeMillis();
+        this.counters = counters;
+        counts = new long[histograms.length];
+        means = new double[histograms.length];
+        percentiles = new long[histograms.length][PERCENTILES.length];
+        maxima = new long[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            counts[i] = histograms[i].getCount();
+            means[i] = histograms[i].getMean();
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                percentiles[i][p] = histograms[i].getPercentile(PERCENTILES[p]);
+            }
+            maxima[i] = histograms[i].getMax();
+        }
+    }
+
+    /** Return the value of the given counter */
+    public long get(Metrics.Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /** Return the number of recorded durations of the given phase */
+    public long getCount(Metrics.Phase phase) {
+        return counts[phase.ordinal()];
+    }
+
+    /** Return the mean duration of the given phase in nanoseconds */
+    public double getMean(Metrics.Phase phase) {
+        return means[phase.ordinal()];
+    }
+
+    /** Return the 50th percentile of the given phase in nanoseconds */
+    public long getP50(Metrics.Phase phase) {
+        return percentiles[phase.ordinal()][0];
+    }
+
+    /** Return the 99th percentile of the given phase in nanoseconds */
+    public long getP99(Metrics.Phase phase) {
+        return percentiles[phase.ordinal()][2];
+    }
+
+    /** Return the snapshot as text, one counter or phase per line */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# metrics at ").append(timestamp).append('\n');
+        for (Metrics.Counter counter : Metrics.Counter.values()) {
+            sb.append(counter.name().toLowerCase(Locale.ROOT)).append(' ').append(get(counter)).append('\n');
+        }
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            int i = phase.ordinal();
+            sb.append(phase.name().toLowerCase(Locale.ROOT)).append(" count=").append(counts[i])
+                    .append(" mean_us=").append(format(means[i] / 1000));
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                sb.append(" p").append(label(PERCENTILES[p])).append("_us=").append(format(percentiles[i][p] / 1000.0));
+            }
+            sb.append(" max_us=").append(format(maxima[i] / 1000.0)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Return the snapshot as a JSON object */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"timestamp\":").append(timestamp).append(",\"counters\":{");
+        for (Metrics.Counter counter : Metrics.Counter.values()) {
+            if (counter.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(counter.name().toLowerCase(Locale.ROOT)).append("\":").append(get(counter));
+        }
+        sb.append("},\"phases\":{");
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            int i = phase.ordinal();
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\":{\"count\":").append(counts[i])
+                    .append(",\"mean_us\":").append(format(means[i] / 1000));
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                sb.append(",\"p").append(label(PERCENTILES[p])).append("_us\":").append(format(percentiles[i][p] / 1000.0));
+            }
+            sb.append(",\"max_us\":").append(format(maxima[i] / 1000.0)).append('}');
+        }
+        sb.append("}}\n");
+        return sb.toString();
+    }
+
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((int) percentile)
+                : String.valueOf(percentile).replace('.', '_');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
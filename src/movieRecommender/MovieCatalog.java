@@ -0,0 +1,340 @@
+package movieRecommender;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** MovieCatalog. Stores the title and the genres of each movie, indexed by
+ *  the dense movie index assigned by the movieIds dictionary.
+ *  Titles are kept as UTF-8 bytes packed into one arena, with an offset and a
+ *  length per movie, and are only decoded into a String when requested.
+ *  Genres are stored as a bitmask per movie, one bit per genre name.
+ */
+public class MovieCatalog {
+    /** Genres used in the MovieLens files, in the order of their bits.
+     *  Other genre names found in the file get the next free bits. */
+    private static final String[] KNOWN_GENRES = {
+            "Action", "Adventure", "Animation", "Children", "Comedy", "Crime",
+            "Documentary", "Drama", "Fantasy", "Film-Noir", "Horror", "IMAX",
+            "Musical", "Mystery", "Romance", "Sci-Fi", "Thriller", "War", "Western"
+    };
+    /** Placeholder used in movies.csv for movies without genres (mask 0) */
+    private static final String NO_GENRES = "(no genres listed)";
+    private static final int MAX_GENRES = 64;
+
+    private final IdDictionary movieIds;
+    private final ArrayList<byte[]> genreNames; // UTF-8 name of each genre bit
+
+    private byte[] titleBytes; // all titles, one after another
+    private int titleBytesLength;
+    private int[] titleOffsets; // start of the title of each movie index in titleBytes
+    private int[] titleLengths; // length of the title of each movie index, -1 if not listed
+    private long[] genreMasks; // genre bits of each movie index
+
+    /** A constructor for the MovieCatalog.
+     * @param movieIds dictionary that assigns movie indices
+     */
+    public MovieCatalog(IdDictionary movieIds) {
+        this.movieIds = movieIds;
+        genreNames = new ArrayList<>();
+        for (String name : KNOWN_GENRES) {
+            genreNames.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        titleBytes = new byte[1 << 16];
+        titleBytesLength = 0;
+        titleOffsets = new int[0];
+        titleLengths = new int[0];
+        genreMasks = new long[0];
+    }
+
+    /**
+     * Read movies from the given file in the movies.csv format:
+     * movieId,title,genres with a header line. Titles that contain commas
+     * are quoted, and quotes inside them are doubled. The file is read in
+     * one pass over its bytes; titles are copied straight into the arena.
+     * Lines that do not start with a movie id are skipped. The file replaces
+     * the movies loaded before: their titles and genres are dropped, while
+     * the movie indices and genre bits stay as they were.
+     * A genre past the MAX_GENRES that fit in the bitmask is left out of
+     * the masks and counted as an error in Metrics.
+     *
+     * @param movieFilename csv file that contains movie information
+     * @return number of movies read
+     * @throws IOException if the file can not be read
+     */
+    public int load(String movieFilename) throws IOException {
+        int movies = 0;
+        byte[] buf = new byte[1 << 16];
+        byte[] genre = new byte[64];
+        int genreLength = 0;
+
+        // start a new arena, so a reload does not keep the titles of the last load
+        titleBytesLength = 0;
+        Arrays.fill(titleLengths, -1);
+        Arrays.fill(genreMasks, 0);
+
+        boolean header = true;
+        int field = 0; // 0 - movieId, 1 - title, 2 - genres
+        int id = 0;
+        boolean hasId = false;
+        boolean valid = true;
+        boolean titleFirst = false; // next byte is the first byte of the title
+        boolean quoted = false; // inside a quoted title
+        boolean quoteSeen = false; // a quote was read inside a quoted title
+        int titleStart = titleBytesLength;
+        int titleEnd = titleBytesLength;
+        long mask = 0;
+
+        try (InputStream in = new FileInputStream(movieFilename)) {
+            int n;
+            boolean eof = false;
+            while (!eof) {
+                n = in.read(buf);
+                if (n == -1) {
+                    // finish the last line if the file does not end with a newline
+                    eof = true;
+                    buf[0] = '\n';
+                    n = 1;
+                }
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    if (header) {
+                        header = b != '\n';
+                        continue;
+                    }
+                    if (b == '\r') {
+                        continue;
+                    }
+
+                    if (field == 0) {
+                        if (b >= '0' && b <= '9') {
+                            id = id * 10 + (b - '0');
+                            hasId = true;
+                        } else if (b == ',') {
+                            field = 1;
+                            titleFirst = true;
+                            titleStart = titleBytesLength;
+                        } else if (b != '\n') {
+                            valid = false;
+                        }
+                    } else if (field == 1) {
+                        if (titleFirst) {
+                            titleFirst = false;
+                            if (b == '"') {
+                                quoted = true;
+                                continue;
+                            }
+                        }
+                        if (quoted) {
+                            if (quoteSeen) {
+                                quoteSeen = false;
+                                if (b == '"') {
+                                    appendTitleByte(b); // "" is an escaped quote
+                                    continue;
+                                }
+                                quoted = false; // the previous quote closed the title
+                            } else if (b == '"') {
+                                quoteSeen = true;
+                                continue;
+                            } else if (b == '\n') {
+                                valid = false; // the closing quote is missing
+                            } else {
+                                appendTitleByte(b);
+                                continue;
+                            }
+                        }
+                        if (b == ',') {
+                            titleEnd = titleBytesLength;
+                            field = 2;
+                            mask = 0;
+                            genreLength = 0;
+                        } else if (b != '\n') {
+                            appendTitleByte(b);
+                        }
+                    } else {
+                        if (b == '|' || b == '\n') {
+                            mask |= genreBit(genre, genreLength);
+                            genreLength = 0;
+                        } else {
+                            if (genreLength == genre.length) {
+                                genre = Arrays.copyOf(genre, genre.length * 2);
+                            }
+                            genre[genreLength++] = b;
+                        }
+                    }
+
+                    if (b == '\n') {
+                        if (field == 1) {
+                            // a line without genres
+                            titleEnd = titleBytesLength;
+                        }
+                        if (valid && hasId && field > 0) {
+                            addMovie(id, titleStart, titleEnd - titleStart, mask);
+                            movies++;
+                        } else {
+                            titleBytesLength = titleStart; // drop the bytes of a bad line
+                        }
+                        field = 0;
+                        id = 0;
+                        hasId = false;
+                        valid = true;
+                        quoted = false;
+                        quoteSeen = false;
+                        mask = 0;
+                        titleStart = titleBytesLength;
+                    }
+                }
+            }
+        }
+        return movies;
+    }
+
+    /**
+     * Return the title of the movie with the given index, decoded from the arena.
+     * @param movie index of the movie
+     * @return title of the movie, or null if the movie is not in the catalog
+     */
+    public String getTitle(int movie) {
+        if (movie < 0 || movie >= titleLengths.length || titleLengths[movie] < 0) {
+            return null;
+        }
+        return new String(titleBytes, titleOffsets[movie], titleLengths[movie], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Append the UTF-8 title of the movie to a buffer, straight from the
+     * arena, or "null" if the movie is not in the catalog.
+     * @param out buffer to append to
+     * @param movie index of the movie
+     */
+    public void appendTitle(ExportBuffer out, int movie) {
+        if (movie < 0 || movie >= titleLengths.length || titleLengths[movie] < 0) {
+            out.appendAscii("null");
+            return;
+        }
+        out.append(titleBytes, titleOffsets[movie], titleLengths[movie]);
+    }
+
+    /**
+     * Return the genre bits of the movie with the given index.
+     * @param movie index of the movie
+     * @return bitmask of genres, 0 if the movie has no genres or is not in the catalog
+     */
+    public long getGenres(int movie) {
+        if (movie < 0 || movie >= genreMasks.length) {
+            return 0;
+        }
+        return genreMasks[movie];
+    }
+
+    /**
+     * Return the bitmask for a list of genre names separated by '|', in the
+     * same format as the genres column, for example "Comedy|Animation".
+     * @param genres genre names
+     * @return bitmask with the bit of each genre set
+     * @throws IllegalArgumentException if a genre name is unknown
+     */
+    public long genreMask(String genres) {
+        long mask = 0;
+        for (String name : genres.split("\\|")) {
+            if (name.isEmpty() || name.equals(NO_GENRES)) {
+                continue;
+            }
+            int bit = genreIndex(name);
+            if (bit < 0) {
+                throw new IllegalArgumentException("Unknown genre: " + name);
+            }
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Return the bit number used for the given genre.
+     * @param name genre name, as in the movies file
+     * @return bit number, or -1 if the genre is unknown
+     */
+    public int genreIndex(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < genreNames.size(); i++) {
+            if (Arrays.equals(genreNames.get(i), bytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of genres known to this catalog */
+    public int getNumGenres() {
+        return genreNames.size();
+    }
+
+    /** Return the name of the genre with the given bit number */
+    public String getGenreName(int bit) {
+        return new String(genreNames.get(bit), StandardCharsets.UTF_8);
+    }
+
+    /** Return the number of bytes used by the title arena */
+    public int getTitleBytes() {
+        return titleBytesLength;
+    }
+
+    private void appendTitleByte(byte b) {
+        if (titleBytesLength == titleBytes.length) {
+            titleBytes = Arrays.copyOf(titleBytes, titleBytes.length * 2);
+        }
+        titleBytes[titleBytesLength++] = b;
+    }
+
+    /** Store the title span and genres for the given movie id */
+    private void addMovie(int id, int offset, int length, long mask) {
+        int movie = movieIds.getOrAdd(id);
+        if (movie >= titleLengths.length) {
+            int capacity = Math.max(titleLengths.length * 2, movie + 1);
+            int oldCapacity = titleLengths.length;
+            titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+            titleLengths = Arrays.copyOf(titleLengths, capacity);
+            genreMasks = Arrays.copyOf(genreMasks, capacity);
+            Arrays.fill(titleLengths, oldCapacity, capacity, -1);
+        }
+        titleOffsets[movie] = offset;
+        titleLengths[movie] = length;
+        genreMasks[movie] = mask;
+    }
+
+    /** Return the bit for the genre name in the first length bytes of name,
+     *  assigning a new bit to a genre that was not seen before */
+    private long genreBit(byte[] name, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        for (int i = 0; i < genreNames.size(); i++) {
+            byte[] known = genreNames.get(i);
+            if (known.length == length && rangeEquals(known, name, length)) {
+                return 1L << i;
+            }
+        }
+        byte[] copy = Arrays.copyOf(name, length);
+        if (Arrays.equals(copy, NO_GENRES.getBytes(StandardCharsets.UTF_8))) {
+            return 0;
+        }
+        if (genreNames.size() == MAX_GENRES) {
+            Metrics.increment(Metrics.Counter.ERRORS); // no bit left for the genre
+            return 0;
+        }
+        genreNames.add(copy);
+        return 1L << (genreNames.size() - 1);
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
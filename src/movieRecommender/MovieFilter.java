@@ -0,0 +1,43 @@
+package movieRecommender;
+
+/** MovieFilter. Decides which movies may appear in the result of a
+ *  recommendation query: the movie must not be watched by the user yet and
+ *  its genre bits must pass the include and exclude masks of the query.
+ *  Used while candidates are collected, so that rejected movies do not
+ *  count towards the number of requested results.
+ */
+public class MovieFilter {
+    private final boolean[] watched;
+    private final MovieCatalog catalog;
+    private final long includeGenres;
+    private final long excludeGenres;
+
+    /** A constructor for the MovieFilter.
+     * @param watched       movies watched by the user, indexed by movie index
+     * @param catalog       catalog with the genre bits of each movie
+     * @param includeGenres movie must have at least one of these genres, 0 for any genre
+     * @param excludeGenres movie must have none of these genres
+     */
+    public MovieFilter(boolean[] watched, MovieCatalog catalog, long includeGenres, long excludeGenres) {
+        this.watched = watched;
+        this.catalog = catalog;
+        this.includeGenres = includeGenres;
+        this.excludeGenres = excludeGenres;
+    }
+
+    /**
+     * Check if the movie with the given index passes this filter.
+     * @param movie index of the movie
+     * @return true if the movie may be recommended
+     */
+    public boolean accept(int movie) {
+        if (movie < watched.length && watched[movie]) {
+            return false;
+        }
+        if ((includeGenres | excludeGenres) == 0) {
+            return true;
+        }
+        long genres = catalog.getGenres(movie);
+        return (genres & excludeGenres) == 0 && (includeGenres == 0 || (genres & includeGenres) != 0);
+    }
+}
@@ -1,13 +1,28 @@
 package movieRecommender;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class MovieRatingsList implements Iterable<MovieRatingNode> {
 
+	/** Number of shared movies at which significance weighting stops shrinking similarity */
+	public static final int SIGNIFICANCE_OVERLAP = 50;
+
+	/** Largest number of skip levels above the node chain */
+	private static final int MAX_LEVEL = 16;
+
 	private MovieRatingNode head;
-	// Note: you are not allowed to store the tail or the size of this list
+	// The nodes are kept sorted by rating, largest first, and by movie id for
+	// equal ratings. The next chain of the nodes is the bottom level of a skip
+	// list: towers on about a quarter of the nodes link to towers further
+	// down the list, so a node is found by its rating in O(log n) instead of
+	// walking the chain. The node of each movie is found in O(1) with a small
+	// hash table keyed by movie id.
+	private Tower top; // tower before the first node, null while no node has a tower
+	private int levels; // number of levels in use above the node chain
+	private MovieRatingNode[] byMovie = new MovieRatingNode[4]; // open addressing on movie id
+	private int count; // number of nodes, to know when byMovie has to grow
+	private final RatingStats stats = new RatingStats(); // count, sums and histogram of the ratings
 
 
 	/**
@@ -20,41 +35,23 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 	 */
 	public void setRating(int movieId, double newRating)
 	{
-		// Check if the ID exists
-
-		if(getRating(movieId) != -1)
+		MovieRatingNode node = find(movieId);
+		if (node == null)
 		{
-			// Iterate the list and update this rating
-			// The ref to the head of this list
-
-			MovieRatingNode current = head;
-
-			// We iterate this as long as the movieId node is not found
-
-			while(current != null)
-			{
-				// Check for the match of the movieId
-
-				if(current.getMovieId() == movieId)
-				{
-					// If matches, update the rating and return
-					current.setMovieRating(newRating);
-
-					//********* Maintain sorted order, add method for this *********
-
-					return;
-				}
-
-				// Move to the next movie
-				current = current.next();
-			}
+			insertByRating(movieId, newRating);
+			return;
 		}
-		else
+		if (node.getMovieRating() == newRating)
 		{
-			// Add a new movie node with this rating
-			// ********** SORTED ORDER TO BE MAINTAINED *************
-			insertByRating(movieId, newRating);
+			return;
 		}
+
+		// take the node out at its old position and put it back at the new one
+		Tower tower = unlink(node);
+		stats.remove(node.getMovieRating());
+		node.setMovieRating(newRating);
+		stats.add(newRating);
+		link(node, tower == null ? 0 : tower.next.length, tower);
 	}
 
 
@@ -66,26 +63,9 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 	 */
 	public double getRating(int movieId)
 	{
-		// The ref to the head of this list
-
-		MovieRatingNode current = head;
-
-		// Iterate as long as current is not null
-		while(current != null)
-		{
-			// Check for the match of the movieId
-
-			if(current.getMovieId() == movieId)
-			{
-				// If matches, return the rating for this particular one
-
-				return current.getMovieRating();
-			}
-			// Move to the next movie
-			current = current.next();
-		}
+		MovieRatingNode node = find(movieId);
 		// -1 is returned if the movieId doesn't exist in the list
-		return -1;
+		return node == null ? -1 : node.getMovieRating();
 	}
 
 
@@ -93,150 +73,463 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 	 * Insert a new node (with a given movie id and a given rating) into the list.
 	 * Insert it in the right place based on the value of the rating. Assume
 	 * the list is sorted by the value of ratings, from highest to smallest. The
-	 * list should remain sorted after this insert operation.
+	 * list should remain sorted after this insert operation. Movies with the
+	 * same rating are sorted by movie id. If the movie is already in the list,
+	 * its rating is changed instead, so every movie has one node. Runs in
+	 * O(log n) expected time.
 	 *
 	 * @param movieId id of the movie
 	 * @param rating rating of the movie
 	 */
 	public void insertByRating(int movieId, double rating)
 	{
-		// if the head is null, create a new head
-		if( head == null )
+		if (find(movieId) != null)
 		{
-			// create a new head
-			head = new MovieRatingNode(movieId, rating);
-
-			// return
+			setRating(movieId, rating);
 			return;
 		}
 
-		// if this rating is greater than the rating at head, we insert it before head
-		else if( rating > head.getMovieRating() )
-		{
-			// create new node
-			MovieRatingNode newNode = new MovieRatingNode(movieId, rating);
-
-			// add it before the head
-			newNode.setNext(head);
+		MovieRatingNode newNode = new MovieRatingNode(movieId, rating);
+		addToIndex(newNode);
+		stats.add(newNode.getMovieRating()); // the node may have replaced an invalid rating
+		link(newNode, randomHeight(), null);
+	}
 
-			// now, head is made to point to this new node, so that this becomes new head
-			head = newNode;
+	/** Return the node of the given movie, or null if it is not in the list */
+	private MovieRatingNode find(int movieId)
+	{
+		if (byMovie == null)
+		{
+			// a list made by reverse has no index
+			for (MovieRatingNode current = head; current != null; current = current.next())
+			{
+				if (current.getMovieId() == movieId)
+				{
+					return current;
+				}
+			}
+			return null;
 		}
-		// else insert it at the right position
-		else
+		int mask = byMovie.length - 1;
+		for (int slot = slotOf(movieId, mask); byMovie[slot] != null; slot = (slot + 1) & mask)
 		{
-			// we use current and previous pointers
-			// current points to current node, and current node starts from the second node in the list
-			// previous points to the node before the current node
-			MovieRatingNode current = head.next();
-			MovieRatingNode prev = head;
+			if (byMovie[slot].getMovieId() == movieId)
+			{
+				return byMovie[slot];
+			}
+		}
+		return null;
+	}
 
-			// we iterate this as long as the rating of this movie is smaller than rating of current movie
-			while( current != null )
+	/** Add a node to the table of nodes by movie id, growing it at half full */
+	private void addToIndex(MovieRatingNode node)
+	{
+		if (++count * 2 > byMovie.length)
+		{
+			MovieRatingNode[] old = byMovie;
+			byMovie = new MovieRatingNode[old.length * 2];
+			for (MovieRatingNode n : old)
 			{
-				// if node found where the rating of this movie is greater, insert
-				if( movieId>current.getMovieId() )
+				if (n != null)
 				{
-					// create a new movie node
-					MovieRatingNode newNode = new MovieRatingNode(movieId, rating);
+					put(n);
+				}
+			}
+		}
+		put(node);
+	}
 
-					// this new node is inserted between prev and current
-					// so previously, : ..-> prev->current->...
-					// after inserting this, it will be : ...prev->newnode->current->...
+	private void put(MovieRatingNode node)
+	{
+		int mask = byMovie.length - 1;
+		int slot = slotOf(node.getMovieId(), mask);
+		while (byMovie[slot] != null)
+		{
+			slot = (slot + 1) & mask;
+		}
+		byMovie[slot] = node;
+	}
 
-					// set the next of the new node is current
-					newNode.setNext(current);
+	private static int slotOf(int movieId, int mask)
+	{
+		int h = movieId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
 
-					// now, next of prev is new node
-					prev.setNext(newNode);
+	/** Return true if node a comes before a node with the given rating and movie id */
+	private static boolean before(MovieRatingNode a, double rating, int movieId)
+	{
+		return a.getMovieRating() > rating || (a.getMovieRating() == rating && a.getMovieId() < movieId);
+	}
 
-					// return
-					return;
-				}
+	/**
+	 * Find the place of the given rating and movie id. On return, path[l]
+	 * is the last tower at level l that comes before it.
+	 *
+	 * @return the last node that comes before it, null if it goes first
+	 */
+	private MovieRatingNode search(double rating, int movieId, Tower[] path)
+	{
+		MovieRatingNode prev = null;
+		Tower tower = top;
+		for (int level = levels - 1; level >= 0; level--)
+		{
+			while (tower.next[level] != null && before(tower.next[level].node, rating, movieId))
+			{
+				tower = tower.next[level];
+			}
+			path[level] = tower;
+		}
+		if (tower != null)
+		{
+			prev = tower.node; // null for top
+		}
 
-				// move to the next movie
-				prev = current;
-				current = current.next();
+		// the rest of the way on the node chain
+		MovieRatingNode current = prev == null ? head : prev.next();
+		while (current != null && before(current, rating, movieId))
+		{
+			prev = current;
+			current = current.next();
+		}
+		return prev;
+	}
+
+	/** Put a node that is not in the chain at the place of its rating, with
+	 *  a tower of the given height (or the given tower, if it is not null) */
+	private void link(MovieRatingNode node, int height, Tower tower)
+	{
+		if (height > 0 && top == null)
+		{
+			top = new Tower(null, MAX_LEVEL);
+		}
+		Tower[] path = new Tower[levels];
+		MovieRatingNode prev = search(node.getMovieRating(), node.getMovieId(), path);
+		if (prev == null)
+		{
+			node.setNext(head);
+			head = node;
+		}
+		else
+		{
+			node.setNext(prev.next());
+			prev.setNext(node);
+		}
+
+		if (height == 0)
+		{
+			return;
+		}
+		if (tower == null)
+		{
+			tower = new Tower(node, height);
+		}
+		for (int level = 0; level < height; level++)
+		{
+			Tower prevTower = level < levels ? path[level] : top;
+			tower.next[level] = prevTower.next[level];
+			prevTower.next[level] = tower;
+		}
+		levels = Math.max(levels, height);
+	}
+
+	/** Take a node out of the chain and out of the skip levels.
+	 *  @return the tower of the node, null if it has none */
+	private Tower unlink(MovieRatingNode node)
+	{
+		Tower[] path = new Tower[levels];
+		MovieRatingNode prev = search(node.getMovieRating(), node.getMovieId(), path);
+		if (prev == null)
+		{
+			head = node.next();
+		}
+		else
+		{
+			prev.setNext(node.next());
+		}
+		node.setNext(null);
+
+		Tower tower = null;
+		for (int level = levels - 1; level >= 0; level--)
+		{
+			Tower next = path[level].next[level];
+			if (next != null && next.node == node)
+			{
+				tower = next;
+				path[level].next[level] = next.next[level];
+				next.next[level] = null;
 			}
+		}
+		return tower;
+	}
 
-			// if reached here, means this move rating was smaller than all the ratings in the list
-			// so we add this new rating to end of this list
-			MovieRatingNode newNode = new MovieRatingNode(movieId, rating);
+	/** Number of skip levels for a new node: each level with probability 1/4 */
+	private static int randomHeight()
+	{
+		int bits = ThreadLocalRandom.current().nextInt() | (1 << (2 * MAX_LEVEL - 2));
+		return Integer.numberOfTrailingZeros(bits) / 2;
+	}
 
-			// since prev now is pointing to the last of the node in the list, we make next of prev point to this node
-			prev.setNext(newNode);
+	/** The skip levels above one node: next[l] is the next tower at level l */
+	private static class Tower
+	{
+		final MovieRatingNode node;
+		final Tower[] next;
+
+		Tower(MovieRatingNode node, int height)
+		{
+			this.node = node;
+			this.next = new Tower[height];
 		}
 	}
 
 
+	/** Return the summary statistics of the ratings in this list */
+	public RatingStats getStats()
+	{
+		return stats;
+	}
+
 	/**
 	 * Computes similarity between two lists of ratings using Pearson correlation.
 	 * https://en.wikipedia.org/wiki/Pearson_correlation_coefficient
-	 * Note: You are allowed to use a HashMap for this method.
+	 * Spreads the other list into a dense array indexed by movie index and
+	 * calls computeSimilarity(double[]).
 	 *
 	 * @param otherList another MovieRatingList
 	 * @return similarity computed using Pearson correlation
 	 */
 	public double computeSimilarity(MovieRatingsList otherList)
 	{
-		double similarity = 0;
-		// a hash map to store the otherList ratings
-		HashMap<Integer, Double> ratingsMapOther = new HashMap<>();
-		// put all the ratings from the other list into the hashmap
-		for(MovieRatingNode node : otherList){
-			ratingsMapOther.put(node.getMovieId(), node.getMovieRating());
+		int maxMovie = -1;
+		for (MovieRatingNode node : otherList)
+		{
+			maxMovie = Math.max(maxMovie, node.getMovieId());
 		}
-		HashMap<Integer, Double> ratingsMapThis = new HashMap<>();
+		double[] otherRatings = new double[maxMovie + 1];
+		otherList.spreadInto(otherRatings);
+		return computeSimilarity(otherRatings);
+	}
 
-		for(MovieRatingNode node : this){
-			if (ratingsMapOther.containsKey(node.getMovieId()))
-				ratingsMapThis.put(node.getMovieId(), node.getMovieRating());
+	/**
+	 * Computes similarity between this list and ratings spread into a dense
+	 * array (see spreadInto) using Pearson correlation. Only the movies rated
+	 * in both are used. Movie ids in this list are dense indices, so this is
+	 * a single pass over the list with an array lookup per node.
+	 *
+	 * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+	 * @return similarity computed using Pearson correlation
+	 */
+	public double computeSimilarity(double[] otherRatings)
+	{
+		return computeSimilarity(otherRatings, false);
+	}
+
+	/**
+	 * Computes significance weighted similarity between this list and ratings
+	 * spread into a dense array: Pearson correlation multiplied by
+	 * min(n, SIGNIFICANCE_OVERLAP) / SIGNIFICANCE_OVERLAP, where n is the
+	 * number of movies rated in both. Similarities based on a few shared
+	 * movies are shrunk towards 0, and the result is never larger than
+	 * min(n, SIGNIFICANCE_OVERLAP) / SIGNIFICANCE_OVERLAP.
+	 *
+	 * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+	 * @return significance weighted similarity
+	 */
+	public double computeWeightedSimilarity(double[] otherRatings)
+	{
+		return computeSimilarity(otherRatings, true);
+	}
+
+	private double computeSimilarity(double[] otherRatings, boolean weighted)
+	{
+		Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+		long start = 0;
+		if (Metrics.isEnabled() && ThreadLocalRandom.current().nextInt(Metrics.SIMILARITY_SAMPLE) == 0)
+		{
+			start = Metrics.start(); // time a sample of the calls only
 		}
 
-		for (Iterator<Integer> it = ratingsMapOther.keySet().iterator(); it.hasNext();) {
-			Integer key = it.next();
+		int n = 0;
+		double sx = 0;
+		double sy = 0;
+		double sxy = 0;
+		double sx2 = 0;
+		double sy2 = 0;
 
-			if(!ratingsMapThis.containsKey(key)){
-				it.remove(); //removes the node which is being iterated currently.
+		MovieRatingNode current = head;
+		while (current != null)
+		{
+			int movie = current.getMovieId();
+			// ratings are at least 0.5, so 0 means the other user did not rate this movie
+			if (movie < otherRatings.length && otherRatings[movie] != 0)
+			{
+				double x = otherRatings[movie];
+				double y = current.getMovieRating();
+				n++;
+				sx += x;
+				sy += y;
+				sxy += x * y;
+				sx2 += x * x;
+				sy2 += y * y;
 			}
+			current = current.next();
 		}
-		for (Iterator<Integer> it = ratingsMapThis.keySet().iterator(); it.hasNext();) {
-			Integer key = it.next();
-			//If the key isn't present in both the lists
-			//Then remove this key from the hashmap1
-			if(!ratingsMapOther.containsKey(key)){
-				it.remove();
+
+		double similarity = pearson(n, sx, sy, sxy, sx2, sy2);
+		if (weighted && n < SIGNIFICANCE_OVERLAP)
+		{
+			similarity = similarity * n / SIGNIFICANCE_OVERLAP;
+		}
+		Metrics.stop(Metrics.Phase.SIMILARITY, start);
+		return similarity;
+	}
+
+	/**
+	 * Count the movies of this list that are rated in the dense array, up
+	 * to limit. Only compares, so a pair below the minimum overlap is turned
+	 * away without summing its ratings.
+	 *
+	 * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+	 * @param limit count at which to stop
+	 * @return number of shared movies, at most limit
+	 */
+	int countShared(double[] otherRatings, int limit)
+	{
+		int n = 0;
+		for (MovieRatingNode current = head; current != null && n < limit; current = current.next())
+		{
+			int movie = current.getMovieId();
+			if (movie < otherRatings.length && otherRatings[movie] != 0)
+			{
+				n++;
 			}
 		}
+		return n;
+	}
 
-		int n = ratingsMapOther.size();
+	/**
+	 * Computes the given kind of similarity between this list and ratings
+	 * spread into a dense array (see Similarity). A pair that can not share
+	 * the minimum overlap by its rating counts, or that does not share it by
+	 * countShared, is rejected before any rating is summed.
+	 *
+	 * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+	 * @param otherStats statistics of the other user's ratings
+	 * @param similarity measure, minimum overlap and weighting
+	 * @return the similarity, 0 if the users share too few movies
+	 */
+	public double computeSimilarity(double[] otherRatings, RatingStats otherStats, Similarity similarity)
+	{
+		int minOverlap = similarity.getMinOverlap();
+		if (!similarity.canOverlap(stats.getCount(), otherStats.getCount())
+				|| (minOverlap > 1 && countShared(otherRatings, minOverlap) < minOverlap))
+		{
+			Metrics.increment(Metrics.Counter.OVERLAP_REJECTED);
+			return 0;
+		}
+		Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
 
+		int n = 0;
 		double sx = 0;
-
 		double sy = 0;
-
 		double sxy = 0;
-
 		double sx2 = 0;
-
 		double sy2 = 0;
 
+		MovieRatingNode current = head;
+		while (current != null)
+		{
+			int movie = current.getMovieId();
+			if (movie < otherRatings.length && otherRatings[movie] != 0)
+			{
+				double x = otherRatings[movie];
+				double y = current.getMovieRating();
+				n++;
+				sx += x;
+				sy += y;
+				sxy += x * y;
+				sx2 += x * x;
+				sy2 += y * y;
+			}
+			current = current.next();
+		}
+		if (!similarity.accepts(n))
+		{
+			Metrics.increment(Metrics.Counter.OVERLAP_REJECTED);
+		}
+		return similarity.score(n, sx, sy, sxy, sx2, sy2, otherStats, stats.getMean(), stats.getCenteredNorm());
+	}
 
+	/**
+	 * Computes mean-centred cosine similarity between this list and ratings
+	 * spread into a dense array: the sum over movies rated in both of
+	 * (x - mean of x)(y - mean of y), divided by the lengths of both users'
+	 * mean-centred rating vectors over all their ratings. Means and lengths
+	 * come from the cached RatingStats, so the pass over the list only
+	 * computes the products.
+	 *
+	 * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+	 * @param otherStats statistics of the other user's ratings
+	 * @return similarity in -1..1, 0 if either user rated everything the same
+	 */
+	public double computeCenteredSimilarity(double[] otherRatings, RatingStats otherStats)
+	{
+		Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+		double norms = stats.getCenteredNorm() * otherStats.getCenteredNorm();
+		if (norms == 0)
+		{
+			return 0;
+		}
+		double myMean = stats.getMean();
+		double otherMean = otherStats.getMean();
+		double products = 0;
 
-		for(Integer key: ratingsMapOther.keySet()){
-			sx += ratingsMapOther.get(key);
-			sy += ratingsMapThis.get(key);
-			sxy += ratingsMapOther.get(key)*ratingsMapThis.get(key);
-			sx2 += ratingsMapOther.get(key)*ratingsMapOther.get(key);
-			sy2 += ratingsMapThis.get(key)*ratingsMapThis.get(key);
+		MovieRatingNode current = head;
+		while (current != null)
+		{
+			int movie = current.getMovieId();
+			if (movie < otherRatings.length && otherRatings[movie] != 0)
+			{
+				products += (otherRatings[movie] - otherMean) * (current.getMovieRating() - myMean);
+			}
+			current = current.next();
 		}
+		return products / norms;
+	}
+
+	/**
+	 * Computes Pearson correlation from the sums over the n movies rated by
+	 * both users, where x is the rating of one user and y of the other.
+	 *
+	 * @return similarity computed using Pearson correlation, 0 if undefined
+	 */
+	static double pearson(int n, double sx, double sy, double sxy, double sx2, double sy2)
+	{
 		double numerator = n*sxy - sx*sy;
 		double denominator = Math.sqrt(n*sx2-sx*sx)*Math.sqrt(n*sy2-sy*sy);
-
-		similarity = numerator/denominator;
 		if (denominator==0) return 0; // if denominator is 0, then return 0
-		return similarity;
+		// rounding can put a perfect correlation a few ulps past 1, and then a weighted
+		// similarity past its bound min(n, 50) / 50, which the pruned search relies on
+		return Math.max(-1, Math.min(1, numerator/denominator));
+	}
+
+	/**
+	 * Writes the rating of every movie in this list into the given array,
+	 * at the position of the movie index. Other positions are not touched.
+	 *
+	 * @param ratings array indexed by movie index, large enough for every movie in this list
+	 */
+	public void spreadInto(double[] ratings)
+	{
+		MovieRatingNode current = head;
+		while (current != null)
+		{
+			ratings[current.getMovieId()] = current.getMovieRating();
+			current = current.next();
+		}
 	}
+
 	/**
 	 * Returns a sublist of this list where the rating values are in the range
 	 * from begRating to endRating, inclusive.
@@ -262,6 +555,23 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 		return res;
 	}
 
+	/**
+	 * Returns a copy of this list with new nodes. The nodes of the copy are
+	 * allocated one after another, so they end up close together in memory;
+	 * used by UsersList.reorderUsers to lay out the users in scan order.
+	 *
+	 * @return a list with the same ratings
+	 */
+	public MovieRatingsList copy()
+	{
+		MovieRatingsList res = new MovieRatingsList();
+		for (MovieRatingNode current = head; current != null; current = current.next())
+		{
+			res.insertByRating(current.getMovieId(), current.getMovieRating());
+		}
+		return res;
+	}
+
 	/** Traverses the list and prints the ratings list in the following format:
 	 *  movieId:rating; movieId:rating; movieId:rating;  */
 	public void print()
@@ -269,19 +579,22 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 		// Refrence to the head node of this list
 		MovieRatingNode current = head;
 
-		// Add all ratings to be printed
+		// Format all ratings into one buffer, and print it at once
+		ExportBuffer out = new ExportBuffer();
 		// Traverse as long as current is not null
 		while(current != null)
 		{
-			// Print this node
-			System.out.print(current.getMovieId() + ":" + current.getMovieRating() + "; ");
+			// Add this node
+			out.append(current.getMovieId()).append(':').appendRating(current.getMovieRating()).append(';').append(' ');
 
 			// Move to the next
 			current = current.next();
 		}
 
 		// \n
-		System.out.println();
+		out.appendAscii(System.lineSeparator());
+		System.out.write(out.array(), 0, out.length());
+		System.out.flush();
 
 	}
 
@@ -330,21 +643,21 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 	}
 	/**
 	 * Returns the median rating (the number that is halfway into the sorted
-	 * list). To compute it, find the middle node and return it's rating. If the
-	 * middle node is null, return -1.
+	 * list). It is the rating of the middle node, found in O(1) from the
+	 * rating histogram. If the list is empty, return -1.
 	 *
 	 * @return rating stored in the node in the middle of the list
 	 */
 	public double getMedianRating()
 	{
-		// If the middle node is not null, return its value
-		if( getMiddleNode() != null )
+		if (byMovie != null)
 		{
-			return getMiddleNode().getMovieRating();
+			return stats.getMedian();
 		}
 
-		// if middle node is null, return -1
-		return -1;
+		// a list made by reverse has no statistics, so find the middle node
+		MovieRatingNode middle = getMiddleNode();
+		return middle == null ? -1 : middle.getMovieRating();
 	}
 
 	/**
@@ -467,6 +780,10 @@ public class MovieRatingsList implements Iterable<MovieRatingNode> {
 
 		r.head = slow;
 
+		// the reversed list is not sorted from largest to smallest, so it gets
+		// no skip levels, and movies are found by walking it
+		r.byMovie = null;
+
 		// Return the reversed list
 		return r;
 	}
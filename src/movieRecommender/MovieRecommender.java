@@ -1,8 +1,9 @@
 package movieRecommender;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 //import java.io.FileNotFoundException;
 
 /** MovieRecommender. A class that is responsible for:
@@ -11,14 +12,49 @@ import java.util.HashSet;
  *  - Computing movie "anti-recommendations" for a given user and printing them to file.
  *  Fill in code in methods of this class.
  *  Do not modify signatures of methods.
+ *  User and movie ids from the files are mapped to dense indices when loaded;
+ *  all internal structures work on indices, and ids only appear in the
+ *  public methods and in the output files.
+ *  Queries may run while new ratings are added with addRatings (for
+ *  example by a RatingsLogIngester): queries share a read lock, and every
+ *  batch of new ratings is applied under the write lock.
+ *  Unknown users, users with fewer than MIN_NEIGHBOUR_RATINGS ratings and
+ *  users without a positively correlated neighbour get the best (or, for
+ *  anti-recommendations, the worst) movies of the PopularityIndex instead.
+ *  The neighbour search of each query is planned by a QueryPlanner, which
+ *  picks a full scan or a walk over the postings from the user's ratings.
+ *  Finished lists are kept in a RecommendationCache, so a repeated query
+ *  only writes its file, until a rating of the user or of the neighbour
+ *  the list came from changes.
+ *  Instead of loadData, openUsers reads users from a store file written by
+ *  saveUsers, in the lazy mode where only the users touched by queries are
+ *  kept in memory (see UserStore).
  */
 public class MovieRecommender {
+    /** Users with fewer ratings get popular movies instead of a neighbour search */
+    public static final int MIN_NEIGHBOUR_RATINGS = 5;
+    /** Buffer each query thread formats its result file into */
+    private static final ThreadLocal<ExportBuffer> OUTPUT = ThreadLocal.withInitial(ExportBuffer::new);
+
+    private IdDictionary userIds; // maps each userId to a dense user index
+    private IdDictionary movieIds; // maps each movieId to a dense movie index
     private UsersList usersData; // linked list of users
-    private HashMap<Integer, String> movieMap; // maps each movieId to the movie title
+    private MovieCatalog catalog; // title and genres of each movie index
+    private PopularityIndex popularity; // best, worst and most rated movies, for users without a neighbour
+    private RecommendationCache cache; // movies of recent queries
+    private QueryPlanner planner; // picks how to search the neighbours of each query
+    private Similarity similarity; // how neighbours are compared; weighted in pruning mode
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // queries read, loads and batches write
 
     public MovieRecommender() {
-        movieMap = new HashMap<>();
-        usersData = new UsersList();
+        userIds = new IdDictionary();
+        movieIds = new IdDictionary();
+        catalog = new MovieCatalog(movieIds);
+        popularity = new PopularityIndex(catalog);
+        usersData = new UsersList(userIds, movieIds);
+        cache = new RecommendationCache(RecommendationCache.DEFAULT_CAPACITY);
+        planner = new QueryPlanner(usersData);
+        similarity = Similarity.PEARSON;
     }
 
     /**
@@ -29,95 +65,211 @@ public class MovieRecommender {
      * @param ratingsFilename name of the file with ratings info
      */
     public void loadData(String movieFilename, String ratingsFilename) {
-        loadMovies(movieFilename);
-        loadRatings(ratingsFilename);
+        loadData(movieFilename, ratingsFilename, 0, 1);
     }
 
-    /** Load information about movie ids and titles from the given file.
-     *  Store information in a hashmap that maps each movie id to a movie title
-     *
-     * @param movieFilename csv file that contains movie information.
-     *
+    /**
+     * Read all movies, but only the ratings of the users that belong to the
+     * given shard (see ShardServer.shardOf). Used by each shard process of
+     * a sharded deployment to load its part of the users.
+     * @param movieFilename name of the file with movie info
+     * @param ratingsFilename name of the file with ratings info
+     * @param shard number of this shard, 0..numShards-1
+     * @param numShards number of shards the users are split into
      */
-    private void loadMovies(String movieFilename)
-    {
-        String line = "";
-        String comma = ",";
-        int ID, firstCommaIndex = 0;
-        String MovieName;
-        char character;
-        boolean isQuoted;
-
-        try {
-            FileReader reader = new FileReader(movieFilename);
-            BufferedReader reader1 = new BufferedReader(reader);
-
-            line = reader1.readLine();
-            while((line = reader1.readLine()) != null)
-            {
-                firstCommaIndex = line.indexOf(comma);
-                if (firstCommaIndex == 0) continue;
-                ID = Integer.parseInt(line.substring(0, firstCommaIndex));
-
-                character = line.charAt(firstCommaIndex);
-                isQuoted = (character == '"' || character == '\'');
-                if (isQuoted)
-                {
-                    int firstQuoteIndex = firstCommaIndex + 1;
-                    String newString = line.substring(firstCommaIndex + 1);
-                    int secondQuoteIndex = newString.indexOf(character);
-                    if(secondQuoteIndex != -1 && firstQuoteIndex >= 0)
-                    {
-                        MovieName = newString.substring(0, secondQuoteIndex);
+    public void loadData(String movieFilename, String ratingsFilename, int shard, int numShards) {
+        lock.writeLock().lock();
+        try {
+            loadMovies(movieFilename);
+            loadRatings(ratingsFilename, shard, numShards);
+            usersData.sortSegments();
+            popularity.rebuild();
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                    }
-                    else
-                    {
-                        continue;
-                    }
+    /**
+     * Write the ratings of all users to a store file, for openUsers.
+     * @param storeFilename file to write
+     * @throws IOException if the file can not be written, or a user has a
+     *                     rating that is not a half star
+     */
+    public void saveUsers(String storeFilename) throws IOException {
+        lock.readLock().lock();
+        try {
+            UserStore.write(usersData, userIds, movieIds, storeFilename);
+        } catch (IOException e) {
+            Metrics.increment(Metrics.Counter.ERRORS);
+            throw e;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load movies from the movies file and users from a store file written
+     * by saveUsers, in the lazy mode: only a directory entry per user is
+     * read now, and the ratings of a user are paged in when a query needs
+     * them, with at most maxResident users in memory (see UserStore). Must
+     * be called on a new MovieRecommender, instead of loadData.
+     * @param movieFilename name of the file with movie info
+     * @param storeFilename store file written by saveUsers
+     * @param maxResident max number of users whose ratings are in memory
+     * @throws IOException if the store file can not be read or is not a store file
+     */
+    public void openUsers(String movieFilename, String storeFilename, int maxResident) throws IOException {
+        lock.writeLock().lock();
+        try {
+            UserStore store;
+            try {
+                store = UserStore.open(storeFilename, userIds, movieIds, maxResident);
+            } catch (IOException e) {
+                Metrics.increment(Metrics.Counter.ERRORS);
+                throw e;
+            }
+            loadMovies(movieFilename);
+            usersData.attach(store);
+
+            // count every rating in the popularity index, without paging users in
+            int[] movies = new int[16];
+            double[] ratings = new double[16];
+            for (int u = 0; u < store.numUsers(); u++) {
+                int n = store.count(u);
+                if (n > movies.length) {
+                    movies = new int[n * 2];
+                    ratings = new double[n * 2];
+                }
+                store.packed(u).decode(movies, ratings);
+                for (int i = 0; i < n; i++) {
+                    popularity.add(movies[i], ratings[i]);
+                }
+            }
+            popularity.rebuild();
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
+    /**
+     * Add a batch of new ratings. A rating of a movie the user already rated
+     * replaces the old rating. The whole batch is applied under the write
+     * lock, so a query sees either none or all of it. The indices are
+     * updated per batch: every changed user, posting and movie ranking is
+     * touched once (see UsersList.insertBatch and PopularityIndex.addAll).
+     * @param userIdArr ids of the users
+     * @param movieIdArr ids of the movies
+     * @param ratings ratings given by the users to the movies
+     * @param times timestamps of the ratings
+     * @param n number of ratings in the arrays to add
+     * @throws IllegalArgumentException if users are stored in a UserStore and
+     *         a rating is not a half star from 0.5 to 5, which the store can
+     *         not write; nothing of the batch is applied then
+     * @throws java.io.UncheckedIOException if the store fails on a user; the
+     *         ratings of the users applied before it stay, fully indexed
+     */
+    public void addRatings(int[] userIdArr, int[] movieIdArr, double[] ratings, long[] times, int n) {
+        int[] users = new int[n];
+        int[] movies = new int[n];
+        double[] oldRatings = new double[n];
+        double[] appliedRatings = new double[n];
+        lock.writeLock().lock();
+        try {
+            UserStore store = usersData.getStore();
+            if (store != null) {
+                for (int i = 0; i < n; i++) {
+                    if (!CompressedRatings.isHalfStar(ratings[i])) {
+                        throw new IllegalArgumentException("Rating " + ratings[i] + " of user " + userIdArr[i]
+                                + " is not a half star, which the user store can not write");
+                    }
                 }
-                else
-                {
-                    String newString = line.substring(firstCommaIndex + 1);
-                    int secondCommaIndex = newString.indexOf(comma);
-                    if (firstCommaIndex >= 0 && secondCommaIndex < line.length())
-                    {
-                        MovieName = newString.substring(0, secondCommaIndex);
+            }
+            for (int i = 0; i < n; i++) {
+                users[i] = userIds.getOrAdd(userIdArr[i]);
+                movies[i] = movieIds.getOrAdd(movieIdArr[i]);
+            }
+            try {
+                usersData.insertBatch(users, movies, ratings, times, n, oldRatings);
+            } finally {
+                // if a user failed, the ratings applied before it are indexed all the same
+                int applied = 0;
+                for (int i = 0; i < n; i++) {
+                    if (!Double.isNaN(oldRatings[i])) {
+                        users[applied] = users[i];
+                        movies[applied] = movies[i];
+                        oldRatings[applied] = oldRatings[i];
+                        appliedRatings[applied] = ratings[i];
+                        applied++;
                     }
-                    else
-                    {
-                        continue;
+                }
+                popularity.addAll(movies, appliedRatings, oldRatings, applied);
+                int[] changedUsers = Arrays.copyOf(users, applied); // each user's cached lists are marked stale once
+                Arrays.sort(changedUsers);
+                int last = -1;
+                for (int user : changedUsers) {
+                    if (user != last) {
+                        cache.changed(user);
+                        last = user;
                     }
-
                 }
-
-                movieMap.put(ID, MovieName);
+                usersData.compressChanged();
             }
-        } catch (NumberFormatException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            if (store != null) {
+                try {
+                    store.compactIfNeeded();
+                } catch (IOException e) {
+                    // the batch is applied; the store keeps its old file and tries again later
+                    Metrics.increment(Metrics.Counter.ERRORS);
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Metrics.add(Metrics.Counter.RATINGS_INGESTED, n);
+    }
+
+    /** Load information about movie ids, titles and genres from the given file.
+     *  Assign a movie index to each movie id and store the title and genres
+     *  at that index in the movie catalog
+     *
+     * @param movieFilename csv file that contains movie information.
+     *
+     */
+    void loadMovies(String movieFilename)
+    {
+        long start = Metrics.start();
+        try {
+            Metrics.add(Metrics.Counter.MOVIE_ROWS_PARSED, catalog.load(movieFilename));
         } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            Metrics.increment(Metrics.Counter.ERRORS);
+            System.out.println("File " + movieFilename + " not found");
         } catch (IOException e) {
-            // TODO Auto-generated catch block
+            Metrics.increment(Metrics.Counter.ERRORS);
             e.printStackTrace();
         }
-
-
+        Metrics.stop(Metrics.Phase.LOAD_MOVIES, start);
     }
 
     /**
-     * Load users' movie ratings from the file into UsersList
+     * Load users' movie ratings from the file into UsersList, skipping users
+     * of other shards
      * @param ratingsFilename name of the file that contains ratings
+     * @param shard number of the shard to load
+     * @param numShards number of shards, 1 to load every user
      */
-    private void loadRatings(String ratingsFilename) {
+    private void loadRatings(String ratingsFilename, int shard, int numShards) {
         String line;
         String comma = ",";
         int movieId, userId;
         double rating;
+        long time;
         String[] data;
+        long rows = 0;
+        long badRows = 0;
+        long start = Metrics.start();
 
         try {
             FileReader reader1 = new FileReader(ratingsFilename);
@@ -125,109 +277,566 @@ public class MovieRecommender {
 
             line = reader2.readLine();
             while ((line = reader2.readLine()) != null) {
-                //We will read the userid, movie id , and rating
+                //We will read the userid, movie id , rating and timestamp
                 data = line.split(comma);
-                userId = Integer.parseInt(data[0]);
-                movieId = Integer.parseInt(data[1]);
-                rating = Double.valueOf(data[2]);
-                usersData.insert(userId, movieId, rating);
+                try {
+                    userId = Integer.parseInt(data[0]);
+                    if (numShards > 1 && ShardServer.shardOf(userId, numShards) != shard) continue;
+                    movieId = Integer.parseInt(data[1]);
+                    rating = Double.valueOf(data[2]);
+                    time = data.length > 3 ? Long.parseLong(data[3]) : 0;
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // skip the bad line, but keep loading the rest of the file
+                    badRows++;
+                    continue;
+                }
+                insert(userIds.getOrAdd(userId), movieIds.getOrAdd(movieId), rating, time);
+                rows++;
 
             }
-        } catch (NumberFormatException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            reader2.close();
         } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            Metrics.increment(Metrics.Counter.ERRORS);
+            System.out.println("File " + ratingsFilename + " not found");
         } catch (IOException e) {
-            // TODO Auto-generated catch block
+            Metrics.increment(Metrics.Counter.ERRORS);
             e.printStackTrace();
         }
+
+        if (badRows > 0) {
+            System.out.println("Skipped " + badRows + " bad lines in " + ratingsFilename);
+        }
+        Metrics.add(Metrics.Counter.RATING_ROWS_PARSED, rows);
+        Metrics.add(Metrics.Counter.ERRORS, badRows);
+        Metrics.stop(Metrics.Phase.LOAD_RATINGS, start);
+    }
+
+    /** Insert a rating into the users list, count it in the popularity index
+     *  and mark the cached lists of the user as stale */
+    private void insert(int userIndex, int movieIndex, double rating, long time) {
+        UserNode user = usersData.get(userIndex);
+        double oldRating = user == null ? -1 : user.getMovieRatings().getRating(movieIndex);
+        usersData.insert(userIndex, movieIndex, rating, time);
+        if (oldRating < 0) {
+            popularity.add(movieIndex, rating);
+        } else {
+            popularity.change(movieIndex, oldRating, rating);
+        }
+        cache.changed(userIndex);
     }
 
     /**
      * * Computes up to num movie recommendations for the user with the given user
      * id and prints these movie titles to the given file. First calls
-     * findMostSimilarUser and then getFavoriteMovies(num) method on the
+     * findMostSimilarUser and then getFavoriteMovies method on the
      * "most similar user" to get up to num recommendations. Prints movies that
-     * the user with the given userId has not seen yet.
+     * the user with the given userId has not seen yet; watched movies are
+     * skipped before they count towards num.
      * @param userid id of the user
      * @param num max number of recommendations
      * @param filename name of the file where to output recommended movie titles
      *                 Format of the file: one movie title per each line
      */
     public void findRecommendations(int userid, int num, String filename) {
+        findRecommendations(userid, num, filename, 0, 0, TimeWindow.ALL);
+    }
+
+    /**
+     * Computes up to num movie anti-recommendations for the user with the given
+     * user id and prints these movie titles to the given file. These are the
+     * movies the user should avoid. First calls findMostSimilarUser and then
+     * getLeastFavoriteMovies method on the "most similar user" to get up
+     * to num movies the most similar user strongly disliked. Prints only
+     * those movies to the file that the user with the given userid has not seen yet.
+     * Format: one movie title per each line
+     * @param userid id of the user
+     * @param num max number of anti-recommendations
+     * @param filename name of the file where to output anti-recommendations (movie titles)
+     */
+    public void findAntiRecommendations(int userid, int num, String filename) {
+        findAntiRecommendations(userid, num, filename, 0, 0, TimeWindow.ALL);
+    }
 
-        PrintWriter pw = null;
+    /**
+     * Computes up to num movie recommendations for the user with the given
+     * user id, restricted by genre, and prints them to the given file.
+     * Works like findRecommendations, but a movie is only recommended if it
+     * has at least one of the included genres and none of the excluded ones.
+     * The genre check is done while the most similar user's favorites are
+     * collected, so the file has num movies if enough of them pass.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     * @param includeGenres genre mask (see getGenreMask), 0 to allow any genre
+     * @param excludeGenres genre mask of genres that are not allowed, 0 for none
+     */
+    public void findRecommendations(int userid, int num, String filename, long includeGenres, long excludeGenres) {
+        findRecommendations(userid, num, filename, includeGenres, excludeGenres, TimeWindow.ALL);
+    }
 
-        try
-        {
-            pw = new PrintWriter(new File(filename));
+    /**
+     * Computes up to num movie anti-recommendations for the user with the
+     * given user id, restricted by genre, and prints them to the given file.
+     * Works like findAntiRecommendations with the genre check of
+     * findRecommendations(int, int, String, long, long).
+     * @param userid id of the user
+     * @param num max number of anti-recommendations
+     * @param filename name of the file where to output anti-recommendations (movie titles)
+     * @param includeGenres genre mask (see getGenreMask), 0 to allow any genre
+     * @param excludeGenres genre mask of genres that are not allowed, 0 for none
+     */
+    public void findAntiRecommendations(int userid, int num, String filename, long includeGenres, long excludeGenres) {
+        findAntiRecommendations(userid, num, filename, includeGenres, excludeGenres, TimeWindow.ALL);
+    }
 
+    /**
+     * Computes up to num movie recommendations for the user with the given
+     * user id based only on ratings made inside the time window, and prints
+     * them to the given file. The most similar user is found using ratings
+     * inside the window, and only their favorites rated inside the window
+     * are recommended, newest first.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     * @param window time window of the query, for example TimeWindow.lastDays(90, getLastRatingTime())
+     */
+    public void findRecommendations(int userid, int num, String filename, TimeWindow window) {
+        findRecommendations(userid, num, filename, 0, 0, window);
+    }
+
+    /**
+     * Computes up to num movie anti-recommendations for the user with the
+     * given user id based only on ratings made inside the time window.
+     * @param userid id of the user
+     * @param num max number of anti-recommendations
+     * @param filename name of the file where to output anti-recommendations (movie titles)
+     * @param window time window of the query
+     */
+    public void findAntiRecommendations(int userid, int num, String filename, TimeWindow window) {
+        findAntiRecommendations(userid, num, filename, 0, 0, window);
+    }
+
+    /**
+     * Computes up to num movie recommendations restricted by genre and by
+     * time window. See findRecommendations(int, int, String, long, long) and
+     * findRecommendations(int, int, String, TimeWindow).
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     * @param includeGenres genre mask, 0 to allow any genre
+     * @param excludeGenres genre mask of genres that are not allowed, 0 for none
+     * @param window time window of the query
+     */
+    public void findRecommendations(int userid, int num, String filename, long includeGenres, long excludeGenres,
+                                    TimeWindow window) {
+        writeMovies(userid, num, filename, includeGenres, excludeGenres, window, false);
+    }
+
+    /**
+     * Computes up to num movie anti-recommendations restricted by genre and
+     * by time window.
+     * @param userid id of the user
+     * @param num max number of anti-recommendations
+     * @param filename name of the file where to output anti-recommendations (movie titles)
+     * @param includeGenres genre mask, 0 to allow any genre
+     * @param excludeGenres genre mask of genres that are not allowed, 0 for none
+     * @param window time window of the query
+     */
+    public void findAntiRecommendations(int userid, int num, String filename, long includeGenres, long excludeGenres,
+                                        TimeWindow window) {
+        writeMovies(userid, num, filename, includeGenres, excludeGenres, window, true);
+    }
+
+    /**
+     * Computes up to num movie recommendations for each of several users
+     * and prints them to the file of the same index, as
+     * findRecommendations(int, int, String) does for each user. The
+     * neighbours of the users that need a scan of all users are found
+     * together in one blocked pass (see UsersList.findMostSimilarUser(int[], double[])),
+     * which is several times faster than a scan per user.
+     * @param userids ids of the users
+     * @param num max number of recommendations
+     * @param filenames name of the output file of each user
+     */
+    public void findRecommendations(int[] userids, int num, String[] filenames) {
+        writeMovies(userids, num, filenames, false);
+    }
+
+    /**
+     * Computes up to num movie anti-recommendations for each of several
+     * users, see findRecommendations(int[], int, String[]).
+     * @param userids ids of the users
+     * @param num max number of anti-recommendations
+     * @param filenames name of the output file of each user
+     */
+    public void findAntiRecommendations(int[] userids, int num, String[] filenames) {
+        writeMovies(userids, num, filenames, true);
+    }
+
+    /**
+     * Turn the pruning mode on or off. In pruning mode the most similar user
+     * is the one with the largest significance weighted similarity; the
+     * QueryPlanner then chooses between the full scan and the search with
+     * bound-based early termination (UsersList.findMostSimilarUsers).
+     * Queries with a time window always use the full scan.
+     * @param pruning true to use the significance weighted similarity
+     */
+    public void setPruning(boolean pruning) {
+        setSimilarity(pruning ? Similarity.WEIGHTED : Similarity.PEARSON);
+    }
+
+    /**
+     * Set how the neighbour search compares users: Pearson correlation or
+     * mean-centred cosine, the least number of movies a neighbour must share
+     * with the user, and significance weighting (see Similarity). Users
+     * sharing fewer movies are rejected before any similarity is computed,
+     * so a large minimum overlap also makes the search faster. The default
+     * is Similarity.PEARSON. Queries with a time window always use Pearson
+     * correlation over any overlap.
+     * @param similarity how to compare users
+     */
+    public void setSimilarity(Similarity similarity) {
+        lock.writeLock().lock();
+        try {
+            this.similarity = similarity;
+            cache.clear(); // another similarity may pick another neighbour
+        } finally {
+            lock.writeLock().unlock();
         }
-        catch(FileNotFoundException e)
-        {
-            System.out.println("File " + filename + "not found");
-            return;
+    }
+
+    /**
+     * Allow the planner to use the approximate search, which only looks at
+     * the users sharing the most movies and may miss the best neighbour.
+     * Off by default.
+     * @param approximate true to allow the approximate search
+     */
+    public void setApproximateSearch(boolean approximate) {
+        lock.writeLock().lock();
+        try {
+            planner.setApproximate(approximate);
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        UserNode myUserNode = usersData.get(userid);
-        UserNode mostSimilarUser = usersData.findMostSimilarUser(userid);
-        int[] MSUFavorites  = mostSimilarUser.getFavoriteMovies(num);
+    /**
+     * Always search neighbours with the given plan instead of the cheapest
+     * one, for example to compare the plans; null to plan each query again.
+     * @param plan the plan to use, or null
+     */
+    public void setSearchPlan(QueryPlanner.Plan plan) {
+        lock.writeLock().lock();
+        try {
+            planner.setPlan(plan);
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-        HashSet<Integer> alreadyWatched = myUserNode.alreadyWatched();
+    /** Return the planner of the neighbour searches */
+    QueryPlanner getPlanner() {
+        return planner;
+    }
+
+    /**
+     * Turn the compressed similarity scan on or off (see
+     * UsersList.setCompressed). Off by default.
+     * @param on true to scan packed ratings
+     */
+    public void setCompressedRatings(boolean on) {
+        lock.writeLock().lock();
+        try {
+            usersData.setCompressed(on);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Put the users in a new order for the neighbour scans and lay out
+     * their ratings in memory in that order (see UsersList.reorderUsers).
+     * Results do not change. Best called once after loadData.
+     * @param order order of the users
+     */
+    public void reorderUsers(UsersList.UserOrder order) {
+        lock.writeLock().lock();
+        try {
+            usersData.reorderUsers(order);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the ratings of all users to a file, one user per line, in the
+     * format of UsersList.print. Blocks of users are formatted on several
+     * threads; queries may run meanwhile, new ratings wait.
+     * @param filename file to write
+     * @param workers number of threads that format blocks
+     * @param compress true to write a gzip file
+     * @throws IOException if the file can not be written
+     */
+    public void exportUsers(String filename, int workers, boolean compress) throws IOException {
+        lock.readLock().lock();
+        try {
+            usersData.print(filename, workers, compress);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Set how many finished recommendation lists are kept for repeated
+     * queries; 0 turns the cache off.
+     * @param capacity max number of lists, RecommendationCache.DEFAULT_CAPACITY by default
+     */
+    public void setCacheCapacity(int capacity) {
+        cache.setCapacity(capacity);
+    }
+
+    /** Return the timestamp of the newest loaded rating, to anchor time windows */
+    public long getLastRatingTime() {
+        return usersData.getLastRatingTime();
+    }
+
+    /**
+     * Merge the rating segments of each user that are older than the given
+     * time into one frozen block per user.
+     * @param before timestamp; newer segments are kept as they are
+     * @return number of segments that were merged
+     */
+    public int compactRatings(long before) {
+        lock.writeLock().lock();
+        try {
+            return usersData.compactSegments(before);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-        for (int movieId : MSUFavorites){
-            if (movieId == 0) continue; // 0 is invalid movieId number
-            if (!(alreadyWatched.contains(movieId))){
-                pw.print(movieId + " : " + movieMap.get(movieId) + "\n");
+    /**
+     * Insert ratings as a bulk load does, without counting them as ingested.
+     * Call sortSegments when all ratings are inserted.
+     */
+    void insertRatings(int[] userIdArr, int[] movieIdArr, double[] ratings, long[] times, int n) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < n; i++) {
+                insert(userIds.getOrAdd(userIdArr[i]), movieIds.getOrAdd(movieIdArr[i]), ratings[i], times[i]);
             }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Sort the rating segments of every user by time, after insertRatings */
+    void sortSegments() {
+        lock.writeLock().lock();
+        try {
+            usersData.sortSegments();
+            popularity.rebuild();
+        } finally {
+            lock.writeLock().unlock();
         }
-        pw.close();
+    }
+
+    /** Return the lock that queries hold; holding it keeps the ratings from changing */
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    /** Return the dictionary of user ids */
+    IdDictionary getUserIds() {
+        return userIds;
+    }
+
+    /** Return the dictionary of movie ids */
+    IdDictionary getMovieIds() {
+        return movieIds;
+    }
 
+    /** Return the popularity index of the movies */
+    PopularityIndex getPopularity() {
+        return popularity;
+    }
+
+    /** Return the list of users */
+    UsersList getUsersData() {
+        return usersData;
     }
 
     /**
-     * Computes up to num movie anti-recommendations for the user with the given
-     * user id and prints these movie titles to the given file. These are the
-     * movies the user should avoid. First calls findMostSimilarUser and then
-     * getLeastFavoriteMovies(num) method on the "most similar user" to get up
-     * to num movies the most similar user strongly disliked. Prints only
-     * those movies to the file that the user with the given userid has not seen yet.
-     * Format: one movie title per each line
-     * @param userid id of the user
-     * @param num max number of anti-recommendations
-     * @param filename name of the file where to output anti-recommendations (movie titles)
+     * Return the genre mask for a list of genre names separated by '|',
+     * for example "Comedy|Animation".
+     * @param genres genre names as in the movies file
+     * @return genre mask to pass to the recommendation methods
      */
-    public void findAntiRecommendations(int userid, int num, String filename) {
+    public long getGenreMask(String genres) {
+        return catalog.genreMask(genres);
+    }
 
-        PrintWriter pw = null;
+    /**
+     * Finds the most similar user and prints up to num of their favorite
+     * (or least favorite) movies that pass the filter of the query.
+     * Format: movieId : title, one movie per each line
+     */
+    private void writeMovies(int userid, int num, String filename, long includeGenres, long excludeGenres,
+                             TimeWindow window, boolean anti) {
+        lock.readLock().lock();
+        try {
+            writeMoviesLocked(userid, num, filename, includeGenres, excludeGenres, window, anti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        try
-        {
-            pw = new PrintWriter(new File(filename));
+    /** Write the movies of several users, searching the neighbours that need a scan in one pass */
+    private void writeMovies(int[] userids, int num, String[] filenames, boolean anti) {
+        lock.readLock().lock();
+        try {
+            long popularityVersion = popularity.getVersion();
+            int[] block = new int[userids.length]; // indices of the users whose neighbours are searched together
+            int[] position = new int[userids.length]; // position of each of them in userids
+            int numBlock = 0;
+            for (int i = 0; i < userids.length && similarity.isPlain(); i++) {
+                int userIndex = userIds.indexOf(userids[i]);
+                if (userIndex < 0) {
+                    continue;
+                }
+                UserNode user = usersData.get(userIndex);
+                RecommendationCache.Key key = new RecommendationCache.Key(userIndex, num, anti, 0, 0, TimeWindow.ALL);
+                if (user.getStats().getCount() >= MIN_NEIGHBOUR_RATINGS && cache.get(key, popularityVersion) == null
+                        && planner.choose(user, false) == QueryPlanner.Plan.BRUTE_FORCE) {
+                    block[numBlock] = userIndex;
+                    position[numBlock++] = i;
+                }
+            }
 
+            Neighbour[] neighbours = new Neighbour[userids.length];
+            if (numBlock > 0) {
+                long start = Metrics.start();
+                double[] similarities = new double[numBlock];
+                UserNode[] found = usersData.findMostSimilarUser(Arrays.copyOf(block, numBlock), similarities);
+                Metrics.stop(QueryPlanner.Plan.BRUTE_FORCE.phase, start);
+                for (int i = 0; i < numBlock; i++) {
+                    neighbours[position[i]] = new Neighbour(found[i], similarities[i]);
+                    Metrics.increment(QueryPlanner.Plan.BRUTE_FORCE.counter);
+                }
+            }
+
+            for (int i = 0; i < userids.length; i++) {
+                writeMoviesLocked(userids[i], num, filenames[i], 0, 0, TimeWindow.ALL, anti, neighbours[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
         }
-        catch(FileNotFoundException e)
-        {
+    }
+
+    private void writeMoviesLocked(int userid, int num, String filename, long includeGenres, long excludeGenres,
+                                   TimeWindow window, boolean anti) {
+        writeMoviesLocked(userid, num, filename, includeGenres, excludeGenres, window, anti, null);
+    }
+
+    private void writeMoviesLocked(int userid, int num, String filename, long includeGenres, long excludeGenres,
+                                   TimeWindow window, boolean anti, Neighbour found) {
+        long queryStart = Metrics.start();
+        Metrics.increment(Metrics.Counter.QUERIES);
+
+        int userIndex = userIds.indexOf(userid);
+        UserNode user = userIndex < 0 ? null : usersData.get(userIndex);
+        RecommendationCache.Key key = new RecommendationCache.Key(userIndex, num, anti, includeGenres, excludeGenres, window);
+        long popularityVersion = popularity.getVersion();
+        int[] movies = cache.get(key, popularityVersion);
+        if (movies != null) {
+            Metrics.increment(Metrics.Counter.CACHE_HITS);
+        } else {
+            Metrics.increment(Metrics.Counter.CACHE_MISSES);
+            movies = findMovies(user, num, includeGenres, excludeGenres, window, anti, key, popularityVersion, found);
+        }
+
+        long start = Metrics.start();
+        ExportBuffer text = OUTPUT.get();
+        text.reset();
+        for (int movie : movies){
+            text.append(movieIds.externalId(movie)).append(' ').append(':').append(' ');
+            catalog.appendTitle(text, movie);
+            text.append('\n');
+        }
+        // the file is opened only once the movies are found, so a failed query leaves no empty file behind
+        try (FileOutputStream out = new FileOutputStream(filename)) {
+            text.writeTo(out.getChannel());
+        } catch (FileNotFoundException e) {
+            Metrics.increment(Metrics.Counter.ERRORS);
             System.out.println("File " + filename + "not found");
             return;
+        } catch (IOException e) {
+            Metrics.increment(Metrics.Counter.ERRORS);
+            throw new UncheckedIOException("Could not write " + filename, e);
         }
+        Metrics.stop(Metrics.Phase.WRITE_OUTPUT, start);
+        Metrics.stop(Metrics.Phase.QUERY, queryStart);
+    }
 
-        UserNode myUserNode = usersData.get(userid);
-        UserNode mostSimilarUser = usersData.findMostSimilarUser(userid);
-        int[] MSUAntiFavorites  = mostSimilarUser.getLeastFavoriteMovies(num);
-
-        HashSet<Integer> alreadyWatched = myUserNode.alreadyWatched();
-
-        for (int movieId : MSUAntiFavorites){
-            if (movieId == 0) continue; // 0 is invalid movieId number
-            if (!(alreadyWatched.contains(movieId))){
-                pw.write(movieId + " : " + movieMap.get(movieId) + "\n");
+    /** Find the movies for a query that is not in the cache and put them there:
+     *  the neighbour's movies, or popular movies if there is no neighbour */
+    private int[] findMovies(UserNode user, int num, long includeGenres, long excludeGenres, TimeWindow window,
+                             boolean anti, RecommendationCache.Key key, long popularityVersion, Neighbour found) {
+        boolean[] alreadyWatched = user == null ? new boolean[0] : user.alreadyWatched(movieIds.size());
+        MovieFilter filter = new MovieFilter(alreadyWatched, catalog, includeGenres, excludeGenres);
+
+        int[] movies = null;
+        int neighbour = -1;
+        if (user != null && user.getStats().getCount() >= MIN_NEIGHBOUR_RATINGS) {
+            long start = Metrics.start();
+            UserNode mostSimilarUser;
+            double similarity;
+            if (found != null) {
+                // already found by the blocked search of a burst
+                mostSimilarUser = found.user;
+                similarity = found.similarity;
+            } else if (window.isAll()) {
+                QueryPlanner.Plan plan = planner.choose(user, this.similarity);
+                long planStart = Metrics.start();
+                TopK best = usersData.findMostSimilarUsers(user.getId(), 1, this.similarity, plan);
+                Metrics.stop(plan.phase, planStart);
+                Metrics.increment(plan.counter);
+                mostSimilarUser = best.size() == 0 ? null : usersData.get(best.sortedIds()[0]);
+                similarity = best.size() == 0 ? 0 : best.sortedScores()[0];
+            } else {
+                mostSimilarUser = usersData.findMostSimilarUser(user.getId(), window);
+                similarity = mostSimilarUser == null ? 0
+                        : mostSimilarUser.computeSimilarity(user.denseRatings(movieIds.size(), window), window);
+            }
+            Metrics.stop(Metrics.Phase.NEIGHBOUR_SEARCH, start);
+            if (mostSimilarUser != null && similarity > 0) {
+                neighbour = mostSimilarUser.getId();
+                movies = anti ? mostSimilarUser.getLeastFavoriteMovies(num, filter, window)
+                        : mostSimilarUser.getFavoriteMovies(num, filter, window);
             }
         }
-        pw.close();
+        if (movies == null) {
+            // unknown user, too few ratings or no neighbour who agrees: fall back on popular movies
+            Metrics.increment(Metrics.Counter.POPULARITY_FALLBACKS);
+            movies = anti ? popularity.getWorst(num, filter, includeGenres)
+                    : popularity.getBest(num, filter, includeGenres);
+        }
 
+        cache.put(key, movies, neighbour, popularityVersion);
+        return movies;
+    }
+
+    /** The most similar user of a user, found ahead of the query */
+    private static class Neighbour {
+        final UserNode user;
+        final double similarity;
+
+        Neighbour(UserNode user, double similarity) {
+            this.user = user;
+            this.similarity = similarity;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,361 @@
+package movieRecommender;
+
+import java.util.Arrays;
+
+/** PopularityIndex. Rating count and sum of every movie, and the best and
+ *  worst movies by Bayesian average and the most rated movies, overall and
+ *  per genre. Used by MovieRecommender when there is no neighbour to take
+ *  recommendations from: for unknown users, users with very few ratings,
+ *  and users without a positively correlated neighbour.
+ *
+ *  The Bayesian average of a movie is
+ *  (PRIOR_RATINGS * mean of all ratings + sum of its ratings) / (PRIOR_RATINGS + count),
+ *  so a movie with a few high ratings does not beat a movie with many.
+ *
+ *  Each ranking keeps the top CAPACITY movies. A new or changed rating moves
+ *  its movie within the rankings of its genres, so the rankings stay
+ *  current without a scan. Since the overall mean moves too and a movie that
+ *  drops out is not replaced, all rankings are rebuilt in one pass over the
+ *  movies after every REBUILD_SHARE of the ratings has changed.
+ */
+public class PopularityIndex {
+    /** Weight of the overall mean in the Bayesian average, in ratings */
+    public static final int PRIOR_RATINGS = 10;
+    /** Number of movies kept in each ranking */
+    public static final int CAPACITY = 100;
+    /** Share of changed ratings after which the rankings are rebuilt */
+    private static final double REBUILD_SHARE = 0.01;
+
+    private static final int BEST = 0; // rankings by Bayesian average, largest first
+    private static final int WORST = 1; // by Bayesian average, smallest first
+    private static final int MOST_RATED = 2; // by rating count
+    private static final int GLOBAL = 64; // ranking number of all movies; 0..63 are genre bits
+
+    private final MovieCatalog catalog;
+    private int[] counts = new int[16]; // number of ratings of each movie index
+    private double[] sums = new double[16]; // sum of ratings of each movie index
+    private long totalCount;
+    private double totalSum;
+    private long changesSinceBuild;
+    private long version; // number of changes ever, to tell cached results that they are stale
+    private final Ranking[][] rankings = new Ranking[3][GLOBAL + 1];
+
+    /** A constructor for the PopularityIndex.
+     * @param catalog catalog with the genres of the movies
+     */
+    public PopularityIndex(MovieCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Count a new rating of a movie. The rankings are not touched while
+     * they are empty, so a bulk load only counts and calls rebuild at the end.
+     * @param movie index of the movie
+     * @param rating the new rating
+     */
+    public void add(int movie, double rating) {
+        if (movie >= counts.length) {
+            int capacity = Math.max(counts.length * 2, movie + 1);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+        }
+        counts[movie]++;
+        sums[movie] += rating;
+        totalCount++;
+        totalSum += rating;
+        changed(movie);
+    }
+
+    /**
+     * Replace a rating of a movie that was counted before.
+     * @param movie index of the movie
+     * @param oldRating the rating that is replaced
+     * @param newRating the new rating
+     */
+    public void change(int movie, double oldRating, double newRating) {
+        sums[movie] += newRating - oldRating;
+        totalSum += newRating - oldRating;
+        changed(movie);
+    }
+
+    /**
+     * Count a batch of new and changed ratings, as add and change do for
+     * each, but rank every movie of the batch once, or rebuild the rankings
+     * once if the batch brings the changes over REBUILD_SHARE.
+     * @param movies indices of the movies
+     * @param ratings the new ratings
+     * @param oldRatings the ratings they replace, -1 for a new rating
+     * @param n number of ratings in the arrays
+     */
+    public void addAll(int[] movies, double[] ratings, double[] oldRatings, int n) {
+        int[] changedMovies = new int[n];
+        for (int i = 0; i < n; i++) {
+            int movie = movies[i];
+            if (movie >= counts.length) {
+                int capacity = Math.max(counts.length * 2, movie + 1);
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+            }
+            if (oldRatings[i] < 0) {
+                counts[movie]++;
+                totalCount++;
+                sums[movie] += ratings[i];
+                totalSum += ratings[i];
+            } else {
+                sums[movie] += ratings[i] - oldRatings[i];
+                totalSum += ratings[i] - oldRatings[i];
+            }
+            changedMovies[i] = movie;
+        }
+        changesSinceBuild += n;
+        version += n;
+        if (rankings[BEST][GLOBAL] == null || n == 0) {
+            return; // not built yet
+        }
+        if (changesSinceBuild > Math.max(CAPACITY, totalCount * REBUILD_SHARE)) {
+            rebuild();
+            return;
+        }
+        Arrays.sort(changedMovies);
+        double mean = getMeanRating();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || changedMovies[i] != changedMovies[i - 1]) {
+                rank(changedMovies[i], mean);
+            }
+        }
+    }
+
+    /** Rank all movies again from their counts and sums */
+    public void rebuild() {
+        for (int kind = 0; kind < rankings.length; kind++) {
+            Arrays.fill(rankings[kind], null);
+            rankings[kind][GLOBAL] = new Ranking(); // marks the rankings as built
+        }
+        double mean = getMeanRating();
+        for (int movie = 0; movie < counts.length; movie++) {
+            if (counts[movie] > 0) {
+                rank(movie, mean);
+            }
+        }
+        changesSinceBuild = 0;
+    }
+
+    /** Return a number that changes whenever a rating is added or changed */
+    public long getVersion() {
+        return version;
+    }
+
+    /** Return the number of ratings of a movie */
+    public int getCount(int movie) {
+        return movie < counts.length ? counts[movie] : 0;
+    }
+
+    /** Return the mean of all ratings, 0 if there are none */
+    public double getMeanRating() {
+        return totalCount == 0 ? 0 : totalSum / totalCount;
+    }
+
+    /** Return the Bayesian average rating of a movie; the overall mean for a movie without ratings */
+    public double getBayesianAverage(int movie) {
+        return bayesianAverage(movie, getMeanRating());
+    }
+
+    /**
+     * Return up to n movies with the largest Bayesian average that pass the
+     * filter, best first.
+     * @param n max number of movies
+     * @param filter filter of the query; its include genres select the rankings to use
+     * @param includeGenres genre mask of the query, 0 for all movies
+     * @return movie indices
+     */
+    public int[] getBest(int n, MovieFilter filter, long includeGenres) {
+        return top(BEST, n, filter, includeGenres);
+    }
+
+    /** Return up to n movies with the smallest Bayesian average that pass the
+     *  filter, worst first. See getBest. */
+    public int[] getWorst(int n, MovieFilter filter, long includeGenres) {
+        return top(WORST, n, filter, includeGenres);
+    }
+
+    /** Return up to n movies with the most ratings that pass the filter,
+     *  most rated first. See getBest. */
+    public int[] getMostRated(int n, MovieFilter filter, long includeGenres) {
+        return top(MOST_RATED, n, filter, includeGenres);
+    }
+
+    private void changed(int movie) {
+        changesSinceBuild++;
+        version++;
+        if (rankings[BEST][GLOBAL] == null) {
+            return; // not built yet
+        }
+        if (changesSinceBuild > Math.max(CAPACITY, totalCount * REBUILD_SHARE)) {
+            rebuild();
+        } else {
+            rank(movie, getMeanRating());
+        }
+    }
+
+    /** Put the movie at its place in the rankings of all movies and of each of its genres */
+    private void rank(int movie, double mean) {
+        double average = bayesianAverage(movie, mean);
+        rankIn(GLOBAL, movie, average);
+        for (long bits = catalog.getGenres(movie); bits != 0; bits &= bits - 1) {
+            rankIn(Long.numberOfTrailingZeros(bits), movie, average);
+        }
+    }
+
+    private void rankIn(int group, int movie, double average) {
+        ranking(BEST, group).update(movie, average);
+        ranking(WORST, group).update(movie, -average);
+        ranking(MOST_RATED, group).update(movie, counts[movie]);
+    }
+
+    private Ranking ranking(int kind, int group) {
+        if (rankings[kind][group] == null) {
+            rankings[kind][group] = new Ranking();
+        }
+        return rankings[kind][group];
+    }
+
+    private double bayesianAverage(int movie, double mean) {
+        int count = getCount(movie);
+        double sum = count == 0 ? 0 : sums[movie];
+        return (PRIOR_RATINGS * mean + sum) / (PRIOR_RATINGS + count);
+    }
+
+    private double score(int kind, int movie, double mean) {
+        switch (kind) {
+            case BEST:
+                return bayesianAverage(movie, mean);
+            case WORST:
+                return -bayesianAverage(movie, mean);
+            default:
+                return counts[movie];
+        }
+    }
+
+    /** Merge the rankings of the included genres (or the overall ranking) and
+     *  take the first n movies that pass the filter. If the rankings run out
+     *  first, or were never built, scan all movies instead, keeping only the
+     *  best n. Does not change the index, so queries can run at the same time. */
+    private int[] top(int kind, int n, MovieFilter filter, long includeGenres) {
+        Ranking[] sources;
+        boolean complete; // true if the rankings hold every movie that could pass
+        if (rankings[kind][GLOBAL] == null) {
+            sources = new Ranking[0];
+            complete = false;
+        } else if (includeGenres == 0) {
+            sources = new Ranking[]{rankings[kind][GLOBAL]};
+            complete = sources[0].size < CAPACITY;
+        } else {
+            sources = new Ranking[Long.bitCount(includeGenres)];
+            int numSources = 0;
+            complete = true;
+            for (long bits = includeGenres; bits != 0; bits &= bits - 1) {
+                Ranking ranking = rankings[kind][Long.numberOfTrailingZeros(bits)];
+                if (ranking != null) {
+                    sources[numSources++] = ranking;
+                    complete &= ranking.size < CAPACITY;
+                }
+            }
+            sources = Arrays.copyOf(sources, numSources);
+        }
+
+        int[] result = merge(sources, n, filter);
+        if (result.length < n && !complete) {
+            // not enough movies in the rankings pass the filter: score every movie, keep the best n
+            double mean = getMeanRating();
+            TopK best = new TopK(Math.max(1, Math.min(n, counts.length)));
+            for (int movie = 0; movie < counts.length; movie++) {
+                if (counts[movie] > 0 && filter.accept(movie)) {
+                    best.offer(movie, score(kind, movie, mean));
+                }
+            }
+            result = best.sortedIds();
+        }
+        return result;
+    }
+
+    /** Merge the sorted rankings, largest score first, and return the first
+     *  n different movies that pass the filter. Stops early once a full
+     *  ranking is used up, as the movies that did not fit in it are missing. */
+    private static int[] merge(Ranking[] sources, int n, MovieFilter filter) {
+        int available = 0;
+        for (Ranking ranking : sources) {
+            available += ranking.size;
+        }
+        int[] heads = new int[sources.length];
+        int[] result = new int[Math.min(n, available)];
+        int found = 0;
+        int lastMovie = -1;
+        double lastScore = Double.NaN;
+        while (found < result.length) {
+            int next = -1;
+            for (int s = 0; s < sources.length; s++) {
+                if (heads[s] == CAPACITY) {
+                    // the movies of this genre below its ranking are unknown, and may beat the next one
+                    return Arrays.copyOf(result, found);
+                }
+                if (heads[s] < sources[s].size && (next < 0 || sources[s].before(heads[s], sources[next], heads[next]))) {
+                    next = s;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            int movie = sources[next].movies[heads[next]];
+            double score = sources[next].scores[heads[next]++];
+            if (movie == lastMovie && score == lastScore) {
+                continue; // the same movie from the ranking of another of its genres, which comes right after
+            }
+            lastMovie = movie;
+            lastScore = score;
+            if (filter.accept(movie)) {
+                result[found++] = movie;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /** The CAPACITY movies with the largest scores, sorted by score
+     *  (largest first), then by movie index */
+    private static class Ranking {
+        final int[] movies = new int[CAPACITY];
+        final double[] scores = new double[CAPACITY];
+        int size;
+
+        /** Return true if entry i of this ranking comes before entry j of the other */
+        boolean before(int i, Ranking other, int j) {
+            return scores[i] != other.scores[j] ? scores[i] > other.scores[j] : movies[i] < other.movies[j];
+        }
+
+        /** Move the movie to the place of its new score; it drops out if
+         *  the score is below all CAPACITY others */
+        void update(int movie, double score) {
+            for (int i = 0; i < size; i++) {
+                if (movies[i] == movie) {
+                    System.arraycopy(movies, i + 1, movies, i, size - i - 1);
+                    System.arraycopy(scores, i + 1, scores, i, size - i - 1);
+                    size--;
+                    break;
+                }
+            }
+            int place = size;
+            while (place > 0 && (scores[place - 1] < score
+                    || (scores[place - 1] == score && movies[place - 1] > movie))) {
+                place--;
+            }
+            if (place == CAPACITY) {
+                return;
+            }
+            int moved = Math.min(size, CAPACITY - 1) - place;
+            System.arraycopy(movies, place, movies, place + 1, moved);
+            System.arraycopy(scores, place, scores, place + 1, moved);
+            movies[place] = movie;
+            scores[place] = score;
+            size = Math.min(size + 1, CAPACITY);
+        }
+    }
+}
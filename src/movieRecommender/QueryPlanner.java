@@ -0,0 +1,172 @@
+package movieRecommender;
+
+/** QueryPlanner. Picks how to search the neighbours of a user, per query,
+ *  from a cost estimate in units of one rating visited by a scan in list
+ *  order. For R ratings of U users, and P the total length of the postings
+ *  of the user's movies:
+ *  - BRUTE_FORCE computes the similarity with every user: R + USER_COST * U.
+ *  - INVERTED_INDEX walks the postings to count the movies each user
+ *    shares with the user, then computes the similarities of the users
+ *    sharing a movie, out of list order: POSTING_COST * P + ARRAY_COST * U
+ *    + RANDOM_COST * R * reached, where reached = 1 - e^(-P/U) estimates
+ *    the share of the users sharing a movie; with a minimum overlap m
+ *    (see Similarity) it is the share sharing m movies or more, the tail
+ *    of a Poisson distribution of mean P/U, as the others are skipped
+ *    before their ratings are read. For the significance weighted
+ *    similarity the walk stops early (see UsersList.findMostSimilarUsers),
+ *    so only a share of those ratings is visited: users sharing 50 movies
+ *    or more can never be skipped, which gives about (P / U) / 50, at
+ *    least PRUNED_SHARE.
+ *  - APPROXIMATE walks the postings too, but only computes the similarity
+ *    of the APPROXIMATE_CANDIDATES users sharing the most movies, who are
+ *    mostly heavy raters, so it may miss the best neighbour. Only chosen if
+ *    allowed with setApproximate.
+ *  A user with a few ratings shares few movies with most users, so the
+ *  weighted search can skip most of them; a user with thousands of ratings
+ *  shares many movies with almost everyone, and the scan is cheaper. The
+ *  postings of popular movies reach nearly all users, so for the plain
+ *  Pearson correlation the scan usually wins. The constants come from
+ *  timing the plans on ratings.csv and on 1M generated ratings; the plan
+ *  that ran and its duration are recorded in Metrics to tune them.
+ */
+public class QueryPlanner {
+    /** Number of candidates the approximate search computes similarities for */
+    public static final int APPROXIMATE_CANDIDATES = 1000;
+
+    private static final double USER_COST = 10; // visiting a user in the scan, per user
+    private static final double POSTING_COST = 1; // counting a shared movie, per posting entry
+    private static final double ARRAY_COST = 1; // clearing and reading the shared counts, per user
+    private static final double RANDOM_COST = 1.3; // visiting a rating out of list order
+    private static final double PRUNED_SHARE = 0.1; // least share of the candidates the weighted search visits
+    private static final double CANDIDATE_WEIGHT = 3; // ratings of the approximate candidates, in average users
+
+    /** Ways to search the neighbours, with the counter and the phase they are recorded in */
+    public enum Plan {
+        BRUTE_FORCE(Metrics.Counter.PLAN_BRUTE_FORCE, Metrics.Phase.SEARCH_BRUTE_FORCE),
+        INVERTED_INDEX(Metrics.Counter.PLAN_INVERTED_INDEX, Metrics.Phase.SEARCH_INVERTED_INDEX),
+        APPROXIMATE(Metrics.Counter.PLAN_APPROXIMATE, Metrics.Phase.SEARCH_APPROXIMATE);
+
+        final Metrics.Counter counter;
+        final Metrics.Phase phase;
+
+        Plan(Metrics.Counter counter, Metrics.Phase phase) {
+            this.counter = counter;
+            this.phase = phase;
+        }
+    }
+
+    private final UsersList usersData;
+    private volatile boolean approximate = false;
+    private volatile Plan forced = null;
+
+    /** A constructor for the QueryPlanner.
+     * @param usersData the users to search
+     */
+    public QueryPlanner(UsersList usersData) {
+        this.usersData = usersData;
+    }
+
+    /** Allow or forbid the approximate search; forbidden by default */
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    /** Always use the given plan, or choose by cost again if null */
+    public void setPlan(Plan plan) {
+        this.forced = plan;
+    }
+
+    /**
+     * Return the plan with the smallest estimated cost for a search of the
+     * neighbours of the user, or the plan set with setPlan.
+     * @param user     the user whose neighbours are searched
+     * @param weighted true for the significance weighted similarity
+     * @return the plan to run
+     */
+    public Plan choose(UserNode user, boolean weighted) {
+        return choose(user, weighted ? Similarity.WEIGHTED : Similarity.PEARSON);
+    }
+
+    /**
+     * Return the plan with the smallest estimated cost for a search of the
+     * neighbours of the user by the given similarity, or the plan set with
+     * setPlan.
+     * @param user       the user whose neighbours are searched
+     * @param similarity how the users are compared
+     * @return the plan to run
+     */
+    public Plan choose(UserNode user, Similarity similarity) {
+        if (forced != null) {
+            return forced;
+        }
+        Plan best = Plan.BRUTE_FORCE;
+        double bestCost = estimateCost(Plan.BRUTE_FORCE, user, similarity);
+        for (Plan plan : Plan.values()) {
+            if (plan == Plan.APPROXIMATE && !approximate) {
+                continue;
+            }
+            double cost = estimateCost(plan, user, similarity);
+            if (cost < bestCost) {
+                best = plan;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the estimated cost of a plan for the user, in ratings visited.
+     * @param plan     a plan
+     * @param user     the user whose neighbours are searched
+     * @param weighted true for the significance weighted similarity
+     * @return estimated cost
+     */
+    public double estimateCost(Plan plan, UserNode user, boolean weighted) {
+        return estimateCost(plan, user, weighted ? Similarity.WEIGHTED : Similarity.PEARSON);
+    }
+
+    /**
+     * Return the estimated cost of a plan for the user and the similarity,
+     * in ratings visited.
+     * @param plan       a plan
+     * @param user       the user whose neighbours are searched
+     * @param similarity how the users are compared
+     * @return estimated cost
+     */
+    public double estimateCost(Plan plan, UserNode user, Similarity similarity) {
+        boolean weighted = similarity.isWeighted();
+        double numUsers = Math.max(1, usersData.numUsers());
+        double numRatings = usersData.numRatings();
+        if (plan == Plan.BRUTE_FORCE) {
+            return numRatings + USER_COST * numUsers;
+        }
+        double postings = 0;
+        for (MovieRatingNode node : user.getMovieRatings()) {
+            postings += usersData.postingLength(node.getMovieId());
+        }
+        double reached = reached(postings / numUsers, similarity.getMinOverlap());
+        double visited = numRatings * reached;
+        if (plan == Plan.APPROXIMATE) {
+            visited = Math.min(visited, CANDIDATE_WEIGHT * APPROXIMATE_CANDIDATES * numRatings / numUsers);
+        } else if (weighted) {
+            double sharedPerUser = postings / numUsers;
+            visited *= Math.max(PRUNED_SHARE, Math.min(1, sharedPerUser / MovieRatingsList.SIGNIFICANCE_OVERLAP));
+        }
+        return POSTING_COST * postings + ARRAY_COST * numUsers + RANDOM_COST * visited;
+    }
+
+    /**
+     * Return the share of the users sharing at least minOverlap movies with
+     * the user, if the shared counts follow a Poisson distribution of the
+     * given mean: 1 - e^(-mean) (sum of mean^j / j! for j < minOverlap).
+     */
+    private static double reached(double mean, int minOverlap) {
+        double term = Math.exp(-mean); // probability of sharing exactly j movies
+        double below = 0;
+        for (int j = 0; j < Math.max(1, minOverlap); j++) {
+            below += term;
+            term *= mean / (j + 1);
+        }
+        return Math.max(0, 1 - below);
+    }
+}
@@ -0,0 +1,240 @@
+package movieRecommender;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** RatingSegment. A block of ratings of one user, kept in time order, with
+ *  the smallest and the largest timestamp of the ratings in it. A query with
+ *  a time window can skip a whole segment by looking at these two values.
+ *  A frozen segment is the result of compacting old segments and does not
+ *  take new ratings.
+ */
+public class RatingSegment {
+    /** Number of ratings in a segment that takes new ratings */
+    public static final int CAPACITY = 64;
+
+    private int[] movies; // movie index of each rating
+    private double[] ratings;
+    private long[] times; // timestamp of each rating, in increasing order
+    private int size;
+    private long minTime;
+    private long maxTime;
+    private boolean frozen;
+
+    /** A constructor for an empty segment that takes up to CAPACITY ratings. */
+    public RatingSegment() {
+        movies = new int[8];
+        ratings = new double[8];
+        times = new long[8];
+        size = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        frozen = false;
+    }
+
+    /** Return true if this segment can not take more ratings */
+    public boolean isFull() {
+        return frozen || size == CAPACITY;
+    }
+
+    /**
+     * Add a rating, keeping the segment in time order. Ratings usually
+     * arrive in time order, so this is an append in the common case.
+     *
+     * @param movie  index of the movie
+     * @param rating rating of the movie
+     * @param time   timestamp of the rating
+     */
+    public void add(int movie, double rating, long time) {
+        if (isFull()) {
+            throw new IllegalStateException("Segment is full");
+        }
+        if (size == movies.length) {
+            int capacity = Math.min(CAPACITY, size * 2);
+            movies = Arrays.copyOf(movies, capacity);
+            ratings = Arrays.copyOf(ratings, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        int i = size;
+        while (i > 0 && times[i - 1] > time) {
+            movies[i] = movies[i - 1];
+            ratings[i] = ratings[i - 1];
+            times[i] = times[i - 1];
+            i--;
+        }
+        movies[i] = movie;
+        ratings[i] = rating;
+        times[i] = time;
+        size++;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+    }
+
+    /**
+     * Remove the rating of the given movie from this segment, if it is here.
+     * The min and max timestamps are kept, they stay valid bounds.
+     *
+     * @param movie index of the movie
+     * @return true if a rating was removed
+     */
+    public boolean remove(int movie) {
+        for (int i = 0; i < size; i++) {
+            if (movies[i] == movie) {
+                System.arraycopy(movies, i + 1, movies, i, size - i - 1);
+                System.arraycopy(ratings, i + 1, ratings, i, size - i - 1);
+                System.arraycopy(times, i + 1, times, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the number of ratings in this segment */
+    public int size() {
+        return size;
+    }
+
+    /** Return the movie index of the i-th rating (in time order) */
+    public int getMovie(int i) {
+        return movies[i];
+    }
+
+    /** Return the value of the i-th rating (in time order) */
+    public double getRating(int i) {
+        return ratings[i];
+    }
+
+    /** Return the timestamp of the i-th rating */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /** Return the smallest timestamp in this segment */
+    public long getMinTime() {
+        return minTime;
+    }
+
+    /** Return the largest timestamp in this segment */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /** Return true if this segment is a compacted block */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Merge the given segments into one frozen segment in time order. The
+     * arrays of the frozen segment are exactly as long as the number of ratings.
+     *
+     * @param segments segments to merge
+     * @return frozen segment with all the ratings of the given segments
+     */
+    public static RatingSegment freeze(List<RatingSegment> segments) {
+        RatingSegment frozen = merge(segments);
+        frozen.frozen = true;
+        return frozen;
+    }
+
+    /**
+     * Sort the ratings of the given segments by time and cut them into full
+     * segments. Used after a bulk load, where ratings arrive in file order.
+     *
+     * @param segments segments to reorganize
+     * @param result   list that receives the new segments, oldest first
+     */
+    public static void sortByTime(List<RatingSegment> segments, List<RatingSegment> result) {
+        RatingSegment all = merge(segments);
+        for (int start = 0; start < all.size; start += CAPACITY) {
+            int end = Math.min(all.size, start + CAPACITY);
+            result.add(fromArrays(Arrays.copyOfRange(all.movies, start, end),
+                    Arrays.copyOfRange(all.ratings, start, end),
+                    Arrays.copyOfRange(all.times, start, end), end - start));
+        }
+    }
+
+    /** Collect the ratings of the given segments into one segment in time order */
+    private static RatingSegment merge(List<RatingSegment> segments) {
+        int total = 0;
+        for (RatingSegment segment : segments) {
+            total += segment.size;
+        }
+        int[] allMovies = new int[total];
+        double[] allRatings = new double[total];
+        long[] allTimes = new long[total];
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int n = 0;
+        for (RatingSegment segment : segments) {
+            for (int i = 0; i < segment.size; i++, n++) {
+                allMovies[n] = segment.movies[i];
+                allRatings[n] = segment.ratings[i];
+                allTimes[n] = segment.times[i];
+                minTime = Math.min(minTime, segment.times[i]);
+                maxTime = Math.max(maxTime, segment.times[i]);
+            }
+        }
+        int[] order = timeOrder(allTimes, total, minTime, maxTime);
+
+        int[] movies = new int[total];
+        double[] ratings = new double[total];
+        long[] times = new long[total];
+        for (int i = 0; i < total; i++) {
+            int from = order[i];
+            movies[i] = allMovies[from];
+            ratings[i] = allRatings[from];
+            times[i] = allTimes[from];
+        }
+        return fromArrays(movies, ratings, times, total);
+    }
+
+    /**
+     * Return the positions 0..n-1 sorted by time, and by position for equal
+     * times. Usually the times span less than 2^33 seconds (about 270
+     * years), so each position is sorted with a primitive sort as a key of
+     * the time relative to minTime in the high bits and the position in the
+     * low 30 bits. Times spread wider, such as milliseconds, or more than
+     * 2^30 ratings, are sorted with a comparator instead.
+     */
+    private static int[] timeOrder(final long[] times, int n, long minTime, long maxTime) {
+        int[] order = new int[n];
+        long span = maxTime - minTime; // negative if the subtraction overflows
+        if (n < (1 << 30) && span >= 0 && span < (1L << 33)) {
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = ((times[i] - minTime) << 30) | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) {
+                order[i] = (int) (keys[i] & ((1 << 30) - 1));
+            }
+            return order;
+        }
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> times[a] != times[b] ? Long.compare(times[a], times[b])
+                : Integer.compare(a, b));
+        for (int i = 0; i < n; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /** Create a segment over the given arrays, which must be in time order */
+    private static RatingSegment fromArrays(int[] movies, double[] ratings, long[] times, int size) {
+        RatingSegment segment = new RatingSegment();
+        segment.movies = movies;
+        segment.ratings = ratings;
+        segment.times = times;
+        segment.size = size;
+        if (size > 0) {
+            segment.minTime = times[0];
+            segment.maxTime = times[size - 1];
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,115 @@
+package movieRecommender;
+
+/** RatingStats. Summary statistics of the ratings of one user: count, sum,
+ *  sum of squares and a histogram of half-star ratings, updated on every
+ *  insert and rating change. The mean, the norm of the mean-centred ratings,
+ *  the median and any percentile are answered in O(1) from these, without
+ *  walking the ratings. Ratings between half stars are counted in the
+ *  nearest half-star bucket, so median and percentiles are exact for the
+ *  usual 0.5..5.0 ratings and rounded to a half star otherwise.
+ */
+public class RatingStats {
+    private static final int BUCKETS = 10; // 0.5, 1.0, ..., 5.0
+
+    private int count;
+    private double sum;
+    private double sumOfSquares;
+    private final int[] halfStars = new int[BUCKETS];
+
+    /** Count a new rating */
+    public void add(double rating) {
+        count++;
+        sum += rating;
+        sumOfSquares += rating * rating;
+        halfStars[bucketOf(rating)]++;
+    }
+
+    /** Forget a rating that was counted before */
+    public void remove(double rating) {
+        count--;
+        sum -= rating;
+        sumOfSquares -= rating * rating;
+        halfStars[bucketOf(rating)]--;
+    }
+
+    /** Return the number of ratings */
+    public int getCount() {
+        return count;
+    }
+
+    /** Return the sum of the ratings */
+    public double getSum() {
+        return sum;
+    }
+
+    /** Return the sum of the squares of the ratings */
+    public double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    /** Return the mean rating, 0 if there are no ratings */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /** Return the length of the vector of mean-centred ratings,
+     *  sqrt(sum of (rating - mean)^2) */
+    public double getCenteredNorm() {
+        if (count == 0) {
+            return 0;
+        }
+        return Math.sqrt(Math.max(0, sumOfSquares - sum * sum / count));
+    }
+
+    /**
+     * Return the number of ratings in a half-star bucket.
+     * @param halfStars rating times two, 1..10
+     */
+    public int getHistogram(int halfStars) {
+        return this.halfStars[halfStars - 1];
+    }
+
+    /**
+     * Return the rating at the given rank when the ratings are sorted from
+     * largest to smallest, as in MovieRatingsList.
+     * @param rank 0 for the largest rating, count - 1 for the smallest
+     * @return the rating, -1 if rank is out of range
+     */
+    public double getRatingAtRank(int rank) {
+        if (rank < 0 || rank >= count) {
+            return -1;
+        }
+        int seen = 0;
+        for (int b = BUCKETS - 1; b >= 0; b--) {
+            seen += halfStars[b];
+            if (seen > rank) {
+                return (b + 1) / 2.0;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the median rating: the rating of the middle node of the
+     *  sorted list, as MovieRatingsList.getMiddleNode finds it; -1 if empty */
+    public double getMedian() {
+        return getRatingAtRank(count / 2);
+    }
+
+    /**
+     * Return the smallest rating such that at least the given share of the
+     * ratings are not larger (nearest rank).
+     * @param percentile share in percent, 0..100
+     * @return the rating, -1 if there are no ratings
+     */
+    public double getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        int fromSmallest = Math.max(1, (int) Math.ceil(percentile / 100.0 * count));
+        return getRatingAtRank(count - Math.min(fromSmallest, count));
+    }
+
+    private static int bucketOf(double rating) {
+        return Math.max(0, Math.min(BUCKETS - 1, (int) Math.round(rating * 2) - 1));
+    }
+}
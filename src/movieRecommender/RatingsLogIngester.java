@@ -0,0 +1,320 @@
+package movieRecommender;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/** RatingsLogIngester. Follows an append-only log of new ratings in the
+ *  format of ratings.csv (userId,movieId,rating,timestamp) and adds them to
+ *  a MovieRecommender while it answers queries. New complete lines are read
+ *  in batches; each batch is applied with MovieRecommender.addRatings under
+ *  its write lock, so queries only wait for one batch at a time. A line
+ *  without its newline yet is left for the next poll.
+ *
+ *  After every batch the offset of the first unread byte is written to a
+ *  sidecar file (written to a temporary file, synced and renamed), so a
+ *  process that still has the ingested ratings (for example restored from a
+ *  checkpoint) can resume where it stopped. A batch that was applied but
+ *  whose offset was not saved yet is read again after a crash; applying a
+ *  rating twice is harmless, because a second rating of the same movie
+ *  replaces the first.
+ *
+ *  On the background thread, a log that can not be read, an offset that
+ *  can not be saved or a batch that addRatings throws on stops the polling; the error is counted in Metrics and
+ *  thrown by stop. IngestBenchmark measures the time until appended ratings
+ *  are visible to queries.
+ */
+public class RatingsLogIngester implements Runnable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MovieRecommender recommender;
+    private final File logFile;
+    private final File offsetFile;
+    private final long pollMillis;
+
+    // the current batch, external ids
+    private final int[] users;
+    private final int[] movies;
+    private final double[] ratings;
+    private final long[] times;
+    private int batchLength;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private FileChannel channel;
+    private volatile long offset; // first byte of the log that is not applied yet
+    private volatile long ratingsApplied;
+    private volatile long badLines;
+    private LongConsumer onApplied;
+    private volatile boolean running;
+    private volatile IOException failure;
+    private Thread thread;
+
+    /** A constructor for the RatingsLogIngester. Reads the saved offset if
+     *  the offset file exists, otherwise starts at the beginning of the log.
+     * @param recommender recommender to add the new ratings to
+     * @param logFilename name of the log file with new ratings
+     * @param offsetFilename name of the file that keeps the offset of the log
+     * @param batchSize largest number of ratings applied at once
+     * @param pollMillis milliseconds to wait when there is nothing new in the log
+     * @throws IOException if the offset file can not be read
+     */
+    public RatingsLogIngester(MovieRecommender recommender, String logFilename, String offsetFilename,
+                              int batchSize, long pollMillis) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.recommender = recommender;
+        this.logFile = new File(logFilename);
+        this.offsetFile = new File(offsetFilename);
+        this.pollMillis = pollMillis;
+        users = new int[batchSize];
+        movies = new int[batchSize];
+        ratings = new double[batchSize];
+        times = new long[batchSize];
+        offset = readOffset();
+    }
+
+    /** Return the offset of the first byte of the log that is not applied yet */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Return the number of ratings applied so far */
+    public long getRatingsApplied() {
+        return ratingsApplied;
+    }
+
+    /** Return the number of lines that could not be parsed and were skipped */
+    public long getBadLines() {
+        return badLines;
+    }
+
+    /** Call the given function with the new offset after every applied batch,
+     *  on the thread that applied it */
+    public void setOnApplied(LongConsumer onApplied) {
+        this.onApplied = onApplied;
+    }
+
+    /**
+     * Read everything that was appended to the log since the last call and
+     * apply it, batch by batch.
+     * @return number of ratings applied
+     * @throws IOException if the log can not be read or the offset not saved
+     */
+    public int poll() throws IOException {
+        if (channel == null) {
+            if (!logFile.exists()) {
+                return 0;
+            }
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+        }
+        long size = channel.size();
+        if (size < offset) {
+            System.out.println("Log " + logFile + " is shorter than the saved offset, reading it from the start");
+            offset = 0;
+        }
+
+        int applied = 0;
+        long position = offset; // first byte not parsed yet
+        while (position < size) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer);
+            int read = channel.read(chunk, position);
+            if (read <= 0) {
+                break;
+            }
+            int lineStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                parseLine(position + lineStart, lineStart, i);
+                lineStart = i + 1;
+                if (batchLength == users.length) {
+                    applied += applyBatch(position + lineStart);
+                }
+            }
+            if (lineStart == 0) {
+                if (read < buffer.length) {
+                    break; // the last line is not complete yet
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2); // a line longer than the buffer
+                continue;
+            }
+            position += lineStart;
+        }
+        if (batchLength > 0 || position > offset) {
+            applied += applyBatch(position);
+        }
+        return applied;
+    }
+
+    /** Poll the log until stop is called or the log can not be read */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (poll() == 0) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                Metrics.increment(Metrics.Counter.ERRORS);
+                failure = e;
+                running = false;
+            } catch (RuntimeException e) {
+                // a batch the recommender turned away: stop at its offset, so stop reports it
+                Metrics.increment(Metrics.Counter.ERRORS);
+                failure = new IOException("Could not apply the ratings of " + logFile, e);
+                running = false;
+            }
+        }
+    }
+
+    /** Start polling the log on a background thread */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "ratings-ingester");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Return the error that stopped the background thread, or null */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /** Stop the background thread after its current batch and close the log
+     * @throws IOException the error that stopped the background thread, if any
+     */
+    public synchronized void stop() throws IOException {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    /** Parse the line buffer[from..end) into the batch. The header line and
+     *  lines that can not be parsed are skipped. */
+    private void parseLine(long fileOffset, int from, int end) {
+        if (end > from && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end == from) {
+            return;
+        }
+        int[] pos = {from};
+        try {
+            int userId = (int) parseLong(pos, end);
+            int movieId = (int) parseLong(pos, end);
+            double rating = parseRating(pos, end);
+            long time = pos[0] <= end ? parseLong(pos, end) : 0;
+            users[batchLength] = userId;
+            movies[batchLength] = movieId;
+            ratings[batchLength] = rating;
+            times[batchLength] = time;
+            batchLength++;
+        } catch (NumberFormatException e) {
+            if (fileOffset != 0) { // the first line of the file may be a header
+                badLines++;
+                Metrics.increment(Metrics.Counter.ERRORS);
+            }
+        }
+    }
+
+    /** Parse a non-negative integer field starting at pos[0] and move pos past its comma */
+    private long parseLong(int[] pos, int end) {
+        int i = pos[0];
+        long value = 0;
+        int start = i;
+        while (i < end && buffer[i] != ',') {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number at byte " + i);
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        if (i == start) {
+            throw new NumberFormatException("Empty field");
+        }
+        pos[0] = i + 1;
+        return value;
+    }
+
+    /** Parse a rating field like 3.5 starting at pos[0] and move pos past its comma */
+    private double parseRating(int[] pos, int end) {
+        int i = pos[0];
+        while (i < end && buffer[i] != ',') {
+            i++;
+        }
+        double rating = Double.parseDouble(new String(buffer, pos[0], i - pos[0], StandardCharsets.US_ASCII));
+        pos[0] = i + 1;
+        return rating;
+    }
+
+    /** Apply the current batch, then save newOffset as the offset of the log */
+    private int applyBatch(long newOffset) throws IOException {
+        long start = Metrics.start();
+        int n = batchLength;
+        recommender.addRatings(users, movies, ratings, times, n);
+        batchLength = 0;
+        offset = newOffset;
+        ratingsApplied += n;
+        writeOffset(newOffset);
+        Metrics.stop(Metrics.Phase.INGEST_BATCH, start);
+        if (onApplied != null) {
+            onApplied.accept(newOffset);
+        }
+        return n;
+    }
+
+    private long readOffset() throws IOException {
+        if (!offsetFile.exists()) {
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(offsetFile.toPath()), StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad offset in " + offsetFile + ": " + text);
+        }
+    }
+
+    /** Replace the offset file as a whole, so a crash leaves the old or the new offset */
+    private void writeOffset(long value) throws IOException {
+        File temp = new File(offsetFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write((value + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), offsetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,545 @@
+package movieRecommender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** RatingsWal. A durable update path for the ratings of a MovieRecommender:
+ *  every update is written to a binary write-ahead log and synced before it
+ *  is applied, and checkpoints of all ratings let recovery replay only the
+ *  end of the log.
+ *
+ *  Updates are committed in groups: callers hand their updates to a commit
+ *  thread and wait; the commit thread writes everything that arrived since
+ *  its last write as one frame, syncs the log once for the whole frame, and
+ *  applies the frame with MovieRecommender.addRatings, in log order.
+ *
+ *  Files in the directory:
+ *  - wal-N.log: frames of [count int][count records][CRC32 of the records int],
+ *    each record is [userId int][movieId int][rating float][timestamp long].
+ *    A frame that is cut off or has a wrong checksum ends the log.
+ *  - checkpoint.bin: all ratings, and the number N of the first log that is
+ *    not included in them.
+ *  A checkpoint starts a new log before it copies the ratings, so every
+ *  update is in the checkpoint or in a log that is kept. Updates applied
+ *  between the start of the new log and the copy are in both; replaying them
+ *  again is harmless, because a rating replaces the earlier rating of the
+ *  same movie.
+ *
+ *  A periodic checkpoint that fails is counted in Metrics and thrown by
+ *  close; the logs it would have replaced are kept, so nothing is lost.
+ *  WalBenchmark measures update throughput and recovery time.
+ */
+public class RatingsWal implements Closeable {
+    private static final int CHECKPOINT_MAGIC = 0x4D52434B; // "MRCK"
+    private static final int RECORD_BYTES = 20;
+    private static final String CHECKPOINT = "checkpoint.bin";
+
+    private final MovieRecommender recommender;
+    private final File dir;
+
+    private final Object queueLock = new Object(); // guards pending, submitted, applied, failure, closed
+    private Batch pending = new Batch();
+    private long submitted; // updates handed to the commit thread
+    private long applied; // updates written, synced and applied
+    private IOException failure;
+    private boolean closed;
+
+    private final Object logLock = new Object(); // guards the log file and its number
+    private FileChannel log;
+    private long generation;
+    private ByteBuffer frame = ByteBuffer.allocate(1 << 16);
+
+    private Thread committer;
+    private ScheduledExecutorService checkpointer;
+    private volatile IOException checkpointFailure; // first failure of a periodic checkpoint
+
+    /** A constructor for the RatingsWal. Call recover before any update.
+     * @param recommender recommender whose ratings are logged; its movies must be loaded
+     * @param dirname directory of the log and checkpoint files, created if needed
+     * @throws IOException if the directory can not be created
+     */
+    public RatingsWal(MovieRecommender recommender, String dirname) throws IOException {
+        this.recommender = recommender;
+        this.dir = new File(dirname);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create " + dir);
+        }
+    }
+
+    /**
+     * Load the last checkpoint into the recommender, replay the logs written
+     * after it, and start accepting updates. With an empty directory nothing
+     * is loaded; call checkpoint to save the ratings the recommender already has.
+     * @return number of log records replayed
+     * @throws IOException if the checkpoint or a log can not be read
+     */
+    public long recover() throws IOException {
+        File checkpoint = new File(dir, CHECKPOINT);
+        generation = checkpoint.exists() ? readCheckpoint(checkpoint) : 0;
+
+        long replayed = 0;
+        long last = generation;
+        for (long g : logGenerations()) {
+            if (g >= generation) {
+                replayed += replay(logFile(g));
+                last = g;
+            }
+        }
+        generation = last;
+        log = FileChannel.open(logFile(generation).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        log.position(log.size());
+        syncDirectory(); // the log may be new, and synced records in it are acknowledged
+
+        committer = new Thread(this::commitLoop, "wal-commit");
+        committer.setDaemon(true);
+        committer.start();
+        return replayed;
+    }
+
+    /**
+     * Log a rating and apply it. Returns once the rating is synced to disk
+     * and visible to queries.
+     * @param userId id of the user
+     * @param movieId id of the movie
+     * @param rating rating given by the user to the movie
+     * @param time timestamp of the rating
+     * @throws IOException if the log can not be written
+     */
+    public void update(int userId, int movieId, double rating, long time) throws IOException {
+        long ticket;
+        synchronized (queueLock) {
+            checkOpen();
+            pending.add(userId, movieId, rating, time);
+            ticket = ++submitted;
+            queueLock.notifyAll();
+        }
+        await(ticket);
+    }
+
+    /**
+     * Log n ratings and apply them. Returns once all of them are synced to
+     * disk and visible to queries.
+     * @throws IOException if the log can not be written
+     */
+    public void update(int[] userIds, int[] movieIds, double[] ratings, long[] times, int n) throws IOException {
+        long ticket;
+        synchronized (queueLock) {
+            checkOpen();
+            for (int i = 0; i < n; i++) {
+                pending.add(userIds[i], movieIds[i], ratings[i], times[i]);
+            }
+            submitted += n;
+            ticket = submitted;
+            queueLock.notifyAll();
+        }
+        await(ticket);
+    }
+
+    /**
+     * Write all ratings of the recommender to a new checkpoint and delete the
+     * logs it makes unnecessary. Updates wait while the ratings are copied.
+     * @throws IOException if the checkpoint can not be written
+     */
+    public void checkpoint() throws IOException {
+        long start = Metrics.start();
+        long covered;
+        synchronized (logLock) {
+            // every update applied so far is in a log before the new one
+            log.close();
+            generation++;
+            log = FileChannel.open(logFile(generation).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            log.position(log.size());
+            syncDirectory(); // the new log must survive a crash before updates are acknowledged from it
+            covered = generation;
+        }
+
+        File temp = new File(dir, CHECKPOINT + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp);
+        CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16))) {
+            recommender.readLock().lock();
+            try {
+                UsersList users = recommender.getUsersData();
+                IdDictionary userIds = recommender.getUserIds();
+                IdDictionary movieIds = recommender.getMovieIds();
+                long count = 0;
+                for (int u = 0; u < users.numUsers(); u++) {
+                    UserNode user = users.get(u);
+                    for (int s = 0; s < user.getNumSegments(); s++) {
+                        count += user.getSegment(s).size();
+                    }
+                }
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(covered);
+                out.writeLong(count);
+                for (int u = 0; u < users.numUsers(); u++) {
+                    UserNode user = users.get(u);
+                    int userId = userIds.externalId(user.getId());
+                    for (int s = 0; s < user.getNumSegments(); s++) {
+                        RatingSegment segment = user.getSegment(s);
+                        for (int i = 0; i < segment.size(); i++) {
+                            out.writeInt(userId);
+                            out.writeInt(movieIds.externalId(segment.getMovie(i)));
+                            out.writeFloat((float) segment.getRating(i));
+                            out.writeLong(segment.getTime(i));
+                        }
+                    }
+                }
+            } finally {
+                recommender.readLock().unlock();
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), new File(dir, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // the rename must be on disk before the logs it replaces are deleted, or
+        // a crash could keep the old checkpoint and lose the logs after it
+        syncDirectory();
+
+        for (long g : logGenerations()) {
+            if (g < covered && !logFile(g).delete()) {
+                System.out.println("Could not delete " + logFile(g));
+            }
+        }
+        Metrics.stop(Metrics.Phase.CHECKPOINT, start);
+    }
+
+    /** Sync the directory, so that files created, renamed or deleted in it survive a crash */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Write a checkpoint every period on a background thread. A failed
+     * checkpoint is tried again at the next period; the first failure is
+     * kept for getCheckpointFailure and close.
+     * @param periodSeconds seconds between two checkpoints
+     */
+    public synchronized void startCheckpoints(long periodSeconds) {
+        stopCheckpoints();
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                Metrics.increment(Metrics.Counter.ERRORS);
+                if (checkpointFailure == null) {
+                    checkpointFailure = e;
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Stop writing periodic checkpoints, and wait for one that is being written */
+    public synchronized void stopCheckpoints() {
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            checkpointer = null;
+        }
+    }
+
+    /** Return the first failure of a periodic checkpoint, or null */
+    public IOException getCheckpointFailure() {
+        return checkpointFailure;
+    }
+
+    /** Commit the waiting updates and close the log. Does not write a checkpoint.
+     * @throws IOException if the log can not be closed, or the first failure of a periodic checkpoint
+     */
+    @Override
+    public void close() throws IOException {
+        stopCheckpoints();
+        synchronized (queueLock) {
+            closed = true;
+            queueLock.notifyAll();
+        }
+        if (committer != null) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (logLock) {
+            if (log != null) {
+                log.close();
+            }
+        }
+        if (checkpointFailure != null) {
+            throw checkpointFailure;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The log is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Wait until the update with the given ticket is applied */
+    private void await(long ticket) throws IOException {
+        synchronized (queueLock) {
+            while (applied < ticket && failure == null) {
+                try {
+                    queueLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log", e);
+                }
+            }
+            if (applied < ticket) {
+                throw failure;
+            }
+        }
+    }
+
+    /** Body of the commit thread: write, sync and apply one group of updates at a time */
+    private void commitLoop() {
+        Batch spare = new Batch();
+        while (true) {
+            Batch group;
+            synchronized (queueLock) {
+                while (pending.size == 0 && !closed) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size == 0) {
+                    return; // closed and nothing left
+                }
+                group = pending;
+                pending = spare;
+            }
+
+            try {
+                long start = Metrics.start();
+                synchronized (logLock) {
+                    writeFrame(group);
+                    log.force(false);
+                    // applied inside logLock, so a checkpoint never starts a new log between the two
+                    recommender.addRatings(group.users, group.movies, group.ratings, group.times, group.size);
+                }
+                Metrics.add(Metrics.Counter.WAL_RECORDS, group.size);
+                Metrics.increment(Metrics.Counter.WAL_SYNCS);
+                Metrics.stop(Metrics.Phase.WAL_COMMIT, start);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            } catch (RuntimeException e) {
+                // the recommender turned the batch away: fail the waiters rather than leave them hanging
+                fail(new IOException("Could not apply logged ratings", e));
+                return;
+            }
+
+            synchronized (queueLock) {
+                applied += group.size;
+                queueLock.notifyAll();
+            }
+            group.size = 0;
+            spare = group;
+        }
+    }
+
+    /** Count the error of the commit thread and hand it to every waiting and later update */
+    private void fail(IOException e) {
+        Metrics.increment(Metrics.Counter.ERRORS);
+        synchronized (queueLock) {
+            failure = e;
+            queueLock.notifyAll();
+        }
+    }
+
+    private void writeFrame(Batch group) throws IOException {
+        int bytes = 8 + group.size * RECORD_BYTES;
+        if (frame.capacity() < bytes) {
+            frame = ByteBuffer.allocate(Math.max(bytes, frame.capacity() * 2));
+        }
+        frame.clear();
+        frame.putInt(group.size);
+        for (int i = 0; i < group.size; i++) {
+            frame.putInt(group.users[i]);
+            frame.putInt(group.movies[i]);
+            frame.putFloat((float) group.ratings[i]);
+            frame.putLong(group.times[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 4, group.size * RECORD_BYTES);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        while (frame.hasRemaining()) {
+            log.write(frame);
+        }
+    }
+
+    /** Load the checkpoint into the recommender and return the number of the first log after it */
+    private long readCheckpoint(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[4096 * RECORD_BYTES];
+            in.readFully(bytes, 0, 20);
+            crc.update(bytes, 0, 20);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != CHECKPOINT_MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            long covered = buffer.getLong();
+            long count = buffer.getLong();
+
+            Batch batch = new Batch();
+            for (long done = 0; done < count; ) {
+                int n = (int) Math.min(4096, count - done);
+                in.readFully(bytes, 0, n * RECORD_BYTES);
+                crc.update(bytes, 0, n * RECORD_BYTES);
+                buffer.clear();
+                batch.size = 0;
+                for (int i = 0; i < n; i++) {
+                    batch.add(buffer.getInt(), buffer.getInt(), buffer.getFloat(), buffer.getLong());
+                }
+                recommender.insertRatings(batch.users, batch.movies, batch.ratings, batch.times, batch.size);
+                done += n;
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Checkpoint " + file + " is damaged");
+            }
+            recommender.sortSegments();
+            return covered;
+        } catch (EOFException e) {
+            throw new IOException("Checkpoint " + file + " is cut off", e);
+        }
+    }
+
+    /** Apply every complete frame of the log, and cut off a damaged end */
+    private long replay(File file) throws IOException {
+        long replayed = 0;
+        long good = 0; // end of the last good frame
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            byte[] records = new byte[0];
+            Batch batch = new Batch();
+            CRC32 crc = new CRC32();
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                    if (count <= 0 || count > (file.length() - good) / RECORD_BYTES) {
+                        break;
+                    }
+                    if (records.length < count * RECORD_BYTES) {
+                        records = new byte[count * RECORD_BYTES];
+                    }
+                    in.readFully(records, 0, count * RECORD_BYTES);
+                    crc.reset();
+                    crc.update(records, 0, count * RECORD_BYTES);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(records, 0, count * RECORD_BYTES);
+                batch.size = 0;
+                for (int i = 0; i < count; i++) {
+                    batch.add(buffer.getInt(), buffer.getInt(), buffer.getFloat(), buffer.getLong());
+                }
+                recommender.addRatings(batch.users, batch.movies, batch.ratings, batch.times, batch.size);
+                replayed += count;
+                good += 8 + (long) count * RECORD_BYTES;
+            }
+        }
+        if (good < file.length()) {
+            System.out.println("Log " + file + " ends with a damaged frame, cutting it off at " + good);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        return replayed;
+    }
+
+    private File logFile(long g) {
+        return new File(dir, "wal-" + g + ".log");
+    }
+
+    /** Return the numbers of the logs in the directory, smallest first */
+    private long[] logGenerations() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] result = new long[names.length];
+        int n = 0;
+        for (String name : names) {
+            if (name.startsWith("wal-") && name.endsWith(".log")) {
+                try {
+                    result[n++] = Long.parseLong(name.substring(4, name.length() - 4));
+                } catch (NumberFormatException e) {
+                    // not one of our logs
+                }
+            }
+        }
+        result = Arrays.copyOf(result, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Updates in arrival order, external ids */
+    private static class Batch {
+        int[] users = new int[1024];
+        int[] movies = new int[1024];
+        double[] ratings = new double[1024];
+        long[] times = new long[1024];
+        int size;
+
+        void add(int user, int movie, double rating, long time) {
+            if (size == users.length) {
+                users = Arrays.copyOf(users, size * 2);
+                movies = Arrays.copyOf(movies, size * 2);
+                ratings = Arrays.copyOf(ratings, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            users[size] = user;
+            movies[size] = movie;
+            ratings[size] = rating;
+            times[size] = time;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package movieRecommender;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** RecommendationCache. Finished recommendation lists (movie indices) of
+ *  recent queries, keyed by user, number of movies, mode (recommendations
+ *  or anti-recommendations), genre filter and time window. Holds at most
+ *  capacity lists and evicts the least recently used one.
+ *
+ *  Every user index has a version that is raised when one of its ratings
+ *  is inserted or changed. An entry remembers the versions of the user and
+ *  of the neighbour its movies came from, and is stale as soon as either
+ *  changes; entries that came from the popularity index remember its
+ *  version instead. So new ratings only drop the entries they can change,
+ *  without a flush of the whole cache. A new rating of some other user that
+ *  would make them the better neighbour is not noticed until the user or
+ *  the old neighbour changes.
+ *
+ *  Queries share the read lock of MovieRecommender, so all methods are
+ *  synchronized.
+ */
+public class RecommendationCache {
+    /** Number of lists kept by default */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final LinkedHashMap<Key, Cached> entries;
+    private int capacity;
+    private long[] versions = new long[16]; // version of each user index
+
+    /** A constructor for the RecommendationCache.
+     * @param capacity max number of lists to keep, 0 to cache nothing
+     */
+    public RecommendationCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) { // access order, eldest is least recently used
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                return size() > RecommendationCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached movies for the query, or null if there are none or
+     * they are stale.
+     * @param key the query
+     * @param popularityVersion current version of the popularity index
+     * @return movie indices; callers must not change the array
+     */
+    public synchronized int[] get(Key key, long popularityVersion) {
+        Cached entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        boolean fresh = key.user < 0 || entry.userVersion == versionOf(key.user);
+        if (entry.neighbour < 0) {
+            fresh &= entry.popularityVersion == popularityVersion;
+        } else {
+            fresh &= entry.neighbourVersion == versionOf(entry.neighbour);
+        }
+        if (!fresh) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.movies;
+    }
+
+    /**
+     * Store the movies found for the query.
+     * @param key the query
+     * @param movies movie indices; the cache keeps the array
+     * @param neighbour index of the user the movies came from, -1 if they came from the popularity index
+     * @param popularityVersion version of the popularity index when the movies were found
+     */
+    public synchronized void put(Key key, int[] movies, int neighbour, long popularityVersion) {
+        if (capacity == 0) {
+            return;
+        }
+        Cached entry = new Cached();
+        entry.movies = movies;
+        entry.userVersion = key.user < 0 ? 0 : versionOf(key.user);
+        entry.neighbour = neighbour;
+        entry.neighbourVersion = neighbour < 0 ? 0 : versionOf(neighbour);
+        entry.popularityVersion = popularityVersion;
+        entries.put(key, entry);
+    }
+
+    /** Mark every entry of the user, and every entry taken from the user, as stale */
+    public synchronized void changed(int user) {
+        if (user >= versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(versions.length * 2, user + 1));
+        }
+        versions[user]++;
+    }
+
+    /** Drop all entries */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** Set the max number of lists to keep, 0 to cache nothing; drops the entries */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        entries.clear();
+    }
+
+    /** Return the number of lists in the cache */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private long versionOf(int user) {
+        return user < versions.length ? versions[user] : 0;
+    }
+
+    /** A query: user index (-1 for an unknown user), number of movies,
+     *  mode, genre filter and time window */
+    public static final class Key {
+        private final int user;
+        private final int num;
+        private final boolean anti;
+        private final long includeGenres;
+        private final long excludeGenres;
+        private final long from;
+        private final long to;
+
+        public Key(int user, int num, boolean anti, long includeGenres, long excludeGenres, TimeWindow window) {
+            this.user = user;
+            this.num = num;
+            this.anti = anti;
+            this.includeGenres = includeGenres;
+            this.excludeGenres = excludeGenres;
+            this.from = window.getFrom();
+            this.to = window.getTo();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return user == other.user && num == other.num && anti == other.anti
+                    && includeGenres == other.includeGenres && excludeGenres == other.excludeGenres
+                    && from == other.from && to == other.to;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = user * 31L + num;
+            h = h * 31 + (anti ? 1 : 0);
+            h = h * 31 + includeGenres;
+            h = h * 31 + excludeGenres;
+            h = h * 31 + from;
+            h = h * 31 + to;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static class Cached {
+        int[] movies;
+        long userVersion;
+        int neighbour;
+        long neighbourVersion;
+        long popularityVersion;
+    }
+}
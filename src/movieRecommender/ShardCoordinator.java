@@ -0,0 +1,141 @@
+package movieRecommender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** ShardCoordinator. Finds the most similar users across several
+ *  ShardServer processes: fetches the target user's ratings from the shard
+ *  that owns the user, sends them to every shard at once and merges the
+ *  per-shard top k into the global top k. ShardBenchmark in the benchmarks
+ *  module measures its latency for several shard counts.
+ */
+public class ShardCoordinator {
+    private final Connection[] shards;
+    private final ExecutorService pool;
+
+    /** A constructor for the ShardCoordinator.
+     * @param ports local ports of the shards, in shard order
+     * @throws IOException if a shard can not be reached
+     */
+    public ShardCoordinator(int[] ports) throws IOException {
+        shards = new Connection[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            shards[i] = new Connection(ports[i]);
+        }
+        pool = Executors.newFixedThreadPool(ports.length, r -> {
+            Thread thread = new Thread(r, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Find the k users most similar to the user with the given id, over all shards.
+     * @param userId id of the target user
+     * @param k      number of users to return
+     * @return top k with external user ids, or null if no shard knows the user
+     * @throws IOException if a shard fails
+     */
+    public TopK findMostSimilarUsers(final int userId, final int k) throws IOException {
+        Connection owner = shards[ShardServer.shardOf(userId, shards.length)];
+        final int[] movies;
+        final double[] ratings;
+        synchronized (owner) {
+            owner.out.writeByte(ShardServer.OP_RATINGS);
+            owner.out.writeInt(userId);
+            owner.out.flush();
+            int n = owner.in.readInt();
+            if (n < 0) {
+                return null;
+            }
+            movies = new int[n];
+            ratings = new double[n];
+            for (int i = 0; i < n; i++) {
+                movies[i] = owner.in.readInt();
+                ratings[i] = owner.in.readDouble();
+            }
+        }
+
+        List<Future<TopK>> replies = new ArrayList<>();
+        for (final Connection shard : shards) {
+            replies.add(pool.submit(() -> shard.search(userId, k, movies, ratings)));
+        }
+
+        TopK merged = new TopK(k);
+        for (Future<TopK> reply : replies) {
+            TopK part;
+            try {
+                part = reply.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a shard", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Shard search failed", e.getCause());
+            }
+            int[] users = part.sortedIds();
+            double[] similarities = part.sortedScores();
+            for (int i = 0; i < users.length; i++) {
+                merged.offer(users[i], similarities[i]);
+            }
+        }
+        return merged;
+    }
+
+    /** Close the connections to all shards */
+    public void close() throws IOException {
+        pool.shutdown();
+        for (Connection shard : shards) {
+            shard.close();
+        }
+    }
+
+    /** A connection to one shard. Requests on a connection are sent one at a time. */
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        synchronized TopK search(int userId, int k, int[] movies, double[] ratings) throws IOException {
+            out.writeByte(ShardServer.OP_SEARCH);
+            out.writeInt(userId);
+            out.writeInt(k);
+            out.writeInt(movies.length);
+            for (int i = 0; i < movies.length; i++) {
+                out.writeInt(movies[i]);
+                out.writeDouble(ratings[i]);
+            }
+            out.flush();
+
+            int m = in.readInt();
+            TopK part = new TopK(k);
+            for (int i = 0; i < m; i++) {
+                part.offer(in.readInt(), in.readDouble());
+            }
+            return part;
+        }
+
+        synchronized void close() throws IOException {
+            out.writeByte(ShardServer.OP_CLOSE);
+            out.flush();
+            socket.close();
+        }
+    }
+}
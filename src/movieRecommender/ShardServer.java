@@ -0,0 +1,174 @@
+package movieRecommender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/** ShardServer. One shard of a sharded deployment: loads the users whose
+ *  userId hashes to this shard and answers requests of a ShardCoordinator
+ *  over a local socket. Requests use external user and movie ids, since
+ *  every shard assigns its own dense indices.
+ *
+ *  Usage: ShardServer shard numShards port movies.csv ratings.csv
+ *  Prints "READY port" once the data is loaded and the socket accepts connections.
+ */
+public class ShardServer {
+    /** Close the connection */
+    static final byte OP_CLOSE = 0;
+    /** Request: int userId. Reply: int n (-1 if unknown), n x (int movieId, double rating) */
+    static final byte OP_RATINGS = 1;
+    /** Request: int excludeUserId, int k, int n, n x (int movieId, double rating).
+     *  Reply: int m, m x (int userId, double similarity), best first */
+    static final byte OP_SEARCH = 2;
+
+    private final MovieRecommender recommender;
+    private final ServerSocket serverSocket;
+
+    /** A constructor for the ShardServer.
+     * @param recommender recommender loaded with the users of this shard
+     * @param port        local port to listen on, 0 for any free port
+     * @throws IOException if the socket can not be opened
+     */
+    public ShardServer(MovieRecommender recommender, int port) throws IOException {
+        this.recommender = recommender;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Return the shard of the given user. Users are hash partitioned, so
+     * every shard gets a similar share of users no matter how ids are assigned.
+     * @param userId    id of the user
+     * @param numShards number of shards
+     * @return shard number, 0..numShards-1
+     */
+    public static int shardOf(int userId, int numShards) {
+        int h = userId * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % numShards;
+    }
+
+    /** Return the port this shard listens on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Accept connections until the socket is closed, one thread per connection.
+     * @throws IOException if accepting fails while the socket is open
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return; // closed by close()
+                }
+                Metrics.increment(Metrics.Counter.ERRORS);
+                throw e;
+            }
+            Thread thread = new Thread(() -> handle(socket), "shard-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stop accepting connections */
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /** Answer requests on one connection until the coordinator closes it */
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            while (true) {
+                byte op = in.readByte();
+                if (op == OP_CLOSE) {
+                    return;
+                } else if (op == OP_RATINGS) {
+                    writeRatings(in.readInt(), out);
+                } else if (op == OP_SEARCH) {
+                    search(in, out);
+                } else {
+                    throw new IOException("Unknown request: " + op);
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // the coordinator went away
+        } catch (IOException e) {
+            // the connection is closed, so the coordinator's request fails with an IOException;
+            // nothing is printed, as nobody reads the output of a shard process once it is ready
+            Metrics.increment(Metrics.Counter.ERRORS);
+        }
+    }
+
+    private void writeRatings(int userId, DataOutputStream out) throws IOException {
+        IdDictionary movieIds = recommender.getMovieIds();
+        UserNode user = recommender.getUsersData().get(recommender.getUserIds().indexOf(userId));
+        if (user == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int n = 0;
+        for (MovieRatingNode node : user.getMovieRatings()) {
+            n++;
+        }
+        out.writeInt(n);
+        for (MovieRatingNode node : user.getMovieRatings()) {
+            out.writeInt(movieIds.externalId(node.getMovieId()));
+            out.writeDouble(node.getMovieRating());
+        }
+    }
+
+    private void search(DataInputStream in, DataOutputStream out) throws IOException {
+        IdDictionary userIds = recommender.getUserIds();
+        IdDictionary movieIds = recommender.getMovieIds();
+        int excludeUser = userIds.indexOf(in.readInt());
+        int k = in.readInt();
+        int n = in.readInt();
+        double[] ratings = new double[movieIds.size()];
+        for (int i = 0; i < n; i++) {
+            int movie = movieIds.indexOf(in.readInt());
+            double rating = in.readDouble();
+            if (movie >= 0) {
+                // movies nobody in this shard rated can not add to any similarity
+                ratings[movie] = rating;
+            }
+        }
+
+        TopK best = recommender.getUsersData().findMostSimilarUsers(ratings, k, excludeUser);
+        int[] users = best.sortedIds();
+        double[] similarities = best.sortedScores();
+        out.writeInt(users.length);
+        for (int i = 0; i < users.length; i++) {
+            out.writeInt(userIds.externalId(users[i]));
+            out.writeDouble(similarities[i]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.out.println("Usage: ShardServer shard numShards port movies.csv ratings.csv");
+            return;
+        }
+        int shard = Integer.parseInt(args[0]);
+        int numShards = Integer.parseInt(args[1]);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(args[3], args[4], shard, numShards);
+
+        ShardServer server = new ShardServer(recommender, Integer.parseInt(args[2]));
+        System.out.println("READY " + server.getPort());
+        System.out.flush();
+        server.serve();
+    }
+}
@@ -0,0 +1,149 @@
+package movieRecommender;
+
+/** Similarity. How the neighbour search compares two users: the measure,
+ *  the least number of movies they must share, and whether the similarity
+ *  is significance weighted. Immutable, like TimeWindow; the with methods
+ *  return a changed copy.
+ *  - PEARSON is the Pearson correlation over the shared movies.
+ *  - CENTERED_COSINE is the mean-centred cosine: the sum over the shared
+ *    movies of (x - mean of x)(y - mean of y), divided by the lengths of
+ *    both users' mean-centred rating vectors over all their ratings (see
+ *    MovieRatingsList.computeCenteredSimilarity).
+ *  A pair of users sharing fewer than minOverlap movies gets similarity 0,
+ *  like a pair sharing none, so it never becomes a neighbour. The overlap
+ *  is an integer: a pair is rejected on the rating counts before its
+ *  ratings are read, and on the shared counts of the postings before its
+ *  similarity is computed (see UsersList.findMostSimilarUsers).
+ *  Significance weighting multiplies the similarity by
+ *  min(n, SIGNIFICANCE_OVERLAP) / SIGNIFICANCE_OVERLAP for n shared movies.
+ */
+public class Similarity {
+    /** Pearson correlation over any overlap, not weighted: the original similarity */
+    public static final Similarity PEARSON = new Similarity(Measure.PEARSON, 0, false);
+    /** Significance weighted Pearson correlation, used in pruning mode */
+    public static final Similarity WEIGHTED = new Similarity(Measure.PEARSON, 0, true);
+
+    /** Ways to compare the ratings of two users */
+    public enum Measure {
+        PEARSON, CENTERED_COSINE
+    }
+
+    private final Measure measure;
+    private final int minOverlap;
+    private final boolean weighted;
+
+    /** A constructor for the Similarity.
+     * @param measure    how to compare the shared ratings
+     * @param minOverlap least number of shared movies, 0 or 1 for any overlap
+     * @param weighted   true to shrink similarities over fewer than SIGNIFICANCE_OVERLAP movies
+     */
+    public Similarity(Measure measure, int minOverlap, boolean weighted) {
+        if (minOverlap < 0) {
+            throw new IllegalArgumentException("Negative minimum overlap: " + minOverlap);
+        }
+        this.measure = measure;
+        this.minOverlap = minOverlap;
+        this.weighted = weighted;
+    }
+
+    /** Return a copy of this similarity with another measure */
+    public Similarity withMeasure(Measure measure) {
+        return new Similarity(measure, minOverlap, weighted);
+    }
+
+    /** Return a copy of this similarity with another minimum overlap */
+    public Similarity withMinOverlap(int minOverlap) {
+        return new Similarity(measure, minOverlap, weighted);
+    }
+
+    /** Return a copy of this similarity with significance weighting on or off */
+    public Similarity withWeighting(boolean weighted) {
+        return new Similarity(measure, minOverlap, weighted);
+    }
+
+    /** Return the measure */
+    public Measure getMeasure() {
+        return measure;
+    }
+
+    /** Return the least number of shared movies */
+    public int getMinOverlap() {
+        return minOverlap;
+    }
+
+    /** Return true if the similarity is significance weighted */
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    /** Return true if this is plain Pearson correlation over any overlap,
+     *  which the blocked and packed scans compute */
+    public boolean isPlain() {
+        return measure == Measure.PEARSON && minOverlap <= 1 && !weighted;
+    }
+
+    /** Return true if two users with the given numbers of ratings can share
+     *  minOverlap movies; no rating has to be read to know they can not */
+    public boolean canOverlap(int count, int otherCount) {
+        return count >= minOverlap && otherCount >= minOverlap;
+    }
+
+    /** Return true if n shared movies are enough */
+    public boolean accepts(int n) {
+        return n >= minOverlap;
+    }
+
+    /**
+     * Return the largest similarity of two users sharing the given number of
+     * movies: 0 below the minimum overlap, else 1, or the significance weight
+     * when weighted. Both measures are at most 1.
+     * @param shared number of shared movies
+     */
+    public double bound(int shared) {
+        if (!accepts(shared)) {
+            return 0;
+        }
+        if (weighted) {
+            return (double) Math.min(shared, MovieRatingsList.SIGNIFICANCE_OVERLAP) / MovieRatingsList.SIGNIFICANCE_OVERLAP;
+        }
+        return 1;
+    }
+
+    /**
+     * Computes the similarity from the sums over the n movies rated by both
+     * users, where x is the rating of the other user and y of this user.
+     *
+     * @param otherStats statistics of all the ratings of the other user
+     * @param mean       mean of all the ratings of this user
+     * @param norm       length of this user's mean-centred rating vector
+     * @return the similarity, 0 if the users share fewer than minOverlap movies
+     */
+    double score(int n, double sx, double sy, double sxy, double sx2, double sy2,
+                 RatingStats otherStats, double mean, double norm) {
+        if (!accepts(n)) {
+            return 0;
+        }
+        double similarity;
+        if (measure == Measure.PEARSON) {
+            similarity = MovieRatingsList.pearson(n, sx, sy, sxy, sx2, sy2);
+        } else {
+            double norms = otherStats.getCenteredNorm() * norm;
+            if (norms == 0) {
+                return 0;
+            }
+            double otherMean = otherStats.getMean();
+            // sum of (x - otherMean)(y - mean), expanded so that the pass only sums x, y and xy
+            similarity = (sxy - mean * sx - otherMean * sy + n * otherMean * mean) / norms;
+            similarity = Math.max(-1, Math.min(1, similarity)); // at most 1 but for rounding, as bound assumes
+        }
+        if (weighted && n < MovieRatingsList.SIGNIFICANCE_OVERLAP) {
+            similarity = similarity * n / MovieRatingsList.SIGNIFICANCE_OVERLAP;
+        }
+        return similarity;
+    }
+
+    @Override
+    public String toString() {
+        return measure + (weighted ? " weighted" : "") + (minOverlap > 1 ? " overlap>=" + minOverlap : "");
+    }
+}
@@ -0,0 +1,67 @@
+package movieRecommender;
+
+/** TimeWindow. A range of rating timestamps (seconds since the epoch, as in
+ *  the timestamp column of ratings.csv), inclusive on both ends. Queries
+ *  that take a window only use ratings made inside it.
+ */
+public class TimeWindow {
+    /** Window that contains every timestamp */
+    public static final TimeWindow ALL = new TimeWindow(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final long from;
+    private final long to;
+
+    /** A constructor for the TimeWindow.
+     * @param from first timestamp in the window
+     * @param to   last timestamp in the window
+     */
+    public TimeWindow(long from, long to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Empty time window: " + from + " > " + to);
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Return the window of the given number of days that ends at the given time.
+     * @param days length of the window in days
+     * @param now  last timestamp in the window
+     * @return window from now minus days to now
+     */
+    public static TimeWindow lastDays(int days, long now) {
+        return new TimeWindow(now - days * SECONDS_PER_DAY, now);
+    }
+
+    /** Return the first timestamp in the window */
+    public long getFrom() {
+        return from;
+    }
+
+    /** Return the last timestamp in the window */
+    public long getTo() {
+        return to;
+    }
+
+    /** Return true if this window contains every timestamp */
+    public boolean isAll() {
+        return from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+
+    /** Return true if the given timestamp is in the window */
+    public boolean contains(long time) {
+        return time >= from && time <= to;
+    }
+
+    /** Return true if some timestamp between min and max is in the window */
+    public boolean overlaps(long min, long max) {
+        return max >= from && min <= to;
+    }
+
+    /** Return true if every timestamp between min and max is in the window */
+    public boolean covers(long min, long max) {
+        return min >= from && max <= to;
+    }
+}
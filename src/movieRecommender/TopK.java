@@ -0,0 +1,144 @@
+package movieRecommender;
+
+import java.util.Arrays;
+
+/** TopK. Keeps the k ids with the largest scores seen so far, in a min-heap
+ *  of primitive arrays, so the k-th best score is available in O(1) and a
+ *  new candidate costs O(log k). When scores tie, the smaller id counts as
+ *  the better one, so the result does not depend on the order in which the
+ *  ids are offered.
+ */
+public class TopK {
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    /** A constructor for the TopK.
+     * @param k number of ids to keep
+     */
+    public TopK(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        ids = new int[k];
+        scores = new double[k];
+        size = 0;
+    }
+
+    /**
+     * Offer an id with its score.
+     * @param id    id of the candidate
+     * @param score score of the candidate
+     * @return true if the candidate is now among the top k
+     */
+    public boolean offer(int id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (score < scores[0] || (score == scores[0] && id > ids[0])) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /** Return true if k ids were offered */
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /** Return the number of ids kept */
+    public int size() {
+        return size;
+    }
+
+    /** Return the smallest score kept, the one a new candidate has to beat
+     *  once the heap is full */
+    public double minScore() {
+        return size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /** Return the kept ids ordered by score, best first */
+    public int[] sortedIds() {
+        int[] order = order();
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = ids[order[i]];
+        }
+        return result;
+    }
+
+    /** Return the kept scores ordered from best to worst */
+    public double[] sortedScores() {
+        int[] order = order();
+        double[] result = new double[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = scores[order[i]];
+        }
+        return result;
+    }
+
+    /** Positions of the heap sorted by score, best first (k is small, so a simple sort) */
+    private int[] order() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a])
+                : Integer.compare(ids[a], ids[b]));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && worse(left, smallest)) {
+                smallest = left;
+            }
+            if (right < size && worse(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    /** Return true if the entry at a ranks below the entry at b */
+    private boolean worse(int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && ids[a] > ids[b]);
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -1,29 +1,58 @@
 package movieRecommender;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /** UserNode. The class represents a node in the UsersList.
  *  Stores a userId, a list of ratings of type MovieRatingsList,
  *  and a reference to the "next" user in the list.
+ *  User and movie ids stored here are dense indices (see IdDictionary).
+ *  The ratings are also kept in time-ordered segments (see RatingSegment),
+ *  used by queries restricted to a time window.
+ *  In the compressed scan mode of UsersList the ratings are also packed
+ *  into a CompressedRatings, which the similarity methods then read
+ *  instead of the list.
+ *  In the lazy mode of UsersList the list and the segments are only in
+ *  memory while the user is resident (see UserStore); every method pages
+ *  them in when needed, except the similarity methods of the neighbour
+ *  scan, which read the packed ratings of the store instead.
  *  FILL IN CODE in methods getFavoriteMovies and getLeastFavoriteMovies
  *
  *  Do not modify signatures of methods.
  *  */
 public class UserNode {
     private int userId;
-    private MovieRatingsList movieRatings;
+    private volatile MovieRatingsList movieRatings; // null while paged out
+    private volatile ArrayList<RatingSegment> segments; // ratings in time order, oldest first
+    private volatile CompressedRatings compressed; // packed ratings for the similarity scan, null if not built
+    private UserStore store; // store the ratings are paged in from, null if they always stay in memory
     private UserNode nextUser;
 
     /** A constructor for the UserNode.
-     * @param id 	User id
+     * @param id 	dense index of the user
      * */
     public UserNode(int id) {
         userId = id;
         movieRatings = new MovieRatingsList();
+        segments = new ArrayList<>();
         nextUser = null;
     }
 
+    /**
+     * Return a node for a user of the lazy mode whose ratings are in the
+     * store and are paged in when needed.
+     * @param id    dense index of the user
+     * @param store store with the ratings of the user
+     */
+    public static UserNode stored(int id, UserStore store) {
+        UserNode node = new UserNode(id);
+        node.movieRatings = null;
+        node.segments = null;
+        node.store = store;
+        return node;
+    }
+
     /**
      * Getter for the next reference
      * @return the next node in the linked list of users
@@ -40,7 +69,65 @@ public class UserNode {
         this.nextUser = anotherUserNode;
     }
 
-    /** Return a userId stored in this node */
+    /** Return the ratings of this user, sorted by rating */
+    public MovieRatingsList getMovieRatings() {
+        return ratings();
+    }
+
+    /** Return the list, paged in if needed, and mark the user as touched */
+    private MovieRatingsList ratings() {
+        MovieRatingsList list = movieRatings;
+        if (store == null) {
+            return list;
+        }
+        while (list == null) {
+            store.load(this);
+            list = movieRatings;
+        }
+        store.touch(userId);
+        return list;
+    }
+
+    /** Return the segments, paged in if needed */
+    private ArrayList<RatingSegment> segments() {
+        ArrayList<RatingSegment> list = segments;
+        while (list == null) {
+            store.load(this);
+            list = segments;
+        }
+        return list;
+    }
+
+    /** Return true if the ratings of this user are in memory */
+    public boolean isResident() {
+        return movieRatings != null;
+    }
+
+    /** Return the number of ratings, without paging the user in */
+    public int getNumRatings() {
+        MovieRatingsList list = movieRatings;
+        return list != null ? list.getStats().getCount() : store.count(userId);
+    }
+
+    /** Set the store of a new user of the lazy mode (see UserStore.add) */
+    void setStore(UserStore store) {
+        this.store = store;
+    }
+
+    /** Take the ratings read by UserStore.load */
+    void pageIn(MovieRatingsList list, ArrayList<RatingSegment> sortedSegments) {
+        segments = sortedSegments;
+        movieRatings = list;
+    }
+
+    /** Drop the ratings from memory; UserStore.evict saved them first */
+    void pageOut() {
+        movieRatings = null;
+        segments = null;
+        compressed = null;
+    }
+
+    /** Return a userId (dense index) stored in this node */
     public int getId() {
         return userId;
     }
@@ -50,8 +137,39 @@ public class UserNode {
      *  Expected format: (userid) movieId:rating; movieId:rating; movieId:rating; */
     public void print() {
         System.out.print("(" + userId + ") ");
-        movieRatings.print();
+        ratings().print();
+
+    }
 
+    /** Return info contained in this node with external ids, in the same
+     *  format as print: (userid) movieId:rating; movieId:rating;
+     * @param userIds dictionary of user ids
+     * @param movieIds dictionary of movie ids
+     * @return formatted line for this user
+     */
+    public String format(IdDictionary userIds, IdDictionary movieIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('(').append(userIds.externalId(userId)).append(") ");
+        for (MovieRatingNode node : ratings()) {
+            sb.append(movieIds.externalId(node.getMovieId())).append(':')
+                    .append(node.getMovieRating()).append("; ");
+        }
+        return sb.toString();
+    }
+
+    /** Append the line of format(), with its line break, to a buffer
+     *  without building Strings, for exports of many users.
+     * @param out buffer to append to
+     * @param userIds dictionary of user ids
+     * @param movieIds dictionary of movie ids
+     */
+    public void appendTo(ExportBuffer out, IdDictionary userIds, IdDictionary movieIds) {
+        out.append('(').append(userIds.externalId(userId)).append(')').append(' ');
+        for (MovieRatingNode node : ratings()) {
+            out.append(movieIds.externalId(node.getMovieId())).append(':')
+                    .appendRating(node.getMovieRating()).append(';').append(' ');
+        }
+        out.append('\n');
     }
 
 
@@ -59,12 +177,207 @@ public class UserNode {
      * Add rating info for a given movie to the MovieRatingsList
      *  for this user node
      *
-     * @param movieId id of the movie
+     * @param movieId index of the movie
      * @param rating  rating of the movie
      */
     public void insert(int movieId, double rating) {
-        movieRatings.insertByRating(movieId, rating);
+        insert(movieId, rating, 0);
+    }
+
+    /**
+     * Add rating info for a given movie, rated at the given time, to the
+     * MovieRatingsList and to the newest rating segment of this user node.
+     * If the user already rated the movie, the rating is changed instead
+     * (see setRating), so the old rating does not stay in its segment.
+     *
+     * @param movieId index of the movie
+     * @param rating  rating of the movie
+     * @param time    timestamp of the rating
+     */
+    public void insert(int movieId, double rating, long time) {
+        if (hasRated(movieId)) {
+            setRating(movieId, rating, time);
+            return;
+        }
+        ratings().insertByRating(movieId, rating);
+        compressed = null;
+
+        ArrayList<RatingSegment> segments = segments();
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+            segments.add(new RatingSegment());
+        }
+        segments.get(segments.size() - 1).add(movieId, rating, time);
+        if (store != null) {
+            store.changed(userId);
+        }
+    }
+
+    /**
+     * Change the rating of a movie this user already rated. The old rating
+     * is also removed from its segment, and the new one is added to the
+     * newest segment with the given time.
+     *
+     * @param movieId index of the movie
+     * @param rating  new rating of the movie
+     * @param time    timestamp of the new rating
+     */
+    public void setRating(int movieId, double rating, long time) {
+        ratings().setRating(movieId, rating);
+        compressed = null;
+
+        ArrayList<RatingSegment> segments = segments();
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            if (segments.get(s).remove(movieId)) {
+                break;
+            }
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+            segments.add(new RatingSegment());
+        }
+        segments.get(segments.size() - 1).add(movieId, rating, time);
+        if (store != null) {
+            store.changed(userId);
+        }
+    }
+
+    /**
+     * Add or change several ratings of this user at once, in the given
+     * order, as insert(int, double, long) does for each. The packed ratings
+     * are dropped and the store is told about the change once for the
+     * whole run instead of once per rating.
+     *
+     * @param movies    indices of the movies
+     * @param ratings   ratings of the movies
+     * @param times     timestamps of the ratings
+     * @param positions positions in the arrays to add, in order
+     * @param from      first entry of positions to add
+     * @param to        entry of positions after the last one to add
+     * @param oldRatings array that gets, at the same position, the rating
+     *                   each one replaced, -1 for a new rating
+     */
+    public void insertAll(int[] movies, double[] ratings, long[] times, int[] positions, int from, int to,
+                          double[] oldRatings) {
+        MovieRatingsList list = ratings();
+        ArrayList<RatingSegment> segments = segments();
+        for (int i = from; i < to; i++) {
+            int p = positions[i];
+            oldRatings[p] = list.getRating(movies[p]);
+            if (oldRatings[p] != -1) {
+                list.setRating(movies[p], ratings[p]);
+                for (int s = segments.size() - 1; s >= 0; s--) {
+                    if (segments.get(s).remove(movies[p])) {
+                        break;
+                    }
+                }
+            } else {
+                list.insertByRating(movies[p], ratings[p]);
+            }
+            if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+                segments.add(new RatingSegment());
+            }
+            segments.get(segments.size() - 1).add(movies[p], ratings[p], times[p]);
+        }
+        compressed = null;
+        if (store != null) {
+            store.changed(userId);
+        }
+    }
+
+    /** Pack the ratings into a CompressedRatings, used by the similarity
+     *  methods until the ratings change. A user with a rating that is not
+     *  a half star is not packed and keeps using the list. */
+    public void compress() {
+        compressed = CompressedRatings.of(ratings());
+    }
+
+    /** Drop the packed ratings; the similarity methods read the list again */
+    public void dropCompressed() {
+        compressed = null;
+    }
+
+    /** Replace the packed ratings with the same ratings stored elsewhere (see CompressedRatings.copyTo) */
+    public void setCompressed(CompressedRatings compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Return a new node with the same ratings, for UsersList.reorderUsers:
+     * the node and its rating nodes are allocated now, next to each other.
+     * The segments and packed ratings are taken over, so this node must
+     * not be used afterwards. A user of the lazy mode that is not resident
+     * stays paged out.
+     */
+    public UserNode relocate() {
+        UserNode copy = new UserNode(userId);
+        MovieRatingsList list = movieRatings;
+        copy.store = store;
+        copy.movieRatings = list == null ? null : list.copy();
+        copy.segments = segments;
+        copy.compressed = compressed;
+        return copy;
+    }
+
+    /** Return the packed ratings, null if they are not built or out of date */
+    public CompressedRatings getCompressed() {
+        return compressed;
+    }
+
+    /** Return true if this user rated the movie with the given index */
+    public boolean hasRated(int movieId) {
+        return ratings().getRating(movieId) != -1;
+    }
 
+    /**
+     * Sort the ratings of this user by time and store them in full segments.
+     * Called after a bulk load, since ratings files are not in time order.
+     */
+    public void sortSegments() {
+        ArrayList<RatingSegment> segments = this.segments;
+        if (segments == null) {
+            return; // paged out: the store pages in sorted segments
+        }
+        ArrayList<RatingSegment> sorted = new ArrayList<>();
+        RatingSegment.sortByTime(segments, sorted);
+        this.segments = sorted;
+    }
+
+    /**
+     * Merge all segments that only have ratings older than the given time
+     * into one frozen segment.
+     *
+     * @param before timestamp; segments with newer ratings are kept as they are
+     * @return number of segments that were merged
+     */
+    public int compactSegments(long before) {
+        ArrayList<RatingSegment> segments = this.segments;
+        if (segments == null) {
+            return 0; // paged out: the store pages in sorted segments
+        }
+        ArrayList<RatingSegment> old = new ArrayList<>();
+        ArrayList<RatingSegment> kept = new ArrayList<>();
+        for (RatingSegment segment : segments) {
+            if (segment.getMaxTime() < before) {
+                old.add(segment);
+            } else {
+                kept.add(segment);
+            }
+        }
+        if (old.size() < 2) {
+            return 0;
+        }
+        kept.add(0, RatingSegment.freeze(old));
+        this.segments = kept;
+        return old.size();
+    }
+
+    /** Return the number of rating segments of this user */
+    public int getNumSegments() {
+        return segments().size();
+    }
+
+    /** Return the rating segment with the given number */
+    public RatingSegment getSegment(int i) {
+        return segments().get(i);
     }
 
     /**
@@ -72,12 +385,13 @@ public class UserNode {
      * movies that this user gave the rating of 5.
      *
      * @param n  the maximum number of movies to return
-     * @return array containing movie ids of movies rated as 5 (by this user)
+     * @return array containing movie indices of movies rated as 5 (by this user),
+     * no longer than the number of such movies
      */
     public int[] getFavoriteMovies(int n) {
         int[] lst = new int[n];
         int i = 0;
-        Iterator<MovieRatingNode> iter = this.movieRatings.iterator();
+        Iterator<MovieRatingNode> iter = ratings().iterator();
         while (iter.hasNext() && i<n)
         {
             MovieRatingNode mr = iter.next();
@@ -90,7 +404,8 @@ public class UserNode {
 
         }
 
-        return lst;
+        // 0 is a valid movie index, so trim instead of leaving zeros at the end
+        return Arrays.copyOf(lst, i);
     }
 
     /**
@@ -98,12 +413,13 @@ public class UserNode {
      * are the movies that this user gave the rating of 1.
      *
      * @param n the maximum number of movies to return
-     * @return array of movie ids of movies rated as 1
+     * @return array of movie indices of movies rated as 1, no longer than
+     * the number of such movies
      */
     public int[] getLeastFavoriteMovies(int n) {
         int[] lst = new int[n];
         int i = 0;
-        Iterator<MovieRatingNode> iter = this.movieRatings.iterator();
+        Iterator<MovieRatingNode> iter = ratings().iterator();
         while (iter.hasNext() && i<n)
         {
             MovieRatingNode mr = iter.next();
@@ -116,9 +432,107 @@ public class UserNode {
 
         }
 
-        return lst;
+        // 0 is a valid movie index, so trim instead of leaving zeros at the end
+        return Arrays.copyOf(lst, i);
+    }
+
+
+    /**
+     * Returns an array of user's favorite movies (up to n) that pass the
+     * given filter. Movies rejected by the filter are skipped while the list
+     * is walked, so the result has n movies if this user rated enough
+     * accepted movies as 5.
+     *
+     * @param n      the maximum number of movies to return
+     * @param filter filter of the query
+     * @return array containing movie indices of accepted movies rated as 5
+     */
+    public int[] getFavoriteMovies(int n, MovieFilter filter) {
+        return getMoviesWithRating(5, n, filter);
+    }
+
+    /**
+     * Returns an array of movies the user likes the least (up to n) that
+     * pass the given filter.
+     *
+     * @param n      the maximum number of movies to return
+     * @param filter filter of the query
+     * @return array containing movie indices of accepted movies rated as 1
+     */
+    public int[] getLeastFavoriteMovies(int n, MovieFilter filter) {
+        return getMoviesWithRating(1, n, filter);
+    }
+
+    /**
+     * Returns an array of user's favorite movies (up to n) that pass the
+     * given filter and were rated inside the time window, newest first.
+     * Segments outside the window are skipped.
+     *
+     * @param n      the maximum number of movies to return
+     * @param filter filter of the query
+     * @param window time window of the query
+     * @return array containing movie indices of accepted movies rated as 5
+     */
+    public int[] getFavoriteMovies(int n, MovieFilter filter, TimeWindow window) {
+        if (window.isAll()) {
+            return getFavoriteMovies(n, filter);
+        }
+        return getMoviesWithRating(5, n, filter, window);
+    }
+
+    /**
+     * Returns an array of movies the user likes the least (up to n) that
+     * pass the given filter and were rated inside the time window.
+     *
+     * @param n      the maximum number of movies to return
+     * @param filter filter of the query
+     * @param window time window of the query
+     * @return array containing movie indices of accepted movies rated as 1
+     */
+    public int[] getLeastFavoriteMovies(int n, MovieFilter filter, TimeWindow window) {
+        if (window.isAll()) {
+            return getLeastFavoriteMovies(n, filter);
+        }
+        return getMoviesWithRating(1, n, filter, window);
+    }
+
+    /** Collect up to n movies with the given rating that pass the filter,
+     *  walking the segments that overlap the window from the newest one */
+    private int[] getMoviesWithRating(double rating, int n, MovieFilter filter, TimeWindow window) {
+        int[] lst = new int[n];
+        int count = 0;
+        ArrayList<RatingSegment> segments = segments();
+        for (int s = segments.size() - 1; s >= 0 && count < n; s--) {
+            RatingSegment segment = segments.get(s);
+            if (!window.overlaps(segment.getMinTime(), segment.getMaxTime())) {
+                continue;
+            }
+            for (int i = segment.size() - 1; i >= 0 && count < n; i--) {
+                if (segment.getRating(i) == rating && window.contains(segment.getTime(i))
+                        && filter.accept(segment.getMovie(i))) {
+                    lst[count++] = segment.getMovie(i);
+                }
+            }
+        }
+        return Arrays.copyOf(lst, count);
     }
 
+    /** Collect up to n movies with the given rating that pass the filter */
+    private int[] getMoviesWithRating(double rating, int n, MovieFilter filter) {
+        int[] lst = new int[n];
+        int i = 0;
+        Iterator<MovieRatingNode> iter = ratings().iterator();
+        while (iter.hasNext() && i<n)
+        {
+            MovieRatingNode mr = iter.next();
+            if (mr.getMovieRating() == rating && filter.accept(mr.getMovieId())){
+                lst[i] = mr.getMovieId();
+                i+=1;
+            }
+        }
+
+        return Arrays.copyOf(lst, i);
+    }
 
     /**
      * Computes the similarity of this user with the given "other" user using
@@ -129,21 +543,232 @@ public class UserNode {
      * @return similarity score
      */
     public double computeSimilarity(UserNode otherUser) {
-        return movieRatings.computeSimilarity(otherUser.movieRatings);
+        return ratings().computeSimilarity(otherUser.ratings());
+    }
+    /**
+     * Computes the similarity of this user with ratings spread into a dense
+     * array indexed by movie index - simply calls computeSimilarity method
+     * from MovieRatingsList
+     *
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @return similarity score
+     */
+    public double computeSimilarity(double[] otherRatings) {
+        CompressedRatings packed = compressed;
+        if (packed != null) {
+            return packed.computeSimilarity(otherRatings);
+        }
+        MovieRatingsList list = movieRatings;
+        if (list == null) {
+            return store.packed(userId).computeSimilarity(otherRatings); // paged out: scan the store, do not page in
+        }
+        return list.computeSimilarity(otherRatings);
+    }
+
+    /**
+     * Computes significance weighted similarity of this user with ratings
+     * spread into a dense array - simply calls computeWeightedSimilarity
+     * method from MovieRatingsList
+     *
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @return significance weighted similarity score
+     */
+    public double computeWeightedSimilarity(double[] otherRatings) {
+        CompressedRatings packed = compressed;
+        if (packed != null) {
+            return packed.computeWeightedSimilarity(otherRatings);
+        }
+        MovieRatingsList list = movieRatings;
+        if (list == null) {
+            return store.packed(userId).computeWeightedSimilarity(otherRatings);
+        }
+        return list.computeWeightedSimilarity(otherRatings);
+    }
+
+    /**
+     * Computes the given kind of similarity of this user with ratings spread
+     * into a dense array (see Similarity) - calls computeSimilarity method
+     * from MovieRatingsList, or from CompressedRatings for packed and paged
+     * out ratings. A user with fewer ratings than the minimum overlap is
+     * rejected on its count, without reading its ratings from the store.
+     *
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @param otherStats   statistics of the other user's ratings
+     * @param similarity   measure, minimum overlap and weighting
+     * @return similarity score, 0 if the users share too few movies
+     */
+    public double computeSimilarity(double[] otherRatings, RatingStats otherStats, Similarity similarity) {
+        if (!similarity.canOverlap(getNumRatings(), otherStats.getCount())) {
+            Metrics.increment(Metrics.Counter.OVERLAP_REJECTED);
+            return 0;
+        }
+        CompressedRatings packed = compressed;
+        MovieRatingsList list = movieRatings;
+        if (packed != null) {
+            return packed.computeSimilarity(otherRatings, otherStats, similarity, list == null ? null : list.getStats());
+        }
+        if (list == null) {
+            return store.packed(userId).computeSimilarity(otherRatings, otherStats, similarity, null);
+        }
+        return list.computeSimilarity(otherRatings, otherStats, similarity);
+    }
+
+    /**
+     * Copy the ratings into arrays, in the order computeSimilarity(double[])
+     * reads them (list order, or movie order for packed ratings), so that a
+     * kernel summing over them gets the same similarity to the last bit.
+     * Does not page the user in.
+     *
+     * @param movies  array of at least getNumRatings() for the movie indices
+     * @param ratings array of at least getNumRatings() for the ratings
+     * @return number of ratings copied
+     */
+    public int copyRatings(int[] movies, double[] ratings) {
+        CompressedRatings packed = compressed;
+        MovieRatingsList list = movieRatings;
+        if (packed == null && list == null) {
+            packed = store.packed(userId);
+        }
+        if (packed != null) {
+            packed.decode(movies, ratings);
+            return packed.size();
+        }
+        int n = 0;
+        for (MovieRatingNode node : list) {
+            movies[n] = node.getMovieId();
+            ratings[n++] = node.getMovieRating();
+        }
+        return n;
+    }
+
+    /**
+     * Computes mean-centred cosine similarity of this user with ratings
+     * spread into a dense array - simply calls computeCenteredSimilarity
+     * method from MovieRatingsList
+     *
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @param otherStats   statistics of the other user's ratings
+     * @return similarity score
+     */
+    public double computeCenteredSimilarity(double[] otherRatings, RatingStats otherStats) {
+        return ratings().computeCenteredSimilarity(otherRatings, otherStats);
+    }
+
+    /** Return the summary statistics of this user's ratings: count, sums,
+     *  mean, median and percentiles */
+    public RatingStats getStats() {
+        return ratings().getStats();
+    }
+
+    /**
+     * Returns the ratings of this user spread into a dense array indexed by
+     * movie index, 0 for movies the user did not rate.
+     *
+     * @param numMovies number of movie indices
+     */
+    public double[] denseRatings(int numMovies) {
+        double[] ratings = new double[numMovies];
+        ratings().spreadInto(ratings);
+        return ratings;
+    }
+
+    /**
+     * Computes the similarity of this user with ratings spread into a dense
+     * array using Pearson correlation, using only the ratings of this user
+     * made inside the time window. Segments outside the window are skipped,
+     * segments inside it are used without checking each timestamp.
+     *
+     * @param otherRatings rating of every movie indexed by movie index, 0 if not rated
+     * @param window       time window of the query
+     * @return similarity score
+     */
+    public double computeSimilarity(double[] otherRatings, TimeWindow window) {
+        if (window.isAll()) {
+            return computeSimilarity(otherRatings);
+        }
+        Metrics.increment(Metrics.Counter.SIMILARITY_CALLS);
+        int n = 0;
+        double sx = 0, sy = 0, sxy = 0, sx2 = 0, sy2 = 0;
+        for (RatingSegment segment : segments()) {
+            if (!window.overlaps(segment.getMinTime(), segment.getMaxTime())) {
+                continue;
+            }
+            boolean covered = window.covers(segment.getMinTime(), segment.getMaxTime());
+            for (int i = 0; i < segment.size(); i++) {
+                int movie = segment.getMovie(i);
+                if (movie >= otherRatings.length || otherRatings[movie] == 0) {
+                    continue;
+                }
+                if (!covered && !window.contains(segment.getTime(i))) {
+                    continue;
+                }
+                double x = otherRatings[movie];
+                double y = segment.getRating(i);
+                n++;
+                sx += x;
+                sy += y;
+                sxy += x * y;
+                sx2 += x * x;
+                sy2 += y * y;
+            }
+        }
+        return MovieRatingsList.pearson(n, sx, sy, sxy, sx2, sy2);
     }
+
     /**
-     * Returns HashSet consisting of all the movie_id  watched by the user.
+     * Returns the ratings of this user made inside the time window, spread
+     * into a dense array indexed by movie index, 0 for other movies.
+     *
+     * @param numMovies number of movie indices
+     * @param window    time window of the query
+     */
+    public double[] denseRatings(int numMovies, TimeWindow window) {
+        if (window.isAll()) {
+            return denseRatings(numMovies);
+        }
+        double[] ratings = new double[numMovies];
+        for (RatingSegment segment : segments()) {
+            if (!window.overlaps(segment.getMinTime(), segment.getMaxTime())) {
+                continue;
+            }
+            for (int i = 0; i < segment.size(); i++) {
+                if (window.contains(segment.getTime(i))) {
+                    ratings[segment.getMovie(i)] = segment.getRating(i);
+                }
+            }
+        }
+        return ratings;
+    }
+
+    /** Return true if this user has a rating inside the time window */
+    public boolean hasRatingsIn(TimeWindow window) {
+        ArrayList<RatingSegment> segments = this.segments;
+        if (segments == null) {
+            return window.overlaps(store.getMinTime(userId), store.getMaxTime(userId)); // paged out: the ratings are unchanged since they were stored
+        }
+        for (RatingSegment segment : segments) {
+            if (window.overlaps(segment.getMinTime(), segment.getMaxTime())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the movies watched by the user, indexed by movie index.
+     *
+     * @param numMovies number of movie indices
      */
-    public HashSet<Integer> alreadyWatched(){
+    public boolean[] alreadyWatched(int numMovies){
 
-        Iterator<MovieRatingNode> iter = movieRatings.iterator();
-        HashSet<Integer> set = new HashSet<>();
+        Iterator<MovieRatingNode> iter = ratings().iterator();
+        boolean[] watched = new boolean[numMovies];
         while (iter.hasNext()){
             MovieRatingNode mr  = iter.next();
-            set.add(mr.getMovieId());
+            watched[mr.getMovieId()] = true;
         }
 
-        return set;
+        return watched;
     }
 
 }
@@ -0,0 +1,614 @@
+package movieRecommender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** UserStore. The ratings of all users in a binary file with an offset
+ *  index, for the lazy mode of UsersList: only a small directory entry per
+ *  user stays on the heap, and the ratings of a user are paged in from the
+ *  file when a query first touches them.
+ *
+ *  At most capacity users are resident. When a user has to be paged in and
+ *  the resident set is full, a clock hand goes round the resident users:
+ *  a user touched since the hand last passed gets a second chance, the
+ *  first one that was not is evicted. A user whose ratings changed while
+ *  resident is appended to the end of the file before it is evicted, and
+ *  its directory entry points to the new block. Once the old blocks make
+ *  up more than half of the file, compactIfNeeded rewrites it.
+ *
+ *  The neighbour scan does not page users in: for a user that is not
+ *  resident it reads the packed ratings straight from the file (mapped into
+ *  memory, so from the page cache), and it does not count as a touch. So a
+ *  scan over all users neither fills the resident set nor pushes the hot
+ *  users out. Queries restricted to a time window do page in the users with
+ *  ratings in the window; the directory keeps the time range of every user
+ *  to skip the others.
+ *
+ *  File layout, numbers big-endian:
+ *  - header: magic int, number of movies int, number of users int, offset of the directory long
+ *  - the external id of every movie index, an int each
+ *  - a block per user: the ratings packed as in CompressedRatings (so only
+ *    half-star ratings can be stored), then the time of each rating in the same
+ *    movie order, as varints of time - min time of the user
+ *  - the directory, an entry per user index: external id int, block offset
+ *    long, packed bytes int, block bytes int, number of ratings int, min time
+ *    long, max time long
+ *
+ *  If the block of a changed user can not be written, the user is not
+ *  evicted: the error is counted in Metrics and the hand moves on to the
+ *  next user. Only if no resident user can be written does the page-in or
+ *  the new user that needed the room fail with an UncheckedIOException.
+ *  MovieRecommender.addRatings turns away ratings that are not half stars
+ *  while a store is attached, so that should only happen on I/O errors.
+ *  StoreBenchmark compares the query time of a full load and the lazy mode.
+ */
+public class UserStore implements Closeable {
+    private static final int MAGIC = 0x4D525553; // "MRUS"
+    private static final int HEADER_BYTES = 20;
+    private static final long COMPACT_MIN_BYTES = 1 << 20; // smaller files are not worth compacting
+
+    private final File file;
+    private final IdDictionary userIds;
+    private final IdDictionary movieIds;
+    private FileChannel channel;
+    private MappedByteBuffer map; // the file as it was opened or compacted, null if it is too large to map
+    private long mapped; // number of bytes in map
+    private long fileLength; // blocks of evicted users that changed are appended here
+    private long liveBytes; // bytes of the blocks the directory points to
+    private long compactAt; // file length above which compactIfNeeded rewrites the file
+
+    // the directory, indexed by user index
+    private long[] offsets = new long[0];
+    private int[] packedLengths = new int[0];
+    private int[] blockLengths = new int[0];
+    private int[] counts = new int[0];
+    private long[] minTimes = new long[0];
+    private long[] maxTimes = new long[0];
+    private int numUsers;
+
+    // the resident set
+    private UsersList users;
+    private final int capacity;
+    private final int[] clock; // user index in each slot of the clock
+    private int numResident;
+    private int hand;
+    private int[] slots = new int[0]; // slot of each user index in the clock, -1 if not resident
+    private boolean[] referenced = new boolean[0]; // touched since the hand last passed
+    private boolean[] dirty = new boolean[0]; // changed since the block was written
+
+    private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[1 << 12]);
+
+    private UserStore(File file, IdDictionary userIds, IdDictionary movieIds, int capacity) {
+        this.file = file;
+        this.userIds = userIds;
+        this.movieIds = movieIds;
+        this.capacity = Math.max(1, capacity);
+        clock = new int[this.capacity];
+    }
+
+    /** Use the given open file from now on, mapped into memory if it is small enough */
+    private void setChannel(FileChannel channel) throws IOException {
+        this.channel = channel;
+        fileLength = channel.size();
+        mapped = fileLength <= Integer.MAX_VALUE ? fileLength : 0;
+        map = mapped > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, 0, mapped) : null;
+    }
+
+    /**
+     * Write the ratings of all users to a store file. The file is written
+     * under a temporary name and renamed, so an open store of the same name
+     * keeps reading the file it opened, and a crash leaves the old file.
+     * @param users the users
+     * @param userIds dictionary of user ids
+     * @param movieIds dictionary of movie ids
+     * @param filename file to write
+     * @throws IOException if the file can not be written
+     */
+    public static void write(UsersList users, IdDictionary userIds, IdDictionary movieIds, String filename)
+            throws IOException {
+        File temp = new File(filename + ".tmp");
+        try {
+            writeFile(users, userIds, movieIds, temp);
+            Files.move(temp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /** Write the ratings of all users to the given file and sync it */
+    private static void writeFile(UsersList users, IdDictionary userIds, IdDictionary movieIds, File target)
+            throws IOException {
+        int numUsers = userIds.size();
+        long[] offsets = new long[numUsers];
+        int[] packedLengths = new int[numUsers];
+        int[] blockLengths = new int[numUsers];
+        int[] counts = new int[numUsers];
+        long[] minTimes = new long[numUsers];
+        long[] maxTimes = new long[numUsers];
+        UserStore source = users.getStore();
+        ExportBuffer block = new ExportBuffer(1 << 16);
+
+        long position;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(movieIds.size());
+            out.writeInt(numUsers);
+            out.writeLong(0); // the directory offset, set below
+            for (int m = 0; m < movieIds.size(); m++) {
+                out.writeInt(movieIds.externalId(m));
+            }
+            position = HEADER_BYTES + 4L * movieIds.size();
+
+            for (int u = 0; u < numUsers; u++) {
+                UserNode user = users.get(u);
+                block.reset();
+                if (user != null && !user.isResident()) {
+                    // a user of the lazy mode that is not resident: copy the block as it is
+                    block.ensure(source.blockLengths[u]);
+                    source.read(source.offsets[u], block.array(), source.blockLengths[u]);
+                    block.advance(source.blockLengths[u]);
+                    packedLengths[u] = source.packedLengths[u];
+                    counts[u] = source.counts[u];
+                    minTimes[u] = source.minTimes[u];
+                    maxTimes[u] = source.maxTimes[u];
+                } else if (user != null) {
+                    long[] summary = encode(user, block);
+                    packedLengths[u] = (int) summary[0];
+                    counts[u] = (int) summary[1];
+                    minTimes[u] = summary[2];
+                    maxTimes[u] = summary[3];
+                }
+                offsets[u] = position;
+                blockLengths[u] = block.length();
+                out.write(block.array(), 0, block.length());
+                position += block.length();
+            }
+
+            for (int u = 0; u < numUsers; u++) {
+                out.writeInt(userIds.externalId(u));
+                out.writeLong(offsets[u]);
+                out.writeInt(packedLengths[u]);
+                out.writeInt(blockLengths[u]);
+                out.writeInt(counts[u]);
+                out.writeLong(minTimes[u]);
+                out.writeLong(maxTimes[u]);
+            }
+        }
+        try (FileChannel file = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer directory = ByteBuffer.allocate(8);
+            directory.putLong(0, position);
+            file.write(directory, 12);
+            file.force(true);
+        }
+    }
+
+    /**
+     * Open a store file. The movie and user ids of the file are added to
+     * the dictionaries, which must be empty, so that every index is the
+     * same as when the file was written.
+     * @param filename file written by write
+     * @param userIds empty dictionary of user ids
+     * @param movieIds empty dictionary of movie ids
+     * @param capacity max number of resident users
+     * @return the store
+     * @throws IOException if the file can not be read or is not a store file
+     */
+    public static UserStore open(String filename, IdDictionary userIds, IdDictionary movieIds, int capacity)
+            throws IOException {
+        if (userIds.size() != 0 || movieIds.size() != 0) {
+            throw new IllegalStateException("the dictionaries must be empty");
+        }
+        UserStore store = new UserStore(new File(filename), userIds, movieIds, capacity);
+        store.readDirectory();
+        store.setChannel(FileChannel.open(store.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        store.compactAt = Math.max(2 * store.fileLength, COMPACT_MIN_BYTES);
+        return store;
+    }
+
+    /** Read the movie ids and the directory of the file into the dictionaries and the directory arrays */
+    private void readDirectory() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a ratings store");
+            }
+            int numMovies = in.readInt();
+            int numUsers = in.readInt();
+            long directoryOffset = in.readLong();
+            for (int m = 0; m < numMovies; m++) {
+                movieIds.getOrAdd(in.readInt());
+            }
+            if (movieIds.size() != numMovies) {
+                throw new IOException(file + " has a movie id twice");
+            }
+            long skip = directoryOffset - HEADER_BYTES - 4L * numMovies;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new IOException(file + " ends before its directory");
+                }
+                skip -= skipped;
+            }
+
+            ensure(numUsers);
+            liveBytes = 0;
+            for (int i = 0; i < numUsers; i++) {
+                int u = userIds.getOrAdd(in.readInt());
+                offsets[u] = in.readLong();
+                packedLengths[u] = in.readInt();
+                blockLengths[u] = in.readInt();
+                counts[u] = in.readInt();
+                minTimes[u] = in.readLong();
+                maxTimes[u] = in.readLong();
+                liveBytes += blockLengths[u];
+            }
+            this.numUsers = userIds.size();
+        }
+    }
+
+    /**
+     * Rewrite the file with only the current block of every user, once it
+     * has grown to twice its size after the last open or compaction, as the
+     * old blocks of changed users pile up. Must not run while another
+     * thread uses the store, so call it under the write lock of the
+     * recommender.
+     * @return true if the file was rewritten
+     * @throws IOException if the file can not be rewritten; the old file is
+     *         kept then, and the next try waits until it has doubled again
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        if (fileLength <= compactAt || fileLength - liveBytes <= liveBytes) {
+            return false;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            compactAt = 2 * fileLength;
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Rewrite the file with the current block of every user, written from
+     * memory for the resident users, and continue with the new file. The
+     * new file is a complete store file, as write makes it. Must not run
+     * while another thread uses the store.
+     * @throws IOException if the file can not be rewritten; the old file is kept then
+     */
+    public synchronized void compact() throws IOException {
+        File temp = new File(file.getPath() + ".compact");
+        FileChannel compacted = null;
+        try {
+            writeFile(users, userIds, movieIds, temp);
+            compacted = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (compacted != null) {
+                compacted.close();
+            }
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        FileChannel old = channel;
+        setChannel(compacted);
+        old.close();
+        readDirectory();
+        for (int u = 0; u < numUsers; u++) {
+            dirty[u] = false; // every resident user was just written from memory
+        }
+        compactAt = Math.max(2 * fileLength, COMPACT_MIN_BYTES);
+        Metrics.increment(Metrics.Counter.STORE_COMPACTIONS);
+    }
+
+    /** Set the users that are paged in and out; called by UsersList.attach */
+    void bind(UsersList users) {
+        this.users = users;
+    }
+
+    /** Return the number of users in the directory */
+    public int numUsers() {
+        return numUsers;
+    }
+
+    /** Return the number of ratings of the user when its block was written */
+    public int count(int user) {
+        return counts[user];
+    }
+
+    /** Return the time of the oldest rating of the user when its block was written */
+    public long getMinTime(int user) {
+        return minTimes[user];
+    }
+
+    /** Return the time of the newest rating of the user when its block was written */
+    public long getMaxTime(int user) {
+        return maxTimes[user];
+    }
+
+    /** Return the number of resident users */
+    public synchronized int numResident() {
+        return numResident;
+    }
+
+    /**
+     * Return the packed ratings of a user that is not resident, read from
+     * the file into a buffer of this thread. Valid until the next call by
+     * the same thread; does not page the user in.
+     * @param user index of the user
+     * @return the packed ratings
+     */
+    public CompressedRatings packed(int user) {
+        int length = packedLengths[user];
+        byte[] buffer = scratch.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            scratch.set(buffer);
+        }
+        read(offsets[user], buffer, length);
+        return CompressedRatings.wrap(buffer, 0, length, counts[user]);
+    }
+
+    /** Mark a resident user as touched, so the clock passes it over once */
+    public void touch(int user) {
+        boolean[] bits = referenced;
+        if (user < bits.length) {
+            bits[user] = true;
+        }
+    }
+
+    /** Mark the ratings of a resident user as changed, so they are written before it is evicted */
+    public synchronized void changed(int user) {
+        dirty[user] = true;
+    }
+
+    /**
+     * Page in the ratings of a user, evicting another user if the resident
+     * set is full. Does nothing if the user is resident.
+     * @param node the user
+     * @throws UncheckedIOException if the user to evict changed and can not be written
+     */
+    public void load(UserNode node) {
+        int user = node.getId();
+        long offset;
+        int length;
+        int packedLength;
+        int n;
+        long minTime;
+        synchronized (this) {
+            if (node.isResident()) {
+                return;
+            }
+            offset = offsets[user];
+            length = blockLengths[user];
+            packedLength = packedLengths[user];
+            n = counts[user];
+            minTime = minTimes[user];
+        }
+
+        // read and decode without holding the store, so page-ins of different users overlap
+        byte[] block = new byte[length];
+        read(offset, block, length);
+        int[] movies = new int[n];
+        double[] ratings = new double[n];
+        CompressedRatings.wrap(block, 0, packedLength, n).decode(movies, ratings);
+        MovieRatingsList list = new MovieRatingsList();
+        ArrayList<RatingSegment> segments = new ArrayList<>();
+        int pos = packedLength;
+        for (int i = 0; i < n; i++) {
+            long delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = block[pos++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            list.insertByRating(movies[i], ratings[i]);
+            if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+                segments.add(new RatingSegment());
+            }
+            segments.get(segments.size() - 1).add(movies[i], ratings[i], minTime + delta);
+        }
+        ArrayList<RatingSegment> sorted = new ArrayList<>();
+        RatingSegment.sortByTime(segments, sorted);
+
+        synchronized (this) {
+            // another thread paged the user in meanwhile, or the file was compacted: the caller asks again
+            if (node.isResident() || offsets[user] != offset) {
+                return;
+            }
+            admit(user);
+            node.pageIn(list, sorted);
+        }
+        Metrics.increment(Metrics.Counter.USER_PAGE_INS);
+    }
+
+    /**
+     * Take a new user, created with its ratings in memory, into the
+     * resident set; its block is written when it is evicted.
+     * @param node the new user
+     * @throws UncheckedIOException if the user to evict changed and can not be written;
+     *         the new user is not taken then
+     */
+    public synchronized void add(UserNode node) {
+        int user = node.getId();
+        ensure(user + 1);
+        admit(user);
+        numUsers = Math.max(numUsers, user + 1);
+        node.setStore(this);
+        dirty[user] = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Put a user into a free slot of the clock, evicting a user if there is none.
+     *  A user whose block can not be written stays resident, and the hand
+     *  moves on to the next one; only if no user can be evicted does it fail. */
+    private void admit(int user) {
+        int slot;
+        if (numResident < capacity) {
+            slot = numResident++;
+        } else {
+            IOException failure = null;
+            for (int tries = 0; ; tries++) {
+                while (referenced[clock[hand]]) {
+                    referenced[clock[hand]] = false;
+                    hand = (hand + 1) % capacity;
+                }
+                slot = hand;
+                hand = (hand + 1) % capacity;
+                try {
+                    evict(clock[slot]);
+                    break;
+                } catch (IOException e) {
+                    Metrics.increment(Metrics.Counter.ERRORS);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    if (tries == capacity - 1) {
+                        throw new UncheckedIOException("Could not write any resident user to the store", failure);
+                    }
+                }
+            }
+        }
+        clock[slot] = user;
+        slots[user] = slot;
+        referenced[user] = true;
+    }
+
+    /** Page out a user, appending its block to the file first if it changed.
+     *  If the block can not be written, the user stays resident. */
+    private void evict(int user) throws IOException {
+        UserNode node = users.get(user);
+        if (dirty[user]) {
+            ExportBuffer block = new ExportBuffer();
+            long[] summary = encode(node, block);
+            ByteBuffer buffer = ByteBuffer.wrap(block.array(), 0, block.length());
+            long position = fileLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            offsets[user] = fileLength;
+            fileLength += block.length();
+            liveBytes += block.length() - blockLengths[user];
+            blockLengths[user] = block.length();
+            packedLengths[user] = (int) summary[0];
+            counts[user] = (int) summary[1];
+            minTimes[user] = summary[2];
+            maxTimes[user] = summary[3];
+            dirty[user] = false;
+        }
+        slots[user] = -1;
+        node.pageOut();
+        Metrics.increment(Metrics.Counter.USER_EVICTIONS);
+    }
+
+    /**
+     * Append the block of a resident user to a buffer.
+     * @return packed bytes, number of ratings, min time and max time
+     * @throws IOException if a rating of the user is not a half star, which the block can not hold
+     */
+    private static long[] encode(UserNode user, ExportBuffer block) throws IOException {
+        MovieRatingsList list = user.getMovieRatings();
+        CompressedRatings packed = CompressedRatings.of(list);
+        if (packed == null) {
+            throw new IOException("User " + user.getId() + " has a rating that is not a half star");
+        }
+        block.ensure(packed.byteSize());
+        packed.copyTo(block.array(), block.length());
+        block.advance(packed.byteSize());
+
+        // times by movie, in the order of the packed ratings
+        int n = 0;
+        for (int s = 0; s < user.getNumSegments(); s++) {
+            n += user.getSegment(s).size();
+        }
+        long[] keys = new long[n];
+        long[] times = new long[n];
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int i = 0;
+        for (int s = 0; s < user.getNumSegments(); s++) {
+            RatingSegment segment = user.getSegment(s);
+            for (int j = 0; j < segment.size(); j++, i++) {
+                times[i] = segment.getTime(j);
+                keys[i] = (long) segment.getMovie(j) << 32 | i;
+                minTime = Math.min(minTime, times[i]);
+                maxTime = Math.max(maxTime, times[i]);
+            }
+        }
+        Arrays.sort(keys);
+        if (n == 0) {
+            minTime = 0;
+            maxTime = 0;
+        }
+        for (long key : keys) {
+            long delta = times[(int) key] - minTime;
+            while ((delta & ~0x7FL) != 0) {
+                block.append((byte) (delta & 0x7F | 0x80));
+                delta >>>= 7;
+            }
+            block.append((byte) delta);
+        }
+        return new long[] {packed.byteSize(), packed.size(), minTime, maxTime};
+    }
+
+    /** Read bytes of the file, from the mapping if they are in it */
+    private void read(long position, byte[] dst, int length) {
+        if (position + length <= mapped) {
+            ByteBuffer view = map.duplicate();
+            view.position((int) position);
+            view.get(dst, 0, length);
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(dst, 0, length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("ratings store ends early");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read the ratings store", e);
+        }
+    }
+
+    private void ensure(int n) {
+        if (n <= offsets.length) {
+            return;
+        }
+        int size = Math.max(n, offsets.length * 2);
+        int old = slots.length;
+        offsets = Arrays.copyOf(offsets, size);
+        packedLengths = Arrays.copyOf(packedLengths, size);
+        blockLengths = Arrays.copyOf(blockLengths, size);
+        counts = Arrays.copyOf(counts, size);
+        minTimes = Arrays.copyOf(minTimes, size);
+        maxTimes = Arrays.copyOf(maxTimes, size);
+        slots = Arrays.copyOf(slots, size);
+        Arrays.fill(slots, old, size, -1);
+        referenced = Arrays.copyOf(referenced, size);
+        dirty = Arrays.copyOf(dirty, size);
+    }
+}
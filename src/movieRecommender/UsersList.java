@@ -1,39 +1,113 @@
 package movieRecommender;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * A custom linked list that stores user info. Each node in the list is of type
  * UserNode.
- * FILL IN CODE. Also, add other methods as needed.
+ * Users and movies are identified by dense indices assigned by the userIds
+ * and movieIds dictionaries; external ids are only used when printing.
  *
  * @author okarpenko
  *
  */
 public class UsersList {
+    /** Number of users in one block of an export */
+    public static final int EXPORT_BLOCK_USERS = 512;
+    /** Number of users findMostSimilarUser(int[], double[]) scores in one pass */
+    public static final int SCORING_BLOCK = 32;
+
     private UserNode head = null;
     private UserNode tail = null; // ok to store tail here, will be handy for appending
+    private UserNode[] users = new UserNode[16]; // user nodes indexed by user index
+    private int numUsers = 0;
+    private final IdDictionary userIds;
+    private final IdDictionary movieIds;
+    private long lastRatingTime = Long.MIN_VALUE; // timestamp of the newest rating
+    private int[][] postings = new int[16][]; // users who rated each movie index
+    private int[] postingLengths = new int[16];
+    private long numRatings = 0; // number of ratings of all users
+    private final LongAdder similarityCalls = new LongAdder(); // similarities computed by pruned searches, from any thread
+    private final LongAdder similarityCallsSkipped = new LongAdder(); // similarities pruned by their bound
+    private boolean compressed = false; // scan packed ratings (see CompressedRatings) instead of the lists
+    private int[] changedUsers = new int[16]; // users whose packed ratings are out of date
+    private int numChanged = 0;
+    private UserStore store = null; // lazy mode: ratings are paged in from this store, null if all are in memory
+
+    /** A constructor for the UsersList with its own id dictionaries. */
+    public UsersList()
+    {
+        this(new IdDictionary(), new IdDictionary());
+    }
+
+    /** A constructor for the UsersList.
+     *
+     * @param userIds  dictionary that assigned the user indices
+     * @param movieIds dictionary that assigned the movie indices
+     */
+    public UsersList(IdDictionary userIds, IdDictionary movieIds)
+    {
+        this.userIds = userIds;
+        this.movieIds = movieIds;
+    }
 
 
     /** Insert the rating for the given userId and given movieId.
      *
-     * @param userId  id of the user
-     * @param movieId id of the movie
+     * @param userId  index of the user
+     * @param movieId index of the movie
      * @param rating  rating given by this user to this movie
      */
     public void insert(int userId, int movieId, double rating)
     {
+        insert(userId, movieId, rating, 0);
+    }
+
+    /** Insert the rating for the given userId and given movieId, made at the given time.
+     *  If the user already rated the movie, the rating is changed instead.
+     *
+     * @param userId  index of the user
+     * @param movieId index of the movie
+     * @param rating  rating given by this user to this movie
+     * @param time    timestamp of the rating
+     */
+    public void insert(int userId, int movieId, double rating, long time)
+    {
+        lastRatingTime = Math.max(lastRatingTime, time);
 
         // check if the node already exists
+        UserNode user = get(userId);
+
+        // in the compressed mode, remember the user to pack the ratings again (see compressChanged)
+        if( compressed && (user == null || user.getCompressed() != null) )
+        {
+            if( numChanged == changedUsers.length )
+            {
+                changedUsers = Arrays.copyOf(changedUsers, numChanged * 2);
+            }
+            changedUsers[numChanged++] = userId;
+        }
+
+        // a new rating of a movie replaces the old one; the user is already in its postings
+        if( user != null && user.hasRated(movieId) )
+        {
+            user.setRating(movieId, rating, time);
+            return;
+        }
+        addPosting(movieId, userId);
+        numRatings++;
 
         // if already exists, return
-        if( get(userId) != null )
+        if( user != null )
         {
             // add this movie and rating to the existing user
-            get(userId).insert(movieId, rating);
+            user.insert(movieId, rating, time);
 
             // return
             return;
@@ -44,20 +118,166 @@ public class UsersList {
         // create a new user node
         UserNode newUser = new UserNode(userId);
         // add movie and rating
-        newUser.insert(movieId, rating);
+        newUser.insert(movieId, rating, time);
 
         // append to current list
         append(newUser);
     }
 
+    /**
+     * Insert a batch of ratings, as insert(int, int, double, long) does for
+     * each in order, but with the index updates batched: the ratings are
+     * grouped by user, so every user is looked up, packed again and marked
+     * as changed once per batch, and the new postings are grouped by movie,
+     * so every posting grows at most once per batch.
+     *
+     * @param userIdArr  indices of the users
+     * @param movieIdArr indices of the movies
+     * @param ratings    ratings given by the users to the movies
+     * @param times      timestamps of the ratings
+     * @param n          number of ratings in the arrays to insert
+     * @param oldRatings array that gets the rating each one replaced, -1 for
+     *                   a new rating, NaN for a rating that was not applied
+     * @throws java.io.UncheckedIOException in the lazy mode, if a user can
+     *         not be paged in or a new user not taken by the store; the
+     *         ratings of the users before it are applied and indexed, the
+     *         others are not (NaN in oldRatings)
+     */
+    public void insertBatch(int[] userIdArr, int[] movieIdArr, double[] ratings, long[] times, int n,
+                            double[] oldRatings)
+    {
+        // positions grouped by user, in batch order within a user
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            keys[i] = ((long) userIdArr[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = (int) keys[i];
+        }
+        Arrays.fill(oldRatings, 0, n, Double.NaN);
+
+        long[] newPostings = new long[n]; // movie << 32 | user of every new rating
+        int numNew = 0;
+        int from = 0;
+        try
+        {
+            while (from < n)
+            {
+                int userId = userIdArr[order[from]];
+                int to = from;
+                while (to < n && userIdArr[order[to]] == userId)
+                {
+                    to++;
+                }
+
+                // the steps that can fail come before any change of this user
+                UserNode user = get(userId);
+                boolean newUser = user == null;
+                if( newUser )
+                {
+                    user = new UserNode(userId);
+                    append(user);
+                }
+                boolean wasCompressed = newUser || user.getCompressed() != null;
+                user.insertAll(movieIdArr, ratings, times, order, from, to, oldRatings);
+
+                if( compressed && wasCompressed )
+                {
+                    if( numChanged == changedUsers.length )
+                    {
+                        changedUsers = Arrays.copyOf(changedUsers, numChanged * 2);
+                    }
+                    changedUsers[numChanged++] = userId;
+                }
+                for (int i = from; i < to; i++)
+                {
+                    int p = order[i];
+                    if (oldRatings[p] == -1)
+                    {
+                        newPostings[numNew++] = ((long) movieIdArr[p] << 32) | userId;
+                    }
+                    lastRatingTime = Math.max(lastRatingTime, times[p]);
+                }
+                from = to;
+            }
+        }
+        finally
+        {
+            // index what was applied, also if a user failed
+            numRatings += numNew;
+            addPostings(newPostings, numNew);
+        }
+    }
+
+    /** Add the postings movie << 32 | user, growing each posting once */
+    private void addPostings(long[] entries, int n)
+    {
+        Arrays.sort(entries, 0, n);
+        int from = 0;
+        while (from < n)
+        {
+            int movieId = (int) (entries[from] >>> 32);
+            int to = from;
+            while (to < n && (int) (entries[to] >>> 32) == movieId)
+            {
+                to++;
+            }
+            if (movieId >= postings.length)
+            {
+                int capacity = Math.max(postings.length * 2, movieId + 1);
+                postings = Arrays.copyOf(postings, capacity);
+                postingLengths = Arrays.copyOf(postingLengths, capacity);
+            }
+            int length = postingLengths[movieId];
+            int[] posting = postings[movieId];
+            if (posting == null)
+            {
+                posting = new int[Math.max(4, to - from)];
+            }
+            else if (length + to - from > posting.length)
+            {
+                posting = Arrays.copyOf(posting, Math.max(posting.length * 2, length + to - from));
+            }
+            for (int i = from; i < to; i++)
+            {
+                posting[length++] = (int) entries[i];
+            }
+            postings[movieId] = posting;
+            postingLengths[movieId] = length;
+            from = to;
+        }
+    }
+
     /**
      * Append a new node to the list
      * @param newNode a new node to append to the list
+     * @throws java.io.UncheckedIOException in the lazy mode, if the store can
+     *         not write out a changed user to make room; the list is unchanged
      */
     public void append(UserNode newNode)
     {
+        // in the lazy mode a new user starts resident, and is written to the store when evicted;
+        // taken first, so that the list is unchanged if the store has no room
+        if( store != null )
+        {
+            store.add(newNode);
+        }
+
         // now, append this new node at the end of the tail
 
+        // index the node by its user index
+        int index = newNode.getId();
+        if( index >= users.length )
+        {
+            users = Arrays.copyOf(users, Math.max(users.length * 2, index + 1));
+        }
+        users[index] = newNode;
+        numUsers++;
+
         // if head is null
         if( head == null )
         {
@@ -79,28 +299,16 @@ public class UsersList {
 
     /** Return a UserNode given userId
      *
-     * @param userId id of the user (as defined in ratings.csv)
-     * @return UserNode for a given userId
+     * @param userId index of the user
+     * @return UserNode for a given userId, null for an invalid index
      */
     public UserNode get(int userId)
     {
-        // iterate over all the users and return the user
-        UserNode current = head;
-        while( current != null )
+        if( userId < 0 || userId >= users.length )
         {
-            // check for a match
-            if( current.getId() == userId )
-            {
-                // return this user
-                return current;
-            }
-
-            // move to the next user
-            current = current.next();
+            return null;
         }
-
-        // be default return null, for invalid id
-        return null;
+        return users[userId];
     } // get method
 
     /**
@@ -109,13 +317,16 @@ public class UsersList {
      * "most similar user".
      * Calls computeSimilarity method in class MovieRatingsList/
      *
-     * @param userid id of the user
-     * @return the node that corresponds to the most similar user
+     * @param userid index of the user
+     * @return the node that corresponds to the most similar user, or null
+     * if there are no other users
      */
     public UserNode findMostSimilarUser(int userid) {
-        int mostSimilarUserID = 0;
+        UserNode mostSimilarUser = null;
         UserNode curr = head;
         UserNode myUserNode = this.get(userid);
+        // spread the ratings of this user once, so that each comparison is a single pass
+        double[] myRatings = myUserNode.denseRatings(movieIds.size());
         double maxSimilarity = -1, similarity;
         while (curr != null){
             //Now we will compute similarity for each userid
@@ -124,18 +335,700 @@ public class UsersList {
             {
                 curr = curr.next(); continue;
             }
-            similarity = curr.computeSimilarity(myUserNode);
-            if (similarity> maxSimilarity){
+            similarity = curr.computeSimilarity(myRatings);
+            // on a tie the smaller index wins, whatever the order of the list (see reorderUsers)
+            if (similarity> maxSimilarity || (similarity == maxSimilarity && mostSimilarUser != null
+                    && curr.getId() < mostSimilarUser.getId())){
                 maxSimilarity = similarity;
-                mostSimilarUserID = curr.getId();
+                mostSimilarUser = curr;
             }
             curr = curr.next();
         }
 
+        return mostSimilarUser;
+
+    }
+
+    /**
+     * Finds the most similar user of each of several users in one pass
+     * over the users, as findMostSimilarUser(int) does for each of them.
+     * The users are scored in blocks of SCORING_BLOCK (see scoreBlock).
+     *
+     * @param userids indices of the users
+     * @param similarities array for the similarity of each user with the
+     *                     user found, or null
+     * @return the most similar user of each user, null where there are no other users
+     */
+    public UserNode[] findMostSimilarUser(int[] userids, double[] similarities) {
+        return findMostSimilarUser(userids, similarities, SCORING_BLOCK);
+    }
+
+    /**
+     * Finds the most similar user of each of several users, scoring them in
+     * blocks of the given size.
+     *
+     * @param userids indices of the users
+     * @param similarities array for the similarity of each user with the
+     *                     user found, or null
+     * @param blockSize number of users scored in one pass over the users
+     * @return the most similar user of each user, null where there are no other users
+     */
+    public UserNode[] findMostSimilarUser(int[] userids, double[] similarities, int blockSize) {
+        UserNode[] found = new UserNode[userids.length];
+        double[] best = similarities != null ? similarities : new double[userids.length];
+        for (int from = 0; from < userids.length; from += blockSize) {
+            scoreBlock(userids, from, Math.min(userids.length, from + blockSize), found, best);
+        }
+        return found;
+    }
+
+    /**
+     * Score every user against the users userids[from..to) in one pass:
+     * the ratings of a candidate are read once and summed against all the
+     * targets while they are in the cache, instead of once per target.
+     * The ratings of the targets are spread into one array interleaved by
+     * movie, targets[movie * b + t], so the b ratings of a movie read for
+     * one rating of the candidate are next to each other. The sums are
+     * taken in the same order as computeSimilarity(double[]), so the
+     * similarities, and the users found, are exactly the same.
+     */
+    private void scoreBlock(int[] userids, int from, int to, UserNode[] found, double[] best) {
+        int b = to - from;
+        if (b == 1) {
+            // a block of one gains nothing over the plain scan, which does not copy the ratings
+            found[from] = findMostSimilarUser(userids[from]);
+            best[from] = found[from] == null ? -1
+                    : found[from].computeSimilarity(get(userids[from]).denseRatings(movieIds.size()));
+            return;
+        }
+        int numMovies = movieIds.size();
+        double[] targets = new double[numMovies * b];
+        for (int t = 0; t < b; t++) {
+            for (MovieRatingNode node : get(userids[from + t]).getMovieRatings()) {
+                targets[node.getMovieId() * b + t] = node.getMovieRating();
+            }
+            best[from + t] = -1;
+        }
+
+        int[] n = new int[b];
+        double[] sx = new double[b];
+        double[] sy = new double[b];
+        double[] sxy = new double[b];
+        double[] sx2 = new double[b];
+        double[] sy2 = new double[b];
+        int[] movies = new int[16];
+        double[] ratings = new double[16];
+        for (UserNode curr = head; curr != null; curr = curr.next()) {
+            int k = curr.getNumRatings();
+            if (k > movies.length) {
+                movies = new int[k * 2];
+                ratings = new double[k * 2];
+            }
+            k = curr.copyRatings(movies, ratings);
+            Arrays.fill(n, 0);
+            Arrays.fill(sx, 0);
+            Arrays.fill(sy, 0);
+            Arrays.fill(sxy, 0);
+            Arrays.fill(sx2, 0);
+            Arrays.fill(sy2, 0);
+            for (int i = 0; i < k; i++) {
+                int movie = movies[i];
+                if (movie >= numMovies) {
+                    continue;
+                }
+                int base = movie * b;
+                double y = ratings[i];
+                for (int t = 0; t < b; t++) {
+                    double x = targets[base + t];
+                    // ratings are at least 0.5, so 0 means the target did not rate this movie
+                    if (x != 0) {
+                        n[t]++;
+                        sx[t] += x;
+                        sy[t] += y;
+                        sxy[t] += x * y;
+                        sx2[t] += x * x;
+                        sy2[t] += y * y;
+                    }
+                }
+            }
+            for (int t = 0; t < b; t++) {
+                if (curr.getId() == userids[from + t]) {
+                    continue;
+                }
+                double similarity = MovieRatingsList.pearson(n[t], sx[t], sy[t], sxy[t], sx2[t], sy2[t]);
+                UserNode mostSimilarUser = found[from + t];
+                if (similarity > best[from + t] || (similarity == best[from + t] && mostSimilarUser != null
+                        && curr.getId() < mostSimilarUser.getId())) {
+                    best[from + t] = similarity;
+                    found[from + t] = curr;
+                }
+            }
+        }
+        Metrics.add(Metrics.Counter.SIMILARITY_CALLS, (long) b * numUsers);
+    }
+
+    /**
+     * Finds the k users most similar to the given ratings. Used to search a
+     * part of the users for a target that may be stored elsewhere.
+     *
+     * @param ratings     ratings of the target indexed by movie index, 0 if not rated
+     * @param k           number of users to return
+     * @param excludeUser index of a user to skip (the target itself), -1 for none
+     * @return the k best users; ids are user indices
+     */
+    public TopK findMostSimilarUsers(double[] ratings, int k, int excludeUser) {
+        TopK best = new TopK(k);
+        for (UserNode curr = head; curr != null; curr = curr.next()) {
+            if (curr.getId() != excludeUser) {
+                best.offer(curr.getId(), curr.computeSimilarity(ratings));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the k users most similar to the given user by significance
+     * weighted similarity (see MovieRatingsList.computeWeightedSimilarity).
+     * With prune set, the number of movies each user shares with the target
+     * is first counted from the postings of the target's movies. Since the
+     * weighted similarity is at most min(shared, 50) / 50, users are visited
+     * in order of that bound, and the scan stops as soon as the bound is
+     * below the k-th best similarity found so far (an equal bound can still
+     * win a tie on the smaller index). The result is the same users with the
+     * same similarities as the exhaustive scan (prune not set).
+     *
+     * @param userid index of the user
+     * @param k      number of users to return
+     * @param prune  true to stop the scan early using the bounds
+     * @return the k most similar users; ids are user indices
+     */
+    public TopK findMostSimilarUsers(int userid, int k, boolean prune) {
+        TopK best = new TopK(k);
+        double[] myRatings = get(userid).denseRatings(movieIds.size());
+        if (!prune) {
+            for (UserNode curr = head; curr != null; curr = curr.next()) {
+                if (curr.getId() != userid) {
+                    best.offer(curr.getId(), curr.computeWeightedSimilarity(myRatings));
+                }
+            }
+            return best;
+        }
+
+        // count shared movies with every user from the postings of the target's movies
+        int[] shared = new int[users.length];
+        int levels = MovieRatingsList.SIGNIFICANCE_OVERLAP;
+        int[] ordered = sharedCandidates(userid, shared, levels);
+        int numCandidates = ordered.length;
+
+        // visit from the largest bound down
+        int visited = 0;
+        for (int i = numCandidates - 1; i >= 0; i--) {
+            int user = ordered[i];
+            double bound = (double) Math.min(shared[user], levels) / levels;
+            // a user whose bound equals the k-th score can still win the tie with a smaller index
+            if (best.isFull() && bound < best.minScore()) {
+                break;
+            }
+            best.offer(user, users[user].computeWeightedSimilarity(myRatings));
+            visited++;
+        }
+
+        // users sharing no movies have similarity 0; on ties the smaller indices win, so offer the first k
+        int skipped = numUsers() - 1 - visited;
+        int offered = 0;
+        for (int user = 0; user < users.length && offered < k; user++) {
+            if (user != userid && shared[user] == 0 && users[user] != null) {
+                best.offer(user, 0);
+                offered++;
+            }
+        }
+
+        similarityCalls.add(visited);
+        similarityCallsSkipped.add(skipped);
+        Metrics.add(Metrics.Counter.CANDIDATES_PRUNED, skipped);
+        return best;
+    }
 
-        UserNode mostSimilarUser = this.get(mostSimilarUserID);
+    /**
+     * Finds the k users most similar to the given user with the given plan
+     * (see QueryPlanner). BRUTE_FORCE and INVERTED_INDEX find the same users;
+     * APPROXIMATE only computes the similarities of the
+     * QueryPlanner.APPROXIMATE_CANDIDATES users sharing the most movies.
+     * With weighted set, the similarity is the significance weighted one
+     * and INVERTED_INDEX is the bound-pruned search.
+     *
+     * @param userid   index of the user
+     * @param k        number of users to return
+     * @param weighted true for significance weighted similarity, false for Pearson correlation
+     * @param plan     how to search
+     * @return the k most similar users; ids are user indices
+     */
+    public TopK findMostSimilarUsers(int userid, int k, boolean weighted, QueryPlanner.Plan plan) {
+        if (weighted && plan != QueryPlanner.Plan.APPROXIMATE) {
+            return findMostSimilarUsers(userid, k, plan == QueryPlanner.Plan.INVERTED_INDEX);
+        }
+        double[] myRatings = get(userid).denseRatings(movieIds.size());
+        TopK best = new TopK(k);
+        if (plan == QueryPlanner.Plan.BRUTE_FORCE) {
+            for (UserNode curr = head; curr != null; curr = curr.next()) {
+                if (curr.getId() != userid) {
+                    best.offer(curr.getId(), curr.computeSimilarity(myRatings));
+                }
+            }
+            return best;
+        }
+
+        // users sharing the most movies come last
+        int[] shared = new int[users.length];
+        int[] ordered = sharedCandidates(userid, shared, Integer.MAX_VALUE);
+        int first = plan == QueryPlanner.Plan.APPROXIMATE
+                ? Math.max(0, ordered.length - QueryPlanner.APPROXIMATE_CANDIDATES) : 0;
+        for (int i = ordered.length - 1; i >= first; i--) {
+            UserNode user = users[ordered[i]];
+            best.offer(user.getId(), weighted ? user.computeWeightedSimilarity(myRatings)
+                    : user.computeSimilarity(myRatings));
+        }
+        Metrics.add(Metrics.Counter.CANDIDATES_PRUNED, numUsers() - 1 - (ordered.length - first));
+
+        // users sharing no movie have similarity 0; on ties the smaller indices win, so offer the first k
+        int offered = 0;
+        for (int user = 0; user < users.length && offered < k; user++) {
+            if (user != userid && shared[user] == 0 && users[user] != null) {
+                best.offer(user, 0);
+                offered++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the k users most similar to the given user by the given kind of
+     * similarity (see Similarity), with the given plan. Pearson correlation
+     * over any overlap, weighted or not, goes to the searches above.
+     * BRUTE_FORCE computes the similarity with every user, except the users
+     * rejected on their number of ratings alone. INVERTED_INDEX and
+     * APPROXIMATE count the movies every user shares with the target from
+     * the postings, and skip the users sharing fewer than the minimum
+     * overlap without reading their ratings. A weighted similarity is at
+     * most Similarity.bound of the shared count, so for it the index search
+     * stops early as findMostSimilarUsers(int, int, boolean) does.
+     *
+     * @param userid     index of the user
+     * @param k          number of users to return
+     * @param similarity measure, minimum overlap and weighting
+     * @param plan       how to search
+     * @return the k most similar users; ids are user indices
+     */
+    public TopK findMostSimilarUsers(int userid, int k, Similarity similarity, QueryPlanner.Plan plan) {
+        if (similarity.getMeasure() == Similarity.Measure.PEARSON && similarity.getMinOverlap() <= 1) {
+            return findMostSimilarUsers(userid, k, similarity.isWeighted(), plan);
+        }
+        UserNode target = get(userid);
+        double[] myRatings = target.denseRatings(movieIds.size());
+        RatingStats myStats = target.getStats();
+        TopK best = new TopK(k);
+        if (plan == QueryPlanner.Plan.BRUTE_FORCE) {
+            for (UserNode curr = head; curr != null; curr = curr.next()) {
+                if (curr.getId() != userid) {
+                    best.offer(curr.getId(), curr.computeSimilarity(myRatings, myStats, similarity));
+                }
+            }
+            return best;
+        }
+
+        // users sharing the most movies come last; above levels the order is arbitrary
+        int[] shared = new int[users.length];
+        int levels = similarity.isWeighted() ? MovieRatingsList.SIGNIFICANCE_OVERLAP : Integer.MAX_VALUE;
+        int[] ordered = sharedCandidates(userid, shared, levels);
+        int first = plan == QueryPlanner.Plan.APPROXIMATE
+                ? Math.max(0, ordered.length - QueryPlanner.APPROXIMATE_CANDIDATES) : 0;
+        int visited = 0;
+        int rejected = 0;
+        Similarity counted = similarity.withMinOverlap(0); // the postings counted the overlap, no need to count it again
+        for (int i = ordered.length - 1; i >= first; i--) {
+            int user = ordered[i];
+            if (!similarity.accepts(shared[user])) {
+                if (shared[user] < levels) {
+                    rejected += i - first + 1;
+                    break; // sorted by shared below levels: none of the users left shares enough movies
+                }
+                rejected++;
+                continue;
+            }
+            if (similarity.isWeighted() && best.isFull() && similarity.bound(shared[user]) < best.minScore()) {
+                break;
+            }
+            best.offer(user, users[user].computeSimilarity(myRatings, myStats, counted));
+            visited++;
+        }
+
+        // users sharing too few movies have similarity 0; on ties the smaller indices win, so offer the first k
+        int offered = 0;
+        for (int user = 0; user < users.length && offered < k; user++) {
+            if (user != userid && users[user] != null && (shared[user] == 0 || !similarity.accepts(shared[user]))) {
+                best.offer(user, 0);
+                offered++;
+            }
+        }
+
+        int skipped = numUsers() - 1 - visited;
+        similarityCalls.add(visited);
+        similarityCallsSkipped.add(skipped);
+        Metrics.add(Metrics.Counter.CANDIDATES_PRUNED, skipped);
+        Metrics.add(Metrics.Counter.OVERLAP_REJECTED, rejected);
+        return best;
+    }
+
+    /**
+     * Count the movies every user shares with the given user, from the
+     * postings of the user's movies, and return the users sharing at least
+     * one, sorted by min(shared, levels) from the fewest to the most.
+     *
+     * @param userid index of the user
+     * @param shared array of users.length zeros; gets the count of each user
+     * @param levels counts above this are sorted as equal
+     * @return indices of the users sharing a movie, without the user itself
+     */
+    private int[] sharedCandidates(int userid, int[] shared, int levels) {
+        int[] candidates = new int[16];
+        int numCandidates = 0;
+        int maxShared = 0;
+        for (MovieRatingNode node : get(userid).getMovieRatings()) {
+            int movie = node.getMovieId();
+            for (int i = 0; i < postingLengths[movie]; i++) {
+                int user = postings[movie][i];
+                if (shared[user]++ == 0 && user != userid) {
+                    if (numCandidates == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, numCandidates * 2);
+                    }
+                    candidates[numCandidates++] = user;
+                }
+                maxShared = Math.max(maxShared, shared[user]);
+            }
+        }
+
+        // bucket the candidates by min(shared, levels)
+        levels = Math.min(levels, maxShared);
+        int[] bucketStart = new int[levels + 2];
+        for (int i = 0; i < numCandidates; i++) {
+            bucketStart[Math.min(shared[candidates[i]], levels) + 1]++;
+        }
+        for (int b = 1; b < bucketStart.length; b++) {
+            bucketStart[b] += bucketStart[b - 1];
+        }
+        int[] ordered = new int[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            int user = candidates[i];
+            ordered[bucketStart[Math.min(shared[user], levels)]++] = user;
+        }
+        return ordered;
+    }
+
+    /** Return the number of users who rated the movie with the given index */
+    public int postingLength(int movieId) {
+        return movieId < postingLengths.length ? postingLengths[movieId] : 0;
+    }
+
+    /** Return the number of ratings of all users */
+    public long numRatings() {
+        return numRatings;
+    }
+
+    /** Return the number of similarities computed by pruned searches */
+    public long getSimilarityCalls() {
+        return similarityCalls.sum();
+    }
+
+    /** Return the number of similarities pruned searches did not need to compute */
+    public long getSimilarityCallsSkipped() {
+        return similarityCallsSkipped.sum();
+    }
+
+    /** Return the number of users in this list */
+    public int numUsers() {
+        return numUsers;
+    }
+
+    /** Record that the given user rated the given movie */
+    private void addPosting(int movieId, int userId) {
+        if (movieId >= postings.length) {
+            int capacity = Math.max(postings.length * 2, movieId + 1);
+            postings = Arrays.copyOf(postings, capacity);
+            postingLengths = Arrays.copyOf(postingLengths, capacity);
+        }
+        int[] posting = postings[movieId];
+        int length = postingLengths[movieId];
+        if (posting == null) {
+            posting = new int[4];
+        } else if (length == posting.length) {
+            posting = Arrays.copyOf(posting, length * 2);
+        }
+        posting[length] = userId;
+        postings[movieId] = posting;
+        postingLengths[movieId] = length + 1;
+    }
+
+    /**
+     * Finds the most similar user like findMostSimilarUser(int), using only
+     * ratings made inside the time window. Users with no rating segment in
+     * the window are skipped without computing the similarity.
+     *
+     * @param userid index of the user
+     * @param window time window of the query
+     * @return the node that corresponds to the most similar user, or null
+     * if no other user rated a movie inside the window
+     */
+    public UserNode findMostSimilarUser(int userid, TimeWindow window) {
+        if (window.isAll()) {
+            return findMostSimilarUser(userid);
+        }
+        UserNode mostSimilarUser = null;
+        double[] myRatings = get(userid).denseRatings(movieIds.size(), window);
+        double maxSimilarity = -1, similarity;
+        for (UserNode curr = head; curr != null; curr = curr.next()) {
+            if (curr.getId() == userid || !curr.hasRatingsIn(window)) {
+                continue;
+            }
+            similarity = curr.computeSimilarity(myRatings, window);
+            if (similarity > maxSimilarity || (similarity == maxSimilarity && mostSimilarUser != null
+                    && curr.getId() < mostSimilarUser.getId())) {
+                maxSimilarity = similarity;
+                mostSimilarUser = curr;
+            }
+        }
         return mostSimilarUser;
+    }
+
+    /**
+     * Switch an empty list to the lazy mode: add a node for every user of
+     * the store, paged out, and index the movies of every user for the
+     * pruned search. From now on ratings are paged in from the store when
+     * they are needed, and at most the capacity of the store are resident.
+     * The compressed mode packs resident users only; the scans read the
+     * packed ratings of the others from the store.
+     *
+     * @param userStore store opened with the dictionaries of this list
+     */
+    public void attach(UserStore userStore)
+    {
+        if( head != null )
+        {
+            throw new IllegalStateException("attach needs an empty list");
+        }
+        userStore.bind(this);
+        int[] movies = new int[16];
+        double[] ratings = new double[16];
+        for (int u = 0; u < userStore.numUsers(); u++)
+        {
+            int n = userStore.count(u);
+            if (n == 0)
+            {
+                continue;
+            }
+            append(UserNode.stored(u, userStore));
+            if (n > movies.length)
+            {
+                movies = new int[n * 2];
+                ratings = new double[n * 2];
+            }
+            userStore.packed(u).decode(movies, ratings);
+            for (int i = 0; i < n; i++)
+            {
+                addPosting(movies[i], u);
+            }
+            numRatings += n;
+            lastRatingTime = Math.max(lastRatingTime, userStore.getMaxTime(u));
+        }
+        store = userStore;
+    }
 
+    /** Return the store of the lazy mode, null if all ratings are in memory */
+    public UserStore getStore()
+    {
+        return store;
+    }
+
+    /** Sort the rating segments of every user by time. Called after a bulk load. */
+    public void sortSegments()
+    {
+        for (UserNode curr = head; curr != null; curr = curr.next())
+        {
+            curr.sortSegments();
+            if (compressed && curr.getCompressed() == null && curr.isResident())
+            {
+                curr.compress();
+            }
+        }
+        numChanged = 0;
+    }
+
+    /**
+     * Turn the compressed scan on or off. When on, the ratings of every user
+     * are packed into a CompressedRatings (about 2 bytes per rating) and the
+     * similarity scans read those instead of walking the lists. A user with
+     * a rating that is not a half star is not packed and is scanned from its
+     * list. The lists are kept, since favorite movies and re-ratings need them.
+     *
+     * @param on true to pack the ratings of every user, false to drop them
+     */
+    public void setCompressed(boolean on)
+    {
+        compressed = on;
+        for (UserNode curr = head; curr != null; curr = curr.next())
+        {
+            if (on && curr.isResident())
+            {
+                curr.compress();
+            }
+            else
+            {
+                curr.dropCompressed();
+            }
+        }
+        numChanged = 0;
+    }
+
+    /** Return true if the similarity scans read packed ratings */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    /**
+     * Put the users in a new order for the scans and lay out their ratings
+     * in that order: the rating lists are copied into new nodes one user
+     * after another, and in the compressed mode the packed ratings of all
+     * users are copied into one array. Neighbours found do not change;
+     * ties between users are broken by user index in any order.
+     * Users added later are appended at the end.
+     *
+     * @param order INSERTION for the order users were first seen in,
+     *              ACTIVITY for the users with the most ratings first,
+     *              CO_RATED to put users who rated the same movies next to each other
+     */
+    public void reorderUsers(UserOrder order)
+    {
+        int n = 0;
+        UserNode[] ordered = new UserNode[numUsers];
+        for (UserNode curr = head; curr != null; curr = curr.next())
+        {
+            ordered[n++] = curr;
+        }
+        if (order == UserOrder.ACTIVITY)
+        {
+            Arrays.sort(ordered, (a, b) -> a.getNumRatings() != b.getNumRatings()
+                    ? Integer.compare(b.getNumRatings(), a.getNumRatings())
+                    : Integer.compare(a.getId(), b.getId()));
+        }
+        else if (order == UserOrder.CO_RATED)
+        {
+            // min-hash of each user's movies: two users get the same value with a
+            // probability equal to the Jaccard similarity of their movie sets
+            final int[] minHash = new int[users.length];
+            for (UserNode user : ordered)
+            {
+                int min = Integer.MAX_VALUE;
+                for (MovieRatingNode node : user.getMovieRatings())
+                {
+                    int h = node.getMovieId() * 0x9E3779B9;
+                    min = Math.min(min, (h ^ (h >>> 16)) & Integer.MAX_VALUE);
+                }
+                minHash[user.getId()] = min;
+            }
+            Arrays.sort(ordered, (a, b) -> minHash[a.getId()] != minHash[b.getId()]
+                    ? Integer.compare(minHash[a.getId()], minHash[b.getId()])
+                    : Integer.compare(b.getNumRatings(), a.getNumRatings()));
+        }
+        else
+        {
+            Arrays.sort(ordered, (a, b) -> Integer.compare(a.getId(), b.getId()));
+        }
+
+        // allocate the users again in scan order and link them in that order
+        head = null;
+        tail = null;
+        for (int i = 0; i < n; i++)
+        {
+            UserNode user = ordered[i].relocate();
+            ordered[i] = user;
+            users[user.getId()] = user;
+            if (head == null)
+            {
+                head = user;
+            }
+            else
+            {
+                tail.setNext(user);
+            }
+            tail = user;
+        }
+
+        // pack the ratings of all users into one array, in scan order
+        long packedBytes = 0;
+        for (UserNode user : ordered)
+        {
+            if (compressed && user.getCompressed() != null)
+            {
+                packedBytes += user.getCompressed().byteSize();
+            }
+        }
+        if (compressed && packedBytes <= Integer.MAX_VALUE)
+        {
+            byte[] arena = new byte[(int) packedBytes];
+            int offset = 0;
+            for (UserNode user : ordered)
+            {
+                CompressedRatings packed = user.getCompressed();
+                if (packed != null)
+                {
+                    user.setCompressed(packed.copyTo(arena, offset));
+                    offset += packed.byteSize();
+                }
+            }
+        }
+    }
+
+    /** Orders of the users for reorderUsers */
+    public enum UserOrder
+    {
+        INSERTION, ACTIVITY, CO_RATED
+    }
+
+    /** Pack the ratings again of the users that got new ratings since the
+     *  last call; until then their similarities are computed from the lists */
+    public void compressChanged()
+    {
+        for (int i = 0; i < numChanged; i++)
+        {
+            if (users[changedUsers[i]].isResident())
+            {
+                users[changedUsers[i]].compress();
+            }
+        }
+        numChanged = 0;
+    }
+
+    /**
+     * Merge the rating segments older than the given time of every user into
+     * one frozen segment per user.
+     *
+     * @param before timestamp; segments with newer ratings are kept as they are
+     * @return number of segments that were merged
+     */
+    public int compactSegments(long before)
+    {
+        int merged = 0;
+        for (UserNode curr = head; curr != null; curr = curr.next())
+        {
+            merged += curr.compactSegments(before);
+        }
+        return merged;
+    }
+
+    /** Return the timestamp of the newest rating, Long.MIN_VALUE if there are none */
+    public long getLastRatingTime()
+    {
+        return lastRatingTime;
     }
 
     /** Print UsersList to a file  with the given name in the following format:
@@ -147,43 +1040,108 @@ public class UsersList {
      */
     public void print(String filename)
     {
-        // print writer is used to write to a file
-        PrintWriter pw = null;
-
-        // try to open the file
         try
         {
-            // open the file
-            pw = new PrintWriter(new File(filename));
+            print(filename, Runtime.getRuntime().availableProcessors(), false);
         }
-        // if could not open file, catch the exception
-        catch(FileNotFoundException e)
+        catch(IOException e)
         {
-            // print message that file not found
-            System.out.println("File " + filename + " not found!");
-
-            // return from this method
-            return;
+            // print message that file could not be written
+            System.out.println("File " + filename + " could not be written: " + e.getMessage());
         }
+    }
 
-        // else, print all users
-
-        // reference to the head of the current list
-        UserNode currentUser = head;
-
-        // print all users
-        // iterate the list till current is not null
-        while( currentUser != null )
+    /** Print UsersList to a file in the format of print(filename), in list
+     *  order. The users are cut into blocks of EXPORT_BLOCK_USERS; worker
+     *  threads format the blocks into their own reusable buffers and the
+     *  BlockWriter writes them in order, optionally as gzip members.
+     *  Must not run while ratings are inserted.
+     * @param filename name of the file where to output UsersList info
+     * @param workers number of threads that format blocks
+     * @param compress true to write a gzip file
+     * @throws IOException if the file can not be written, or a worker failed
+     */
+    public void print(String filename, int workers, final boolean compress) throws IOException
+    {
+        final BlockWriter writer;
+        try
+        {
+            writer = new BlockWriter(filename, compress);
+        }
+        catch(IOException e)
         {
-            // print this user
-            // the toString() method of the userNode class is called to print the contents as above
-            pw.println(currentUser);
+            Metrics.increment(Metrics.Counter.ERRORS);
+            throw e;
+        }
 
-            // move to the next user
-            currentUser = currentUser.next();
+        // the nodes in list order, so that blocks can be handed out by number
+        final UserNode[] nodes = new UserNode[numUsers];
+        int n = 0;
+        for (UserNode currentUser = head; currentUser != null; currentUser = currentUser.next()) {
+            nodes[n++] = currentUser;
         }
+        final int numBlocks = (n + EXPORT_BLOCK_USERS - 1) / EXPORT_BLOCK_USERS;
 
-        // close the pw writer
-        pw.close();
+        // every worker formats the next block, then waits for its turn to write it
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>(); // first failure of any worker
+        Thread[] threads = new Thread[Math.max(1, Math.min(workers, numBlocks))];
+        for (int w = 0; w < threads.length; w++) {
+            threads[w] = new Thread(() -> {
+                ExportBuffer text = new ExportBuffer(1 << 16);
+                BlockWriter.Compressor compressor = writer.newCompressor();
+                boolean finished = false;
+                try {
+                    int block;
+                    while ((block = nextBlock.getAndIncrement()) < numBlocks) {
+                        text.reset();
+                        int end = Math.min(nodes.length, (block + 1) * EXPORT_BLOCK_USERS);
+                        for (int i = block * EXPORT_BLOCK_USERS; i < end; i++) {
+                            nodes[i].appendTo(text, userIds, movieIds);
+                        }
+                        writer.write(block, text, compressor);
+                    }
+                    finished = true;
+                } catch (Throwable e) {
+                    // also runtime exceptions, such as a user the store can not read
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (!finished) {
+                        writer.abort(); // the block of this worker is never written, release the others
+                    }
+                    if (compressor != null) {
+                        compressor.end();
+                    }
+                }
+            }, "export-" + w);
+            threads[w].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            writer.abort();
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        Throwable e = failure.get();
+        if (e != null) {
+            Metrics.increment(Metrics.Counter.ERRORS);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new InterruptedIOException("Export to " + filename + " was interrupted");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package movieRecommender;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/** Scoring a burst of users in blocks must find the same neighbours, with
+ *  the same similarities, as one search per user, on ratings.csv. */
+public class BlockedScoringTest {
+    private static final int[] BLOCK_SIZES = {1, 8, UsersList.SCORING_BLOCK, 100};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void blocksMatchTheSingleSearches() {
+        MovieRecommender recommender = load();
+        assertMatches(recommender);
+        recommender.setCompressedRatings(true);
+        assertMatches(recommender);
+    }
+
+    @Test
+    public void blocksOfPagedOutUsersMatchTheSingleSearches() throws IOException {
+        String store = new File(folder.getRoot(), "store.bin").getPath();
+        load().saveUsers(store);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers("movies.csv", store, 50);
+        try {
+            assertMatches(recommender);
+        } finally {
+            recommender.getUsersData().getStore().close();
+        }
+    }
+
+    @Test
+    public void aBurstWritesTheSameFilesAsSingleQueries() throws IOException {
+        MovieRecommender recommender = load();
+        recommender.setCacheCapacity(0);
+        int numUsers = recommender.getUserIds().size();
+        int[] userIds = new int[50];
+        String[] burst = new String[userIds.length];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = recommender.getUserIds().externalId(i * numUsers / userIds.length);
+            burst[i] = folder.newFile().getPath();
+        }
+        recommender.findRecommendations(userIds, 15, burst);
+        for (int i = 0; i < userIds.length; i++) {
+            String single = folder.newFile().getPath();
+            recommender.findRecommendations(userIds[i], 15, single);
+            assertArrayEquals("user " + userIds[i], Files.readAllBytes(new File(single).toPath()),
+                    Files.readAllBytes(new File(burst[i]).toPath()));
+        }
+
+        recommender.findAntiRecommendations(userIds, 15, burst);
+        for (int i = 0; i < userIds.length; i++) {
+            String single = folder.newFile().getPath();
+            recommender.findAntiRecommendations(userIds[i], 15, single);
+            assertArrayEquals("user " + userIds[i], Files.readAllBytes(new File(single).toPath()),
+                    Files.readAllBytes(new File(burst[i]).toPath()));
+        }
+    }
+
+    private static MovieRecommender load() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("movies.csv", "ratings.csv");
+        return recommender;
+    }
+
+    private static void assertMatches(MovieRecommender recommender) {
+        UsersList users = recommender.getUsersData();
+        // every third user, so each block holds users of all sizes
+        int[] userids = new int[(users.numUsers() + 2) / 3];
+        for (int i = 0; i < userids.length; i++) {
+            userids[i] = i * 3;
+        }
+        int numMovies = recommender.getMovieIds().size();
+        UserNode[] expected = new UserNode[userids.length];
+        double[] expectedSimilarities = new double[userids.length];
+        for (int i = 0; i < userids.length; i++) {
+            expected[i] = users.findMostSimilarUser(userids[i]);
+            expectedSimilarities[i] = expected[i].computeSimilarity(users.get(userids[i]).denseRatings(numMovies));
+        }
+        for (int blockSize : BLOCK_SIZES) {
+            double[] similarities = new double[userids.length];
+            UserNode[] found = users.findMostSimilarUser(userids, similarities, blockSize);
+            for (int i = 0; i < userids.length; i++) {
+                assertSame("block " + blockSize + " user " + userids[i], expected[i], found[i]);
+            }
+            assertArrayEquals("block " + blockSize, expectedSimilarities, similarities, 0);
+        }
+        assertEquals(userids.length, users.findMostSimilarUser(userids, null).length);
+    }
+}
@@ -0,0 +1,119 @@
+package movieRecommender;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedRatingsTest {
+    @Test
+    public void decodeGivesBackTheRatingsInMovieOrder() {
+        MovieRatingsList list = new MovieRatingsList();
+        // gaps of one, two and three varint bytes
+        int[] movies = {0, 3, 7, 8, 1000, 1023, 200000};
+        double[] ratings = {0.5, 5.0, 3.5, 1.0, 4.5, 2.0, 3.0};
+        for (int i = movies.length - 1; i >= 0; i--) {
+            list.insertByRating(movies[i], ratings[i]);
+        }
+
+        CompressedRatings packed = CompressedRatings.of(list);
+        assertNotNull(packed);
+        assertEquals(movies.length, packed.size());
+        int[] decodedMovies = new int[movies.length];
+        double[] decodedRatings = new double[movies.length];
+        packed.decode(decodedMovies, decodedRatings);
+        assertArrayEquals(movies, decodedMovies);
+        assertArrayEquals(ratings, decodedRatings, 0);
+
+        double[] dense = new double[200001];
+        packed.spreadInto(dense);
+        for (int i = 0; i < movies.length; i++) {
+            assertEquals(ratings[i], dense[movies[i]], 0);
+        }
+    }
+
+    @Test
+    public void randomListsRoundTripAndScoreLikeTheList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            MovieRatingsList list = randomList(random, random.nextInt(500));
+            MovieRatingsList other = randomList(random, 300);
+            CompressedRatings packed = CompressedRatings.of(list);
+            assertNotNull(packed);
+
+            int n = packed.size();
+            int[] movies = new int[n];
+            double[] ratings = new double[n];
+            packed.decode(movies, ratings);
+            for (int i = 0; i < n; i++) {
+                assertTrue(i == 0 || movies[i] > movies[i - 1]);
+                assertEquals(list.getRating(movies[i]), ratings[i], 0);
+            }
+
+            double[] otherDense = new double[5000];
+            other.spreadInto(otherDense);
+            assertEquals(list.computeSimilarity(otherDense), packed.computeSimilarity(otherDense), 1e-9);
+            assertEquals(list.computeWeightedSimilarity(otherDense), packed.computeWeightedSimilarity(otherDense), 1e-9);
+            assertEquals(list.computeSimilarity(other), packed.computeSimilarity(CompressedRatings.of(other)), 1e-9);
+
+            // the same ratings read from a shared array
+            byte[] arena = new byte[packed.byteSize() + 10];
+            CompressedRatings copy = packed.copyTo(arena, 10);
+            assertEquals(packed.computeSimilarity(otherDense), copy.computeSimilarity(otherDense), 0);
+        }
+    }
+
+    @Test
+    public void ratingsThatAreNotHalfStarsAreNotPacked() {
+        MovieRatingsList list = new MovieRatingsList();
+        list.insertByRating(1, 4.0);
+        list.insertByRating(2, 3.7);
+        assertNull(CompressedRatings.of(list));
+
+        assertTrue(CompressedRatings.isHalfStar(0.5));
+        assertTrue(CompressedRatings.isHalfStar(5.0));
+        assertFalse(CompressedRatings.isHalfStar(0));
+        assertFalse(CompressedRatings.isHalfStar(5.5));
+        assertFalse(CompressedRatings.isHalfStar(3.25));
+    }
+
+    @Test
+    public void aUserWithOtherRatingsStaysOnTheList() {
+        UserNode user = new UserNode(0);
+        user.insert(1, 4.0, 1);
+        user.insert(2, 3.7, 2);
+        user.compress();
+        assertNull(user.getCompressed());
+
+        double[] other = new double[3];
+        other[1] = 5.0;
+        other[2] = 1.0;
+        assertEquals(user.getMovieRatings().computeSimilarity(other), user.computeSimilarity(other), 0);
+
+        user.setRating(2, 3.5, 3);
+        user.compress();
+        assertNotNull(user.getCompressed());
+    }
+
+    @Test
+    public void emptyList() {
+        CompressedRatings packed = CompressedRatings.of(new MovieRatingsList());
+        assertEquals(0, packed.size());
+        assertEquals(0, packed.byteSize());
+        assertEquals(0, packed.computeSimilarity(new double[10]), 0);
+    }
+
+    private static MovieRatingsList randomList(Random random, int size) {
+        MovieRatingsList list = new MovieRatingsList();
+        for (int i = 0; i < size; i++) {
+            list.insertByRating(random.nextInt(5000), (1 + random.nextInt(10)) / 2.0);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,105 @@
+package movieRecommender;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Recommendations restricted by genre, on movies.csv and ratings.csv:
+ *  every movie has one of the included genres, none of the excluded ones,
+ *  and is not watched by the user. */
+public class GenreQueryTest {
+    private static final int NUM = 15;
+    private static final int UNKNOWN_USER = -5;
+
+    private static MovieRecommender recommender;
+    private static IdDictionary movieIds;
+    private static MovieCatalog catalog; // the genres of the movies, read on their own
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void load() throws IOException {
+        recommender = new MovieRecommender();
+        recommender.loadData("movies.csv", "ratings.csv");
+        movieIds = new IdDictionary();
+        catalog = new MovieCatalog(movieIds);
+        catalog.load("movies.csv");
+    }
+
+    @Test
+    public void recommendationsHaveAnIncludedGenre() throws IOException {
+        long comedy = recommender.getGenreMask("Comedy");
+        int found = 0;
+        for (int user = 1; user <= 60; user++) {
+            List<String> lines = recommend(user, comedy, 0, false);
+            assertPass(user, lines, comedy, 0);
+            found += lines.size();
+        }
+        assertTrue(found > 0);
+        assertEquals(NUM, recommend(UNKNOWN_USER, comedy, 0, false).size());
+    }
+
+    @Test
+    public void recommendationsHaveNoExcludedGenre() throws IOException {
+        long include = recommender.getGenreMask("Action|Sci-Fi");
+        long exclude = recommender.getGenreMask("Drama|Horror");
+        for (int user = 1; user <= 60; user++) {
+            assertPass(user, recommend(user, include, exclude, false), include, exclude);
+            assertPass(user, recommend(user, include, exclude, true), include, exclude);
+            assertPass(user, recommend(user, 0, exclude, false), 0, exclude);
+        }
+        List<String> popular = recommend(UNKNOWN_USER, include, exclude, false);
+        assertEquals(NUM, popular.size());
+        assertPass(UNKNOWN_USER, popular, include, exclude);
+    }
+
+    @Test
+    public void includingAndExcludingAGenreGivesNothing() throws IOException {
+        long noir = recommender.getGenreMask("Film-Noir");
+        assertEquals(0, recommend(UNKNOWN_USER, noir, noir, false).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anUnknownGenreIsRejected() {
+        recommender.getGenreMask("Comedy|Space Opera");
+    }
+
+    private List<String> recommend(int user, long include, long exclude, boolean anti) throws IOException {
+        File out = folder.newFile();
+        if (anti) {
+            recommender.findAntiRecommendations(user, NUM, out.getPath(), include, exclude);
+        } else {
+            recommender.findRecommendations(user, NUM, out.getPath(), include, exclude);
+        }
+        List<String> lines = Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+        assertTrue(lines.size() <= NUM);
+        return lines;
+    }
+
+    /** Check every line "movieId : title" against the genre masks and the ratings of the user */
+    private static void assertPass(int user, List<String> lines, long include, long exclude) {
+        int userIndex = recommender.getUserIds().indexOf(user);
+        UserNode node = userIndex < 0 ? null : recommender.getUsersData().get(userIndex);
+        for (String line : lines) {
+            int movieId = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+            long genres = catalog.getGenres(movieIds.indexOf(movieId));
+            String message = "user " + user + ": " + line;
+            assertTrue(message, include == 0 || (genres & include) != 0);
+            assertEquals(message, 0, genres & exclude);
+            if (node != null) {
+                assertEquals(message, -1, node.getMovieRatings().getRating(recommender.getMovieIds().indexOf(movieId)), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package movieRecommender;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdDictionaryTest {
+    @Test
+    public void idsGetIndicesInTheOrderTheyAreFirstSeen() {
+        IdDictionary ids = new IdDictionary();
+        assertEquals(0, ids.getOrAdd(160000));
+        assertEquals(1, ids.getOrAdd(1));
+        assertEquals(0, ids.getOrAdd(160000));
+        assertEquals(2, ids.getOrAdd(0));
+        assertEquals(3, ids.getOrAdd(-7));
+        assertEquals(4, ids.size());
+
+        assertEquals(160000, ids.externalId(0));
+        assertEquals(1, ids.externalId(1));
+        assertEquals(0, ids.externalId(2));
+        assertEquals(-7, ids.externalId(3));
+        assertEquals(-1, ids.indexOf(2));
+    }
+
+    @Test
+    public void randomIdsRoundTripThroughEveryRehash() {
+        Random random = new Random(42);
+        IdDictionary ids = new IdDictionary();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            // sequential ids, as in the csv files, and sparse ones
+            int id = random.nextBoolean() ? random.nextInt(50000) : random.nextInt();
+            Integer index = expected.get(id);
+            if (index == null) {
+                index = expected.size();
+                expected.put(id, index);
+            }
+            assertEquals((int) index, ids.getOrAdd(id));
+        }
+
+        assertEquals(expected.size(), ids.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), ids.indexOf(entry.getKey()));
+            assertEquals((int) entry.getKey(), ids.externalId(entry.getValue()));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void anIndexPastTheEndIsRejected() {
+        IdDictionary ids = new IdDictionary();
+        ids.getOrAdd(5);
+        ids.externalId(1);
+    }
+}
@@ -0,0 +1,117 @@
+package movieRecommender;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MovieCatalogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void quotedTitlesKeepTheirCommasAndQuotes() throws IOException {
+        MovieCatalog catalog = load("movieId,title,genres\n"
+                + "1,\"American President, The (1995)\",Comedy|Drama|Romance\n"
+                + "2,\"Bird, The (\"\"Quoted\"\") (1999)\",Drama\n"
+                + "3,\"\"\"Great Performances\"\" Cats (1998)\",Musical\n");
+        assertEquals("American President, The (1995)", catalog.getTitle(0));
+        assertEquals("Bird, The (\"Quoted\") (1999)", catalog.getTitle(1));
+        assertEquals("\"Great Performances\" Cats (1998)", catalog.getTitle(2));
+        assertEquals(catalog.genreMask("Drama"), catalog.getGenres(1));
+    }
+
+    @Test
+    public void utf8TitlesComeBackUnchanged() throws IOException {
+        String title = "Amélie (Fabuleux destin d'Amélie Poulain, Le) (2001)";
+        String other = "千と千尋の神隠し (2001)";
+        MovieCatalog catalog = load("movieId,title,genres\n"
+                + "4973,\"" + title + "\",Comedy|Romance\n"
+                + "5618," + other + ",Adventure|Animation|Fantasy\n");
+        assertEquals(title, catalog.getTitle(0));
+        assertEquals(other, catalog.getTitle(1));
+
+        ExportBuffer out = new ExportBuffer(16);
+        catalog.appendTitle(out, 1);
+        assertEquals(other, new String(out.array(), 0, out.length(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void genresBecomeBitsOfTheMask() throws IOException {
+        String longGenre = "A-genre-with-a-name-that-is-longer-than-the-sixty-four-bytes-of-the-buffer";
+        MovieCatalog catalog = load("movieId,title,genres\n"
+                + "1,Toy Story (1995),Adventure|Animation|Children|Comedy|Fantasy\n"
+                + "2,Heat (1995),Action|Crime|Thriller\n"
+                + "3,Unknown (2020),(no genres listed)\n"
+                + "4,New (2021),Western|Cyberpunk\n"
+                + "5,Long (2022)," + longGenre + "\n");
+        assertEquals((1L << 1) | (1L << 2) | (1L << 3) | (1L << 4) | (1L << 8), catalog.getGenres(0));
+        assertEquals(catalog.genreMask("Thriller|Crime|Action"), catalog.getGenres(1));
+        assertEquals(0, catalog.getGenres(2));
+
+        // genres that are not in the MovieLens list get the next free bits
+        assertEquals(19, catalog.genreIndex("Cyberpunk"));
+        assertEquals((1L << 18) | (1L << 19), catalog.getGenres(3));
+        assertEquals(20, catalog.genreIndex(longGenre));
+        assertEquals(longGenre, catalog.getGenreName(20));
+        assertEquals(1L << 20, catalog.getGenres(4));
+        assertEquals(21, catalog.getNumGenres());
+    }
+
+    @Test
+    public void genresPastTheMaskAreCountedAsErrors() throws IOException {
+        StringBuilder file = new StringBuilder("movieId,title,genres\n");
+        for (int i = 0; i < 50; i++) {
+            file.append(i + 1).append(",Movie ").append(i).append(",Genre").append(i).append('\n');
+        }
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        try {
+            MovieCatalog catalog = load(file.toString());
+            assertEquals(64, catalog.getNumGenres());
+            assertEquals(5, Metrics.snapshot().get(Metrics.Counter.ERRORS));
+            assertEquals(1L << 63, catalog.getGenres(44));
+            assertEquals(0, catalog.getGenres(45));
+            assertEquals("Movie 45", catalog.getTitle(45));
+        } finally {
+            Metrics.setEnabled(false);
+            Metrics.reset();
+        }
+    }
+
+    @Test
+    public void aReloadStartsANewArena() throws IOException {
+        IdDictionary movieIds = new IdDictionary();
+        MovieCatalog catalog = new MovieCatalog(movieIds);
+        catalog.load(write("movieId,title,genres\n1,Toy Story (1995),Comedy\n2,Jumanji (1995),Adventure\n"));
+        int bytes = catalog.getTitleBytes();
+        catalog.load(write("movieId,title,genres\n1,Toy Story (1995),Animation\n"));
+
+        assertTrue(catalog.getTitleBytes() < bytes);
+        assertEquals("Toy Story (1995)", catalog.getTitle(0));
+        assertEquals(catalog.genreMask("Animation"), catalog.getGenres(0));
+        assertNull(catalog.getTitle(1)); // not in the new file
+        assertEquals(0, catalog.getGenres(1));
+        assertEquals(1, movieIds.indexOf(2)); // the indices stay
+    }
+
+    private MovieCatalog load(String contents) throws IOException {
+        MovieCatalog catalog = new MovieCatalog(new IdDictionary());
+        catalog.load(write(contents));
+        return catalog;
+    }
+
+    private String write(String contents) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+}
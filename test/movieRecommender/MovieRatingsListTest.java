@@ -0,0 +1,123 @@
+package movieRecommender;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MovieRatingsListTest {
+    @Test
+    public void reRateMovesTheNode() {
+        MovieRatingsList list = new MovieRatingsList();
+        list.insertByRating(1, 3.0);
+        list.insertByRating(2, 4.5);
+        list.insertByRating(3, 1.0);
+
+        list.setRating(3, 5.0);
+        assertOrder(list, new int[]{3, 2, 1});
+        list.setRating(2, 0.5);
+        assertOrder(list, new int[]{3, 1, 2});
+        assertEquals(0.5, list.getRating(2), 0);
+
+        // a second insert of the same movie changes its rating
+        list.insertByRating(1, 5.0);
+        assertOrder(list, new int[]{1, 3, 2});
+        assertEquals(3, list.getStats().getCount());
+        assertEquals(10.5, list.getStats().getSum(), 1e-9);
+    }
+
+    @Test
+    public void equalRatingsComeOutByMovieId() {
+        MovieRatingsList list = new MovieRatingsList();
+        list.insertByRating(7, 4.0);
+        list.insertByRating(3, 4.0);
+        list.insertByRating(5, 2.0);
+        list.setRating(5, 4.0);
+        assertOrder(list, new int[]{3, 5, 7});
+    }
+
+    @Test
+    public void randomReRatesKeepTheListSortedAndTheMedianRight() {
+        Random random = new Random(42);
+        MovieRatingsList list = new MovieRatingsList();
+        Map<Integer, Double> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int movie = random.nextInt(2000);
+            double rating = (1 + random.nextInt(10)) / 2.0;
+            if (expected.containsKey(movie) && random.nextBoolean()) {
+                list.setRating(movie, rating);
+            } else {
+                list.insertByRating(movie, rating);
+            }
+            expected.put(movie, rating);
+
+            if (i % 1000 == 999) {
+                assertMatches(list, expected);
+            }
+        }
+    }
+
+    @Test
+    public void medianOfAnEmptyList() {
+        assertEquals(-1, new MovieRatingsList().getMedianRating(), 0);
+    }
+
+    @Test
+    public void reRateThroughUserNodeKeepsOneSegmentEntry() {
+        UserNode user = new UserNode(0);
+        user.insert(4, 2.0, 100);
+        user.insert(4, 3.5, 200);
+        assertEquals(1, user.getNumRatings());
+        assertEquals(3.5, user.getMovieRatings().getRating(4), 0);
+        int entries = 0;
+        for (int s = 0; s < user.getNumSegments(); s++) {
+            RatingSegment segment = user.getSegment(s);
+            for (int i = 0; i < segment.size(); i++) {
+                assertEquals(4, segment.getMovie(i));
+                assertEquals(3.5, segment.getRating(i), 0);
+                assertEquals(200, segment.getTime(i));
+                entries++;
+            }
+        }
+        assertEquals(1, entries);
+    }
+
+    /** Check that the list holds exactly the expected ratings, sorted, with the right median */
+    private static void assertMatches(MovieRatingsList list, Map<Integer, Double> expected) {
+        double[] sorted = new double[expected.size()];
+        int n = 0;
+        double lastRating = Double.MAX_VALUE;
+        int lastMovie = -1;
+        for (MovieRatingNode node : list) {
+            double rating = node.getMovieRating();
+            assertEquals(expected.get(node.getMovieId()), rating, 0);
+            assertTrue(rating < lastRating || (rating == lastRating && node.getMovieId() > lastMovie));
+            lastRating = rating;
+            lastMovie = node.getMovieId();
+            sorted[n++] = rating;
+        }
+        assertEquals(expected.size(), n);
+        assertEquals(expected.size(), list.getStats().getCount());
+        for (Map.Entry<Integer, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), list.getRating(entry.getKey()), 0);
+        }
+
+        Arrays.sort(sorted); // smallest first
+        assertEquals(sorted[n - 1 - n / 2], list.getMedianRating(), 0);
+        assertEquals(list.getMiddleNode().getMovieRating(), list.getMedianRating(), 0);
+    }
+
+    private static void assertOrder(MovieRatingsList list, int[] movies) {
+        int i = 0;
+        for (MovieRatingNode node : list) {
+            assertTrue("more nodes than expected", i < movies.length);
+            assertEquals(movies[i++], node.getMovieId());
+        }
+        assertEquals(movies.length, i);
+    }
+}
@@ -0,0 +1,78 @@
+package movieRecommender;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/** The rankings, and the scan once they run out, must give the movies a
+ *  sort of all movies gives, on the movies of movies.csv. */
+public class PopularityIndexTest {
+    private static final int[] NS = {1, 15, 100, 250, 5000};
+
+    private static IdDictionary movieIds;
+    private static MovieCatalog catalog;
+
+    @BeforeClass
+    public static void loadMovies() throws IOException {
+        movieIds = new IdDictionary();
+        catalog = new MovieCatalog(movieIds);
+        catalog.load("movies.csv");
+    }
+
+    @Test
+    public void rankingsGiveTheSameMoviesAsASort() {
+        Random random = new Random(42);
+        PopularityIndex index = new PopularityIndex(catalog);
+        int numMovies = movieIds.size();
+        for (int i = 0; i < 50000; i++) {
+            index.add(random.nextInt(numMovies), (1 + random.nextInt(10)) / 2.0);
+        }
+        index.rebuild(); // between rebuilds the rankings may lag behind the mean, by design
+
+        boolean[] watched = new boolean[numMovies];
+        for (int i = 0; i < numMovies / 3; i++) {
+            watched[random.nextInt(numMovies)] = true;
+        }
+        long[] masks = {0, catalog.genreMask("Comedy"), catalog.genreMask("Film-Noir|Western"),
+                catalog.genreMask("Drama|Documentary|IMAX")};
+        for (long includeGenres : masks) {
+            for (long excludeGenres : new long[]{0, catalog.genreMask("Drama")}) {
+                MovieFilter filter = new MovieFilter(watched, catalog, includeGenres, excludeGenres);
+                for (int n : NS) {
+                    String message = "genres " + includeGenres + " excluded " + excludeGenres + " n " + n;
+                    assertArrayEquals(message, sorted(index, filter, n, false),
+                            index.getBest(n, filter, includeGenres));
+                    assertArrayEquals(message, sorted(index, filter, n, true),
+                            index.getMostRated(n, filter, includeGenres));
+                }
+            }
+        }
+    }
+
+    /** Return the first n movies that pass the filter in a sort of all rated movies */
+    private static int[] sorted(final PopularityIndex index, MovieFilter filter, int n, final boolean byCount) {
+        List<Integer> movies = new ArrayList<>();
+        for (int movie = 0; movie < movieIds.size(); movie++) {
+            if (index.getCount(movie) > 0 && filter.accept(movie)) {
+                movies.add(movie);
+            }
+        }
+        Collections.sort(movies, (a, b) -> {
+            double scoreA = byCount ? index.getCount(a) : index.getBayesianAverage(a);
+            double scoreB = byCount ? index.getCount(b) : index.getBayesianAverage(b);
+            return scoreA != scoreB ? Double.compare(scoreB, scoreA) : Integer.compare(a, b);
+        });
+        int[] result = new int[Math.min(n, movies.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = movies.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package movieRecommender;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/** The searches that skip users must find the same neighbours as the
+ *  exhaustive scan, ties included, on the ratings of ratings.csv. */
+public class PrunedSearchTest {
+    private static final int[] KS = {1, 10, 50};
+
+    private static UsersList users;
+
+    @BeforeClass
+    public static void load() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("movies.csv", "ratings.csv");
+        users = recommender.getUsersData();
+    }
+
+    @Test
+    public void prunedWeightedSearchMatchesTheScan() {
+        for (int k : KS) {
+            for (int user = 0; user < users.numUsers(); user++) {
+                assertSame("user " + user + " k " + k, users.findMostSimilarUsers(user, k, false),
+                        users.findMostSimilarUsers(user, k, true));
+            }
+        }
+    }
+
+    @Test
+    public void indexSearchWithAMinimumOverlapMatchesTheScan() {
+        Similarity[] similarities = {
+                Similarity.WEIGHTED.withMinOverlap(5),
+                Similarity.PEARSON.withMeasure(Similarity.Measure.CENTERED_COSINE).withMinOverlap(3),
+                Similarity.PEARSON.withMeasure(Similarity.Measure.CENTERED_COSINE).withWeighting(true),
+        };
+        for (Similarity similarity : similarities) {
+            for (int k : KS) {
+                for (int user = 0; user < users.numUsers(); user += 3) {
+                    assertSame(similarity + " user " + user + " k " + k,
+                            users.findMostSimilarUsers(user, k, similarity, QueryPlanner.Plan.BRUTE_FORCE),
+                            users.findMostSimilarUsers(user, k, similarity, QueryPlanner.Plan.INVERTED_INDEX));
+                }
+            }
+        }
+    }
+
+    private static void assertSame(String message, TopK expected, TopK actual) {
+        assertArrayEquals(message, expected.sortedIds(), actual.sortedIds());
+        assertArrayEquals(message, expected.sortedScores(), actual.sortedScores(), 0);
+    }
+}
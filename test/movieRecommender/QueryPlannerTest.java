@@ -0,0 +1,136 @@
+package movieRecommender;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPlannerTest {
+    private static final Similarity[] SIMILARITIES = {
+            Similarity.PEARSON,
+            Similarity.WEIGHTED,
+            Similarity.PEARSON.withMinOverlap(5),
+            Similarity.PEARSON.withMeasure(Similarity.Measure.CENTERED_COSINE).withMinOverlap(20),
+    };
+
+    private static MovieRecommender recommender;
+    private static UserNode heaviest;
+    private static UserNode lightest;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void load() {
+        recommender = new MovieRecommender();
+        recommender.loadData("movies.csv", "ratings.csv");
+        UsersList users = recommender.getUsersData();
+        heaviest = users.get(0);
+        lightest = users.get(0);
+        for (int user = 0; user < users.numUsers(); user++) {
+            UserNode node = users.get(user);
+            if (node.getNumRatings() > heaviest.getNumRatings()) {
+                heaviest = node;
+            }
+            if (node.getNumRatings() < lightest.getNumRatings()) {
+                lightest = node;
+            }
+        }
+    }
+
+    @After
+    public void resetPlanner() {
+        recommender.setSearchPlan(null);
+        recommender.setApproximateSearch(false);
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void theChosenPlanHasTheSmallestEstimate() {
+        QueryPlanner planner = recommender.getPlanner();
+        UsersList users = recommender.getUsersData();
+        for (boolean approximate : new boolean[]{false, true}) {
+            planner.setApproximate(approximate);
+            for (Similarity similarity : SIMILARITIES) {
+                for (int user = 0; user < users.numUsers(); user++) {
+                    UserNode node = users.get(user);
+                    QueryPlanner.Plan chosen = planner.choose(node, similarity);
+                    for (QueryPlanner.Plan plan : QueryPlanner.Plan.values()) {
+                        if (plan != QueryPlanner.Plan.APPROXIMATE || approximate) {
+                            assertTrue(similarity + " user " + user + " " + chosen + " over " + plan,
+                                    planner.estimateCost(chosen, node, similarity)
+                                            <= planner.estimateCost(plan, node, similarity));
+                        }
+                    }
+                    assertTrue(approximate || chosen != QueryPlanner.Plan.APPROXIMATE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void heavyRatersAreScannedAndLightRatersUseTheIndex() {
+        QueryPlanner planner = recommender.getPlanner();
+        assertEquals(QueryPlanner.Plan.BRUTE_FORCE, planner.choose(heaviest, Similarity.PEARSON));
+        assertEquals(QueryPlanner.Plan.BRUTE_FORCE, planner.choose(heaviest, Similarity.WEIGHTED));
+        assertEquals(QueryPlanner.Plan.INVERTED_INDEX, planner.choose(lightest, Similarity.WEIGHTED));
+        // a large minimum overlap skips most users before their ratings are read
+        assertEquals(QueryPlanner.Plan.INVERTED_INDEX, planner.choose(lightest, SIMILARITIES[3]));
+    }
+
+    @Test
+    public void theApproximateSearchIsChosenOnlyWhenAllowed() {
+        // many users rating the same few movies: the postings reach everyone, and the
+        // approximate search reads the ratings of a small share of them
+        Random random = new Random(42);
+        UsersList users = new UsersList();
+        for (int user = 0; user < 20000; user++) {
+            for (int i = 0; i < 20; i++) {
+                users.insert(user, random.nextInt(100), 0.5 + random.nextInt(10) * 0.5, 0);
+            }
+        }
+        QueryPlanner planner = new QueryPlanner(users);
+        UserNode user = users.get(0);
+        assertTrue(planner.choose(user, Similarity.PEARSON) != QueryPlanner.Plan.APPROXIMATE);
+        planner.setApproximate(true);
+        assertEquals(QueryPlanner.Plan.APPROXIMATE, planner.choose(user, Similarity.PEARSON));
+        // the weighted search prunes most of the candidates by itself
+        assertEquals(QueryPlanner.Plan.INVERTED_INDEX, planner.choose(user, Similarity.WEIGHTED));
+    }
+
+    @Test
+    public void aForcedPlanIsAlwaysChosen() {
+        QueryPlanner planner = recommender.getPlanner();
+        for (QueryPlanner.Plan plan : QueryPlanner.Plan.values()) {
+            planner.setPlan(plan);
+            assertEquals(plan, planner.choose(heaviest, Similarity.PEARSON));
+            assertEquals(plan, planner.choose(lightest, Similarity.WEIGHTED));
+        }
+        planner.setPlan(null);
+        assertEquals(QueryPlanner.Plan.BRUTE_FORCE, planner.choose(heaviest, Similarity.PEARSON));
+    }
+
+    @Test
+    public void aQueryRecordsThePlanThatRan() throws IOException {
+        recommender.setApproximateSearch(true);
+        int userId = recommender.getUserIds().externalId(lightest.getId());
+        for (QueryPlanner.Plan plan : QueryPlanner.Plan.values()) {
+            recommender.setSearchPlan(plan);
+            Metrics.reset();
+            Metrics.setEnabled(true);
+            recommender.findRecommendations(userId, 15, folder.newFile().getPath());
+            Metrics.setEnabled(false);
+            for (QueryPlanner.Plan other : QueryPlanner.Plan.values()) {
+                assertEquals(plan + " ran, " + other, other == plan ? 1 : 0, Metrics.snapshot().get(other.counter));
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package movieRecommender;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RatingSegmentTest {
+    @Test
+    public void sortByTimeCutsFullSegmentsInTimeOrder() {
+        Random random = new Random(42);
+        List<RatingSegment> segments = new ArrayList<>();
+        long[] times = new long[200];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1000 + random.nextInt(50); // many equal times
+            if (segments.isEmpty() || segments.get(segments.size() - 1).isFull()) {
+                segments.add(new RatingSegment());
+            }
+            segments.get(segments.size() - 1).add(i, 0.5 + i % 10 * 0.5, times[i]);
+        }
+
+        List<RatingSegment> sorted = new ArrayList<>();
+        RatingSegment.sortByTime(segments, sorted);
+        assertEquals(4, sorted.size());
+        long last = Long.MIN_VALUE;
+        int lastMovie = -1;
+        int n = 0;
+        for (RatingSegment segment : sorted) {
+            assertEquals(n < 192 ? RatingSegment.CAPACITY : 8, segment.size());
+            assertEquals(segment.getTime(0), segment.getMinTime());
+            assertEquals(segment.getTime(segment.size() - 1), segment.getMaxTime());
+            for (int i = 0; i < segment.size(); i++, n++) {
+                int movie = segment.getMovie(i);
+                assertEquals(times[movie], segment.getTime(i));
+                assertEquals(0.5 + movie % 10 * 0.5, segment.getRating(i), 0);
+                // equal times keep the order they were added in
+                assertTrue(segment.getTime(i) > last || (segment.getTime(i) == last && movie > lastMovie));
+                last = segment.getTime(i);
+                lastMovie = movie;
+            }
+        }
+        assertEquals(times.length, n);
+    }
+
+    @Test
+    public void sortByTimeHandlesTimesSpreadWiderThanTheKey() {
+        // milliseconds over centuries do not fit the primitive sort key
+        long[] times = {Long.MAX_VALUE - 1, -5_000_000_000_000L, 0, 1L << 40, Long.MIN_VALUE + 1, 7};
+        RatingSegment segment = new RatingSegment();
+        for (int i = 0; i < times.length; i++) {
+            segment.add(i, 3.0, times[i]);
+        }
+        List<RatingSegment> sorted = new ArrayList<>();
+        RatingSegment.sortByTime(Arrays.asList(segment), sorted);
+        long[] expected = times.clone();
+        Arrays.sort(expected);
+        long[] actual = new long[times.length];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = sorted.get(0).getTime(i);
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void compactionMergesOnlySegmentsOlderThanTheCut() {
+        UserNode user = new UserNode(0);
+        for (int i = 0; i < 5 * RatingSegment.CAPACITY; i++) {
+            user.insert(i, 0.5 + i % 10 * 0.5, 100 + i);
+        }
+        assertEquals(5, user.getNumSegments());
+        long cut = user.getSegment(3).getMaxTime(); // segment 3 ends at the cut, so it is not older
+        double[] before = user.denseRatings(5 * RatingSegment.CAPACITY, new TimeWindow(150, 300));
+
+        assertEquals(3, user.compactSegments(cut));
+        assertEquals(3, user.getNumSegments());
+        RatingSegment frozen = user.getSegment(0);
+        assertTrue(frozen.isFrozen());
+        assertTrue(frozen.isFull());
+        assertEquals(3 * RatingSegment.CAPACITY, frozen.size());
+        assertEquals(100, frozen.getMinTime());
+        assertEquals(100 + 3 * RatingSegment.CAPACITY - 1, frozen.getMaxTime());
+        assertFalse(user.getSegment(1).isFrozen());
+
+        // the same ratings in every window, and a second compaction has nothing left to merge
+        assertArrayEquals(before, user.denseRatings(5 * RatingSegment.CAPACITY, new TimeWindow(150, 300)), 0);
+        assertEquals(0, user.compactSegments(cut));
+
+        // new ratings go to a segment that is not frozen
+        user.insert(10000, 4.0, 10000);
+        assertEquals(RatingSegment.CAPACITY * 3, user.getSegment(0).size());
+        RatingSegment newest = user.getSegment(user.getNumSegments() - 1);
+        assertEquals(10000, newest.getMovie(newest.size() - 1));
+    }
+
+    @Test
+    public void aRemovedRatingLeavesTheBoundsValid() {
+        RatingSegment segment = new RatingSegment();
+        segment.add(1, 4.0, 10);
+        segment.add(2, 3.0, 20);
+        segment.add(3, 2.0, 15);
+        assertEquals(3, segment.getMovie(1)); // kept in time order
+        assertTrue(segment.remove(1));
+        assertFalse(segment.remove(1));
+        assertEquals(2, segment.size());
+        assertTrue(segment.getMinTime() <= 15);
+        assertEquals(20, segment.getMaxTime());
+    }
+
+    @Test
+    public void windowsIncludeBothEnds() {
+        TimeWindow window = new TimeWindow(100, 200);
+        assertTrue(window.contains(100));
+        assertTrue(window.contains(200));
+        assertFalse(window.contains(99));
+        assertFalse(window.contains(201));
+
+        assertTrue(window.overlaps(50, 100));
+        assertTrue(window.overlaps(200, 300));
+        assertFalse(window.overlaps(50, 99));
+        assertFalse(window.overlaps(201, 300));
+        assertTrue(window.covers(100, 200));
+        assertFalse(window.covers(99, 200));
+        assertFalse(window.covers(100, 201));
+
+        TimeWindow instant = new TimeWindow(7, 7);
+        assertTrue(instant.contains(7));
+        assertFalse(instant.isAll());
+        assertTrue(TimeWindow.ALL.isAll());
+        assertTrue(TimeWindow.ALL.contains(Long.MIN_VALUE) && TimeWindow.ALL.contains(Long.MAX_VALUE));
+
+        TimeWindow days = TimeWindow.lastDays(2, 1_000_000);
+        assertEquals(1_000_000 - 2 * 24 * 60 * 60, days.getFrom());
+        assertEquals(1_000_000, days.getTo());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anEmptyWindowIsRejected() {
+        new TimeWindow(8, 7);
+    }
+
+    @Test
+    public void windowedRatingsStopAtTheEnds() {
+        UserNode user = new UserNode(0);
+        user.insert(0, 1.0, 99);
+        user.insert(1, 2.0, 100);
+        user.insert(2, 3.0, 200);
+        user.insert(3, 4.0, 201);
+        assertArrayEquals(new double[]{0, 2.0, 3.0, 0}, user.denseRatings(4, new TimeWindow(100, 200)), 0);
+        assertTrue(user.hasRatingsIn(new TimeWindow(201, 300)));
+        assertFalse(user.hasRatingsIn(new TimeWindow(202, 300)));
+    }
+}
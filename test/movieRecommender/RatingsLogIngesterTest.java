@@ -0,0 +1,46 @@
+package movieRecommender;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RatingsLogIngesterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void aBatchTheRecommenderThrowsOnStopsTheThread() throws IOException, InterruptedException {
+        File log = folder.newFile("ratings.log");
+        Files.write(log.toPath(), ("userId,movieId,rating,timestamp\n"
+                + "10,1,4.0,100\n"
+                + "10,2,2.5,101\n").getBytes(StandardCharsets.US_ASCII));
+        MovieRecommender failing = new MovieRecommender() {
+            @Override
+            public void addRatings(int[] userIdArr, int[] movieIdArr, double[] ratings, long[] times, int n) {
+                throw new IllegalStateException("no more ratings");
+            }
+        };
+        RatingsLogIngester ingester = new RatingsLogIngester(failing, log.getPath(),
+                new File(folder.getRoot(), "ratings.offset").getPath(), 100, 10);
+        ingester.start();
+        while (ingester.getFailure() == null) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, ingester.getOffset()); // the batch is read again once the recommender takes it
+        try {
+            ingester.stop();
+            fail("stop should report the failure");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
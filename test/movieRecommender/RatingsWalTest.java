@@ -0,0 +1,134 @@
+package movieRecommender;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RatingsWalTest {
+    private static final int FRAME_BYTES = 4 + 20 + 4; // one update: count, record, checksum
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File movies;
+    private File dir;
+
+    @Before
+    public void writeMovies() throws IOException {
+        movies = folder.newFile("movies.csv");
+        Files.write(movies.toPath(), ("movieId,title,genres\n"
+                + "1,Toy Story (1995),Animation|Comedy\n"
+                + "2,Jumanji (1995),Adventure\n"
+                + "3,Heat (1995),Action|Crime\n").getBytes(StandardCharsets.US_ASCII));
+        dir = new File(folder.getRoot(), "wal");
+    }
+
+    @Test
+    public void recoveryCutsOffATruncatedFrame() throws IOException {
+        RatingsWal wal = new RatingsWal(recommender(), dir.getPath());
+        wal.recover();
+        wal.update(10, 1, 4.0, 100);
+        wal.update(10, 2, 2.5, 101);
+        wal.update(11, 3, 5.0, 102);
+        wal.close();
+
+        File log = new File(dir, "wal-0.log");
+        assertEquals(3 * FRAME_BYTES, log.length());
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(3 * FRAME_BYTES - 5); // a crash in the middle of the last frame
+        }
+
+        MovieRecommender recovered = recommender();
+        wal = new RatingsWal(recovered, dir.getPath());
+        assertEquals(2, wal.recover());
+        assertEquals(2 * FRAME_BYTES, log.length());
+        assertEquals(4.0, rating(recovered, 10, 1), 0);
+        assertEquals(2.5, rating(recovered, 10, 2), 0);
+        assertEquals(-1, recovered.getUserIds().indexOf(11));
+
+        // updates after the recovery follow the good frames
+        wal.update(11, 3, 3.5, 103);
+        wal.close();
+        recovered = recommender();
+        wal = new RatingsWal(recovered, dir.getPath());
+        assertEquals(3, wal.recover());
+        wal.close();
+        assertEquals(3.5, rating(recovered, 11, 3), 0);
+    }
+
+    @Test
+    public void recoveryReplaysTheLogAfterACheckpoint() throws IOException {
+        RatingsWal wal = new RatingsWal(recommender(), dir.getPath());
+        wal.recover();
+        wal.update(new int[]{10, 10, 11}, new int[]{1, 2, 1}, new double[]{4.0, 2.5, 3.0},
+                new long[]{100, 101, 102}, 3);
+        wal.checkpoint();
+        wal.update(10, 1, 1.5, 103); // replaces a rating of the checkpoint
+        wal.update(12, 3, 5.0, 104);
+        wal.close();
+
+        assertTrue(new File(dir, "checkpoint.bin").exists());
+        assertFalse(new File(dir, "wal-0.log").exists());
+
+        MovieRecommender recovered = recommender();
+        wal = new RatingsWal(recovered, dir.getPath());
+        assertEquals(2, wal.recover());
+        wal.close();
+        assertEquals(1.5, rating(recovered, 10, 1), 0);
+        assertEquals(2.5, rating(recovered, 10, 2), 0);
+        assertEquals(3.0, rating(recovered, 11, 1), 0);
+        assertEquals(5.0, rating(recovered, 12, 3), 0);
+        assertEquals(4, recovered.getUsersData().numRatings());
+    }
+
+    @Test(timeout = 10000)
+    public void anUpdateTheRecommenderThrowsOnFailsTheWaiters() throws IOException {
+        MovieRecommender failing = new MovieRecommender() {
+            @Override
+            public void addRatings(int[] userIdArr, int[] movieIdArr, double[] ratings, long[] times, int n) {
+                throw new IllegalStateException("no more ratings");
+            }
+        };
+        failing.loadMovies(movies.getPath());
+        RatingsWal wal = new RatingsWal(failing, dir.getPath());
+        wal.recover();
+        try {
+            wal.update(10, 1, 4.0, 100);
+            fail("the update should fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the commit thread is gone, so later updates fail at once
+        try {
+            wal.update(10, 2, 2.5, 101);
+            fail("the update should fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        wal.close();
+    }
+
+    private MovieRecommender recommender() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadMovies(movies.getPath());
+        return recommender;
+    }
+
+    /** Return the rating of the movie by the user, external ids, or -1 */
+    private static double rating(MovieRecommender recommender, int userId, int movieId) {
+        UserNode user = recommender.getUsersData().get(recommender.getUserIds().indexOf(userId));
+        return user.getMovieRatings().getRating(recommender.getMovieIds().indexOf(movieId));
+    }
+}
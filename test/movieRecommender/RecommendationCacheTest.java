@@ -0,0 +1,152 @@
+package movieRecommender;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RecommendationCacheTest {
+    private static final int[] MOVIES = {4, 8, 15};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void enableMetrics() {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void disableMetrics() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void aChangeOfTheUserOrTheNeighbourMakesTheEntryStale() {
+        RecommendationCache cache = new RecommendationCache(10);
+        RecommendationCache.Key key = key(1);
+        cache.put(key, MOVIES, 2, 7);
+        assertArrayEquals(MOVIES, cache.get(key, 7));
+        assertArrayEquals(MOVIES, cache.get(key, 8)); // the popularity index does not matter for a neighbour's movies
+
+        cache.changed(3); // some other user
+        assertArrayEquals(MOVIES, cache.get(key, 7));
+        cache.changed(2); // the neighbour
+        assertNull(cache.get(key, 7));
+        assertEquals(0, cache.size()); // the stale entry is dropped
+
+        cache.put(key, MOVIES, 2, 7);
+        cache.changed(1); // the user
+        assertNull(cache.get(key, 7));
+    }
+
+    @Test
+    public void popularMoviesAreStaleOnceThePopularityIndexChanges() {
+        RecommendationCache cache = new RecommendationCache(10);
+        RecommendationCache.Key unknown = key(-1);
+        cache.put(unknown, MOVIES, -1, 7);
+        cache.changed(0);
+        assertArrayEquals(MOVIES, cache.get(unknown, 7));
+        assertNull(cache.get(unknown, 8));
+
+        RecommendationCache.Key known = key(1);
+        cache.put(known, MOVIES, -1, 7);
+        cache.changed(1);
+        assertNull(cache.get(known, 7));
+    }
+
+    @Test
+    public void theLeastRecentlyUsedEntryIsEvicted() {
+        RecommendationCache cache = new RecommendationCache(2);
+        cache.put(key(1), MOVIES, -1, 0);
+        cache.put(key(2), MOVIES, -1, 0);
+        cache.get(key(1), 0);
+        cache.put(key(3), MOVIES, -1, 0);
+        assertEquals(2, cache.size());
+        assertArrayEquals(MOVIES, cache.get(key(1), 0));
+        assertNull(cache.get(key(2), 0));
+
+        cache.setCapacity(0);
+        cache.put(key(1), MOVIES, -1, 0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void keysDifferInEveryPartOfTheQuery() {
+        RecommendationCache cache = new RecommendationCache(10);
+        cache.put(new RecommendationCache.Key(1, 15, false, 0, 0, TimeWindow.ALL), MOVIES, -1, 0);
+        assertNull(cache.get(new RecommendationCache.Key(1, 10, false, 0, 0, TimeWindow.ALL), 0));
+        assertNull(cache.get(new RecommendationCache.Key(1, 15, true, 0, 0, TimeWindow.ALL), 0));
+        assertNull(cache.get(new RecommendationCache.Key(1, 15, false, 1, 0, TimeWindow.ALL), 0));
+        assertNull(cache.get(new RecommendationCache.Key(1, 15, false, 0, 1, TimeWindow.ALL), 0));
+        assertNull(cache.get(new RecommendationCache.Key(1, 15, false, 0, 0, new TimeWindow(0, 10)), 0));
+        assertArrayEquals(MOVIES, cache.get(new RecommendationCache.Key(1, 15, false, 0, 0, TimeWindow.ALL), 0));
+    }
+
+    @Test
+    public void newRatingsAreSeenByTheNextQuery() throws IOException {
+        MovieRecommender cached = new MovieRecommender();
+        cached.loadData("movies.csv", "ratings.csv");
+        MovieRecommender uncached = new MovieRecommender();
+        uncached.loadData("movies.csv", "ratings.csv");
+        uncached.setCacheCapacity(0);
+
+        int user = 1;
+        List<String> first = recommend(cached, user);
+        assertEquals(first, recommend(cached, user));
+        assertEquals(1, Metrics.snapshot().get(Metrics.Counter.CACHE_HITS));
+
+        // the user rates the first recommended movie, so it must not come back
+        int movieId = Integer.parseInt(first.get(0).substring(0, first.get(0).indexOf(' ')));
+        for (MovieRecommender recommender : new MovieRecommender[]{cached, uncached}) {
+            recommender.addRatings(new int[]{user}, new int[]{movieId}, new double[]{1.0}, new long[]{2000000000L}, 1);
+        }
+        List<String> second = recommend(cached, user);
+        assertEquals(recommend(uncached, user), second);
+        assertFalse(second.contains(first.get(0)));
+        assertEquals(1, Metrics.snapshot().get(Metrics.Counter.CACHE_HITS));
+
+        // popular movies for an unknown user follow the popularity index
+        int unknown = -1;
+        recommend(cached, unknown);
+        for (MovieRecommender recommender : new MovieRecommender[]{cached, uncached}) {
+            int[] users = new int[300];
+            int[] movies = new int[300];
+            double[] ratings = new double[300];
+            long[] times = new long[300];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = 100000 + i;
+                movies[i] = movieId;
+                ratings[i] = 5.0;
+                times[i] = 2000000000L;
+            }
+            recommender.addRatings(users, movies, ratings, times, users.length);
+        }
+        assertEquals(recommend(uncached, unknown), recommend(cached, unknown));
+        assertEquals(1, Metrics.snapshot().get(Metrics.Counter.CACHE_HITS));
+    }
+
+    private List<String> recommend(MovieRecommender recommender, int user) throws IOException {
+        File out = folder.newFile();
+        recommender.findRecommendations(user, 15, out.getPath());
+        return Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static RecommendationCache.Key key(int user) {
+        return new RecommendationCache.Key(user, 15, false, 0, 0, TimeWindow.ALL);
+    }
+}
@@ -0,0 +1,115 @@
+package movieRecommender;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/** Reordering the users for the scans must not change any neighbour or
+ *  recommendation, on ratings.csv, with lists and with packed ratings. */
+public class ReorderUsersTest {
+    private static final int STEP = 7; // every 7th user is queried
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyOrderGivesTheSameResults() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            MovieRecommender recommender = new MovieRecommender();
+            recommender.loadData("movies.csv", "ratings.csv");
+            recommender.setCompressedRatings(compressed);
+            recommender.setCacheCapacity(0);
+            List<Object> expected = results(recommender);
+
+            for (UsersList.UserOrder order : new UsersList.UserOrder[]{UsersList.UserOrder.ACTIVITY,
+                    UsersList.UserOrder.CO_RATED, UsersList.UserOrder.INSERTION}) {
+                recommender.reorderUsers(order);
+                assertConsistent(recommender.getUsersData());
+                List<Object> actual = results(recommender);
+                for (int i = 0; i < expected.size(); i++) {
+                    String message = order + (compressed ? " compressed" : "") + " result " + i;
+                    if (expected.get(i) instanceof int[]) {
+                        assertArrayEquals(message, (int[]) expected.get(i), (int[]) actual.get(i));
+                    } else if (expected.get(i) instanceof double[]) {
+                        assertArrayEquals(message, (double[]) expected.get(i), (double[]) actual.get(i), 0);
+                    } else {
+                        assertEquals(message, expected.get(i), actual.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void usersAddedAfterAReorderComeLast() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("movies.csv", "ratings.csv");
+        recommender.reorderUsers(UsersList.UserOrder.ACTIVITY);
+        recommender.addRatings(new int[]{100000}, new int[]{1}, new double[]{4.0}, new long[]{0}, 1);
+        UsersList users = recommender.getUsersData();
+        UserNode last = null;
+        for (UserNode curr = head(users); curr != null; curr = curr.next()) {
+            last = curr;
+        }
+        assertConsistent(users);
+        assertEquals(recommender.getUserIds().indexOf(100000), last.getId());
+    }
+
+    /** The neighbours of every STEP-th user, with and without pruning, and the recommendations */
+    private List<Object> results(MovieRecommender recommender) throws IOException {
+        UsersList users = recommender.getUsersData();
+        List<Object> results = new ArrayList<>();
+        for (int user = 0; user < users.numUsers(); user += STEP) {
+            for (boolean prune : new boolean[]{false, true}) {
+                TopK best = users.findMostSimilarUsers(user, 10, prune);
+                results.add(best.sortedIds());
+                results.add(best.sortedScores());
+            }
+            File out = folder.newFile();
+            recommender.findRecommendations(recommender.getUserIds().externalId(user), 15, out.getPath());
+            results.add(Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+        }
+        return results;
+    }
+
+    /** Every user is on the list once, and the index finds the node on the list */
+    private static void assertConsistent(UsersList users) {
+        int n = 0;
+        boolean[] seen = new boolean[users.numUsers()];
+        for (UserNode curr = head(users); curr != null; curr = curr.next()) {
+            assertEquals(false, seen[curr.getId()]);
+            seen[curr.getId()] = true;
+            assertSame(curr, users.get(curr.getId()));
+            n++;
+        }
+        assertEquals(users.numUsers(), n);
+    }
+
+    /** Return the node that is not the next of any other node */
+    private static UserNode head(UsersList users) {
+        boolean[] hasPrevious = new boolean[users.numUsers()];
+        for (int user = 0; user < users.numUsers(); user++) {
+            UserNode next = users.get(user).next();
+            if (next != null) {
+                hasPrevious[next.getId()] = true;
+            }
+        }
+        for (int user = 0; user < users.numUsers(); user++) {
+            if (!hasPrevious[user]) {
+                return users.get(user);
+            }
+        }
+        return null;
+    }
+}
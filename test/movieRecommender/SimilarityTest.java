@@ -0,0 +1,120 @@
+package movieRecommender;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SimilarityTest {
+    private static final Similarity OVERLAP_3 = Similarity.PEARSON.withMinOverlap(3);
+    private static final Similarity CENTERED = Similarity.PEARSON.withMeasure(Similarity.Measure.CENTERED_COSINE);
+
+    @Before
+    public void enableMetrics() {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void disableMetrics() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void aPairBelowTheOverlapIsRejectedBeforeItsRatingsAreSummed() {
+        // four ratings each, so the counts allow an overlap of 3, but only movies 0 and 1 are shared
+        MovieRatingsList list = list(new int[]{0, 1, 2, 3}, new double[]{4.0, 2.0, 3.0, 5.0});
+        MovieRatingsList other = list(new int[]{0, 1, 4, 5}, new double[]{5.0, 1.0, 3.0, 2.0});
+        double[] dense = dense(other, 6);
+        CompressedRatings packed = CompressedRatings.of(list);
+
+        assertEquals(0, list.computeSimilarity(dense, other.getStats(), OVERLAP_3), 0);
+        assertEquals(0, packed.computeSimilarity(dense, other.getStats(), OVERLAP_3, list.getStats()), 0);
+        assertEquals(0, packed.computeSimilarity(dense, other.getStats(), OVERLAP_3, null), 0);
+        assertEquals(3, count(Metrics.Counter.OVERLAP_REJECTED));
+        assertEquals(0, count(Metrics.Counter.SIMILARITY_CALLS));
+
+        // the postings count the overlap, so the pair is not compared at all
+        IdDictionary userIds = new IdDictionary();
+        IdDictionary movieIds = new IdDictionary();
+        for (int i = 0; i < 6; i++) {
+            userIds.getOrAdd(i);
+            movieIds.getOrAdd(i);
+        }
+        UsersList users = new UsersList(userIds, movieIds);
+        insert(users, 0, list);
+        insert(users, 1, other);
+        TopK best = users.findMostSimilarUsers(0, 1, OVERLAP_3, QueryPlanner.Plan.INVERTED_INDEX);
+        assertArrayEquals(new int[]{1}, best.sortedIds());
+        assertArrayEquals(new double[]{0}, best.sortedScores(), 0);
+        assertEquals(4, count(Metrics.Counter.OVERLAP_REJECTED));
+        assertEquals(0, count(Metrics.Counter.SIMILARITY_CALLS));
+    }
+
+    @Test
+    public void aPairAtTheOverlapIsScored() {
+        MovieRatingsList list = list(new int[]{0, 1, 2, 3}, new double[]{4.0, 2.0, 3.0, 5.0});
+        MovieRatingsList other = list(new int[]{0, 1, 2, 4}, new double[]{5.0, 1.0, 3.0, 3.0});
+        double[] dense = dense(other, 5);
+        double expected = list.computeSimilarity(dense, other.getStats(), Similarity.PEARSON);
+
+        assertEquals(1.0, expected, 1e-12);
+        assertEquals(expected, list.computeSimilarity(dense, other.getStats(), OVERLAP_3), 0);
+        assertEquals(expected, CompressedRatings.of(list).computeSimilarity(dense, other.getStats(), OVERLAP_3, null), 1e-12);
+        assertEquals(0, count(Metrics.Counter.OVERLAP_REJECTED));
+    }
+
+    @Test
+    public void centeredCosineAgainstPearsonByHand() {
+        // y: 4 2 3 5, mean 3.5, centred .5 -1.5 -.5 1.5, norm sqrt(5)
+        // x: 5 1 3 . 3, mean 3, centred 2 -2 0 . 0, norm sqrt(8)
+        // shared movies 0..2: sum of the centred products 1 + 3 + 0 = 4
+        MovieRatingsList list = list(new int[]{0, 1, 2, 3}, new double[]{4.0, 2.0, 3.0, 5.0});
+        MovieRatingsList other = list(new int[]{0, 1, 2, 4}, new double[]{5.0, 1.0, 3.0, 3.0});
+        double[] dense = dense(other, 5);
+        double centered = 4 / Math.sqrt(5 * 8);
+        // Pearson takes the means over the shared movies only: x 2 -2 0, y 1 -1 0, so 4 / sqrt(8 * 2)
+        double pearson = 1.0;
+
+        assertEquals(pearson, list.computeSimilarity(dense, other.getStats(), Similarity.PEARSON), 1e-12);
+        assertEquals(centered, list.computeSimilarity(dense, other.getStats(), CENTERED), 1e-12);
+        assertEquals(centered, list.computeCenteredSimilarity(dense, other.getStats()), 1e-12);
+        CompressedRatings packed = CompressedRatings.of(list);
+        assertEquals(centered, packed.computeSimilarity(dense, other.getStats(), CENTERED, list.getStats()), 1e-12);
+        assertEquals(centered, packed.computeSimilarity(dense, other.getStats(), CENTERED, null), 1e-12);
+
+        // significance weighting shrinks both by 3 shared movies out of SIGNIFICANCE_OVERLAP
+        double weight = 3.0 / MovieRatingsList.SIGNIFICANCE_OVERLAP;
+        assertEquals(centered * weight,
+                list.computeSimilarity(dense, other.getStats(), CENTERED.withWeighting(true)), 1e-12);
+        assertEquals(pearson * weight,
+                list.computeSimilarity(dense, other.getStats(), Similarity.WEIGHTED), 1e-12);
+    }
+
+    private static MovieRatingsList list(int[] movies, double[] ratings) {
+        MovieRatingsList list = new MovieRatingsList();
+        for (int i = 0; i < movies.length; i++) {
+            list.insertByRating(movies[i], ratings[i]);
+        }
+        return list;
+    }
+
+    private static double[] dense(MovieRatingsList list, int numMovies) {
+        double[] dense = new double[numMovies];
+        list.spreadInto(dense);
+        return dense;
+    }
+
+    private static void insert(UsersList users, int user, MovieRatingsList list) {
+        for (MovieRatingNode node : list) {
+            users.insert(user, node.getMovieId(), node.getMovieRating(), 0);
+        }
+    }
+
+    private static long count(Metrics.Counter counter) {
+        return Metrics.snapshot().get(counter);
+    }
+}
@@ -0,0 +1,240 @@
+package movieRecommender;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String movies;
+    private String store;
+
+    @Before
+    public void writeStore() throws IOException {
+        File moviesFile = folder.newFile("movies.csv");
+        Files.write(moviesFile.toPath(), ("movieId,title,genres\n"
+                + "1,Toy Story (1995),Animation|Comedy\n"
+                + "2,Jumanji (1995),Adventure\n"
+                + "3,Heat (1995),Action|Crime\n").getBytes(StandardCharsets.US_ASCII));
+        movies = moviesFile.getPath();
+        store = new File(folder.getRoot(), "store.bin").getPath();
+
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.addRatings(new int[]{10, 10, 11, 12, 12, 12}, new int[]{1, 2, 1, 1, 2, 3},
+                new double[]{4.0, 2.5, 3.0, 5.0, 0.5, 1.5}, new long[]{100, 101, 102, 103, 104, 105}, 6);
+        recommender.saveUsers(store);
+    }
+
+    @Test
+    public void openReadsTheRatingsLazily() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 2);
+        UserStore userStore = recommender.getUsersData().getStore();
+        assertEquals(3, userStore.numUsers());
+        assertEquals(0, userStore.numResident());
+
+        assertEquals(3, userStore.count(index(recommender, 12)));
+        assertEquals(103, userStore.getMinTime(index(recommender, 12)));
+        assertEquals(105, userStore.getMaxTime(index(recommender, 12)));
+        assertEquals(4.0, rating(recommender, 10, 1), 0);
+        assertEquals(2.5, rating(recommender, 10, 2), 0);
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        assertEquals(0.5, rating(recommender, 12, 2), 0);
+        assertEquals(2, userStore.numResident());
+
+        UserNode user = recommender.getUsersData().get(index(recommender, 12));
+        assertEquals(103, user.getSegment(0).getTime(0));
+        userStore.close();
+    }
+
+    @Test
+    public void aChangedUserIsWrittenWhenEvicted() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 1);
+        UserStore userStore = recommender.getUsersData().getStore();
+        recommender.addRatings(new int[]{10, 10}, new int[]{3, 1}, new double[]{3.5, 1.0}, new long[]{200, 201}, 2);
+        int user = index(recommender, 10);
+        assertTrue(recommender.getUsersData().get(user).isResident());
+
+        // paging in another user evicts the changed one
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        assertFalse(recommender.getUsersData().get(user).isResident());
+        assertEquals(3, userStore.count(user));
+        assertEquals(201, userStore.getMaxTime(user));
+
+        // the scan reads the new block without paging the user in
+        double[] dense = new double[3];
+        int n = userStore.packed(user).size();
+        userStore.packed(user).spreadInto(dense);
+        assertEquals(3, n);
+        assertEquals(1.0, dense[recommender.getMovieIds().indexOf(1)], 0);
+        assertEquals(3.5, dense[recommender.getMovieIds().indexOf(3)], 0);
+
+        // and so do a page-in and a store written from this one
+        assertEquals(1.0, rating(recommender, 10, 1), 0);
+        String copy = new File(folder.getRoot(), "copy.bin").getPath();
+        recommender.saveUsers(copy);
+        userStore.close();
+        MovieRecommender reopened = new MovieRecommender();
+        reopened.openUsers(movies, copy, 1);
+        assertEquals(3.5, rating(reopened, 10, 3), 0);
+        assertEquals(2.5, rating(reopened, 10, 2), 0);
+        reopened.getUsersData().getStore().close();
+    }
+
+    @Test
+    public void aRatingThatIsNotAHalfStarIsTurnedAway() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 1);
+        UserStore userStore = recommender.getUsersData().getStore();
+        long numRatings = recommender.getUsersData().numRatings();
+        try {
+            recommender.addRatings(new int[]{10, 10}, new int[]{1, 3}, new double[]{1.0, 3.7}, new long[]{200, 201}, 2);
+            fail("a rating that is not a half star can not be stored");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // nothing of the batch is applied
+        assertEquals(4.0, rating(recommender, 10, 1), 0);
+        assertEquals(-1, rating(recommender, 10, 3), 0);
+        assertEquals(numRatings, recommender.getUsersData().numRatings());
+        userStore.close();
+    }
+
+    @Test
+    public void theClockSkipsAUserThatCanNotBeWritten() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 2);
+        UserStore userStore = recommender.getUsersData().getStore();
+        assertEquals(4.0, rating(recommender, 10, 1), 0);
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        // past the check of addRatings, the block of this user can not be written
+        UserNode user = recommender.getUsersData().get(index(recommender, 10));
+        user.insert(recommender.getMovieIds().indexOf(3), 3.7, 300);
+
+        // every later page-in still finds a user to evict
+        assertEquals(0.5, rating(recommender, 12, 2), 0);
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        assertEquals(5.0, rating(recommender, 12, 1), 0);
+        assertTrue(user.isResident());
+        assertEquals(3.7, rating(recommender, 10, 3), 0);
+        assertEquals(2, userStore.numResident());
+        userStore.close();
+    }
+
+    @Test
+    public void aFailedBatchKeepsTheAppliedUsersIndexed() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 1);
+        UserStore userStore = recommender.getUsersData().getStore();
+        // the only resident user can not be written, so the store has no room for a new one
+        UserNode user = recommender.getUsersData().get(index(recommender, 10));
+        user.insert(recommender.getMovieIds().indexOf(2), 3.7, 300);
+        int movie = recommender.getMovieIds().indexOf(3);
+        long numRatings = recommender.getUsersData().numRatings();
+        int count = recommender.getPopularity().getCount(movie);
+
+        try {
+            recommender.addRatings(new int[]{20, 10}, new int[]{3, 3}, new double[]{5.0, 4.0}, new long[]{400, 401}, 2);
+            fail("the store has no room for the new user");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        // user 10 comes first in the batch by index and is applied and indexed, user 20 is not
+        assertEquals(4.0, rating(recommender, 10, 3), 0);
+        assertEquals(numRatings + 1, recommender.getUsersData().numRatings());
+        assertEquals(2, recommender.getUsersData().postingLength(movie));
+        assertEquals(count + 1, recommender.getPopularity().getCount(movie));
+        assertEquals(null, recommender.getUsersData().get(index(recommender, 20)));
+        userStore.close();
+    }
+
+    @Test
+    public void saveUsersOverTheOpenStore() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 1);
+        UserStore userStore = recommender.getUsersData().getStore();
+        recommender.addRatings(new int[]{10}, new int[]{3}, new double[]{3.5}, new long[]{200}, 1);
+        recommender.saveUsers(store);
+
+        // the open store still reads the file it opened
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        assertEquals(0.5, rating(recommender, 12, 2), 0);
+        assertEquals(3.5, rating(recommender, 10, 3), 0);
+        userStore.close();
+
+        MovieRecommender reopened = new MovieRecommender();
+        reopened.openUsers(movies, store, 1);
+        assertEquals(3.5, rating(reopened, 10, 3), 0);
+        assertEquals(5.0, rating(reopened, 12, 1), 0);
+        reopened.getUsersData().getStore().close();
+    }
+
+    @Test
+    public void compactDropsTheOldBlocks() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.openUsers(movies, store, 1);
+        UserStore userStore = recommender.getUsersData().getStore();
+        long size = new File(store).length();
+        for (int i = 0; i < 20; i++) {
+            // each change of user 10 is appended when the next page-in evicts it
+            recommender.addRatings(new int[]{10}, new int[]{3}, new double[]{(1 + i % 10) / 2.0}, new long[]{200 + i}, 1);
+            rating(recommender, 11, 1);
+        }
+        long grown = new File(store).length();
+        assertTrue(grown > size);
+
+        // as small as a file written from scratch
+        userStore.compact();
+        String copy = new File(folder.getRoot(), "copy.bin").getPath();
+        recommender.saveUsers(copy);
+        assertTrue(new File(store).length() < grown);
+        assertEquals(new File(copy).length(), new File(store).length());
+        assertEquals(5.0, rating(recommender, 10, 3), 0);
+        assertEquals(3.0, rating(recommender, 11, 1), 0);
+        assertEquals(219, userStore.getMaxTime(index(recommender, 10)));
+
+        // evictions append to the compacted file
+        recommender.addRatings(new int[]{12}, new int[]{3}, new double[]{4.5}, new long[]{300}, 1);
+        rating(recommender, 10, 1);
+        assertEquals(4.5, rating(recommender, 12, 3), 0);
+        userStore.close();
+
+        // the compacted file is a store file with the ratings as they were then
+        MovieRecommender reopened = new MovieRecommender();
+        reopened.openUsers(movies, store, 1);
+        assertEquals(1.5, rating(reopened, 12, 3), 0);
+        assertEquals(5.0, rating(reopened, 10, 3), 0);
+        assertEquals(2.5, rating(reopened, 10, 2), 0);
+        reopened.getUsersData().getStore().close();
+    }
+
+    @Test(expected = IOException.class)
+    public void openFailsForAMissingFile() throws IOException {
+        new MovieRecommender().openUsers(movies, new File(folder.getRoot(), "missing.bin").getPath(), 1);
+    }
+
+    private static int index(MovieRecommender recommender, int userId) {
+        return recommender.getUserIds().indexOf(userId);
+    }
+
+    /** Return the rating of the movie by the user, external ids, paging the user in */
+    private static double rating(MovieRecommender recommender, int userId, int movieId) {
+        UserNode user = recommender.getUsersData().get(index(recommender, userId));
+        return user.getMovieRatings().getRating(recommender.getMovieIds().indexOf(movieId));
+    }
+}